@@ -0,0 +1,74 @@
+package org.ice.scene.ocean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.ice.math.Vector2f;
+import org.ice.physics.PhysicsSystem;
+
+/**
+ * Prints the accuracy reports of {@link OceanAccuracy} for the CPU
+ * backends.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final class AccuracyReport {
+
+	private AccuracyReport() {
+	}
+
+	/**
+	 * Prints the errors and update times of all CPU backends for the
+	 * default ocean parameters, followed by the pruned transformation for
+	 * several wind speeds.
+	 * <br>
+	 * Arguments: the dimensions to measure (default 64 to 512),<br>
+	 * optionally <code>-t seconds</code> for the spectrum time and<br>
+	 * <code>-p threshold</code> for the relative prune threshold (default<br>
+	 * 1e-6).
+	 *
+	 * @param args Arguments.
+	 */
+	public static void main(String[] args) {
+		double time = 10.0;
+		double threshold = 1e-6;
+		List<Integer> dimensions = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-t".equals(args[i]) && i + 1 < args.length) {
+				time = Double.parseDouble(args[++i]);
+			} else if ("-p".equals(args[i]) && i + 1 < args.length) {
+				threshold = Double.parseDouble(args[++i]);
+			} else {
+				dimensions.add(Integer.parseInt(args[i]));
+			}
+		}
+		if (dimensions.isEmpty()) {
+			dimensions.addAll(Arrays.asList(64, 128, 256, 512));
+		}
+
+		float patchSize = 256.0f;
+		float gravity = PhysicsSystem.GRAVITY_DEFAULT;
+		Vector2f windDirection = new Vector2f(0.35f, 0.65f);
+		Vector2f choppyScale = new Vector2f(1.5f, 1.5f);
+		SpectrumAlgorithm phillips = (water, k) -> Ocean.phillips(k, 4.0f, windDirection, 1.4f, gravity);
+
+		for (int dimension : dimensions) {
+			OceanTables tables = OceanTables.build(null, phillips, dimension, patchSize, gravity, OceanTables.DEFAULT_SEED);
+			for (OceanPrecision precision : OceanPrecision.values()) {
+				System.out.println(OceanAccuracy.measure(tables, patchSize, choppyScale, time, precision));
+			}
+		}
+
+		//Stronger winds concentrate the spectrum at low wave numbers
+		for (int dimension : dimensions) {
+			for (float windSpeed : new float[]{4.0f, 8.0f, 16.0f, 32.0f}) {
+				SpectrumAlgorithm spectrum = (water, k) -> Ocean.phillips(k, windSpeed, windDirection, 1.4f, gravity);
+				OceanTables tables = OceanTables.build(null, spectrum, dimension, patchSize, gravity, OceanTables.DEFAULT_SEED);
+				System.out.println(OceanAccuracy.measurePruning(tables, patchSize, choppyScale, time, threshold,
+					String.format(Locale.ROOT, "wind %.0f", windSpeed)));
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.ice.scene.ocean;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares JMH JSON results with a baseline.
+ * <br>
+ * A benchmark regresses if its score got worse by more than the threshold
+ * and by more than the combined score errors, or if the bytes it
+ * allocates per operation grew by more than the threshold. Benchmarks
+ * which are missing in either file are reported but never fail.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class BenchmarkBaseline {
+
+	/**
+	 * Allocation metric of the GC profiler. Older JMH versions prefix it
+	 * with a middle dot.
+	 */
+	private static final String ALLOCATION = "gc.alloc.rate.norm";
+	/**
+	 * Allocation growth which is always tolerated, in bytes per operation.
+	 */
+	private static final double ALLOCATION_SLACK = 64.0;
+
+	/**
+	 * Result of a single benchmark and parameter combination.
+	 */
+	private static final class Entry {
+
+		private String mode, unit;
+		private double score, error, allocation = Double.NaN;
+	}
+
+	private BenchmarkBaseline() {
+	}
+
+	/**
+	 * Compares the given result file with the baseline and prints one line
+	 * per benchmark.
+	 *
+	 * @param baselineFile Baseline file.
+	 * @param resultFile Result file.
+	 * @param threshold Allowed relative slowdown and allocation growth.
+	 * @param out Report target.
+	 * @return Number of regressions.
+	 * @throws IOException If a file can not be read.
+	 */
+	static int compare(Path baselineFile, Path resultFile, double threshold, PrintStream out) throws IOException {
+		Map<String, Entry> baseline = read(baselineFile);
+		Map<String, Entry> result = read(resultFile);
+
+		int regressions = 0;
+		for (Map.Entry<String, Entry> e : result.entrySet()) {
+			Entry current = e.getValue();
+			Entry base = baseline.get(e.getKey());
+			if (base == null) {
+				out.printf(Locale.ROOT, "NEW        %s  %.3f %s%n", e.getKey(), current.score, current.unit);
+				continue;
+			}
+
+			//Throughput is better when higher, all other modes when lower
+			boolean higherIsBetter = "thrpt".equals(current.mode);
+			double change = higherIsBetter ? base.score / current.score - 1.0 : current.score / base.score - 1.0;
+			boolean slower = change > threshold && Math.abs(current.score - base.score) > current.error + base.error;
+			boolean allocates = !Double.isNaN(current.allocation) && !Double.isNaN(base.allocation)
+				&& current.allocation > base.allocation * (1.0 + threshold) + ALLOCATION_SLACK;
+
+			String status = slower || allocates ? "REGRESSION" : "ok";
+			if (slower || allocates) {
+				regressions++;
+			}
+			out.printf(Locale.ROOT, "%-10s %s  %.3f -> %.3f %s (%+.1f%%)  %.0f -> %.0f B/op%n", status, e.getKey(),
+				base.score, current.score, current.unit, change * 100.0, base.allocation, current.allocation);
+		}
+		for (String key : baseline.keySet()) {
+			if (!result.containsKey(key)) {
+				out.println("MISSING    " + key);
+			}
+		}
+		out.println(regressions + " regression(s), threshold " + threshold);
+		return regressions;
+	}
+
+	private static Map<String, Entry> read(Path file) throws IOException {
+		JsonArray runs;
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			runs = JsonParser.parseReader(reader).getAsJsonArray();
+		}
+
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		for (JsonElement element : runs) {
+			JsonObject run = element.getAsJsonObject();
+			Entry entry = new Entry();
+			entry.mode = run.get("mode").getAsString();
+
+			JsonObject primary = run.getAsJsonObject("primaryMetric");
+			entry.score = primary.get("score").getAsDouble();
+			entry.unit = primary.get("scoreUnit").getAsString();
+			JsonElement error = primary.get("scoreError");
+			entry.error = error != null && error.isJsonPrimitive() && error.getAsJsonPrimitive().isNumber() ? error.getAsDouble() : 0.0;
+
+			JsonObject secondary = run.getAsJsonObject("secondaryMetrics");
+			if (secondary != null) {
+				for (Map.Entry<String, JsonElement> metric : secondary.entrySet()) {
+					if (metric.getKey().endsWith(ALLOCATION)) {
+						entry.allocation = metric.getValue().getAsJsonObject().get("score").getAsDouble();
+					}
+				}
+			}
+			entries.put(key(run), entry);
+		}
+		return entries;
+	}
+
+	/**
+	 * Builds a key from the benchmark name and its sorted parameters.
+	 */
+	private static String key(JsonObject run) {
+		StringBuilder sb = new StringBuilder(run.get("benchmark").getAsString());
+		JsonObject params = run.getAsJsonObject("params");
+		if (params != null) {
+			Map<String, String> sorted = new TreeMap<>();
+			for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+				sorted.put(param.getKey(), param.getValue().getAsString());
+			}
+			sb.append(sorted);
+		}
+		return sb.toString();
+	}
+}
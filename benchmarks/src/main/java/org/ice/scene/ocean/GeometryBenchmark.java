@@ -0,0 +1,52 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the CPU side of {@link Ocean#compile}, the grid and the
+ * clipmap generation. Nothing is uploaded.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class GridState {
+
+		@Param({"64", "128", "256", "512", "1024", "2048"})
+		public int size;
+	}
+
+	@State(Scope.Benchmark)
+	public static class ClipmapState {
+
+		@Param({"64", "128", "256"})
+		public int resolution;
+	}
+
+	@Benchmark
+	public OceanGrid grid(GridState state) {
+		return new OceanGrid(state.size, 16, 2.0f, 8.0f);
+	}
+
+	@Benchmark
+	public OceanClipmap clipmap(ClipmapState state) {
+		return new OceanClipmap(state.resolution, 6, 2.0f);
+	}
+}
@@ -0,0 +1,68 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.ice.math.Vector2f;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the CPU pipeline for square power of two, non power of two
+ * and rectangular spectra. The <code>texels</code> counter reports the
+ * throughput per texel, so the mixed radix sizes compare directly with the
+ * butterfly transformation of 512x512.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MixedRadixBenchmark {
+
+	@Param({"512x512", "480x480", "384x384", "512x128", "640x160"})
+	public String size;
+
+	private OceanReference reference;
+	private int texels;
+	private double time;
+
+	/**
+	 * Texels updated per measured interval.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+
+		public long texels;
+	}
+
+	@Setup
+	public void setup() {
+		String[] sides = size.split("x");
+		int width = Integer.parseInt(sides[0]), height = Integer.parseInt(sides[1]);
+		OceanTables tables = OceanTables.build(null, OceanBenchmarks.PHILLIPS, width, height, OceanBenchmarks.PATCH_SIZE, OceanBenchmarks.GRAVITY, OceanTables.DEFAULT_SEED);
+		reference = new OceanReference(tables, OceanBenchmarks.PATCH_SIZE, new Vector2f(1.5f, 1.5f));
+		texels = width * height;
+	}
+
+	@Benchmark
+	public double[] update(Counters counters) {
+		time += 1.0 / 60.0;
+		reference.update(time);
+		counters.texels += texels;
+		return reference.getDisplacement();
+	}
+}
@@ -0,0 +1,122 @@
+package org.ice.scene.ocean;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.ice.math.Vector2f;
+import org.ice.physics.PhysicsSystem;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the ocean benchmarks with allocation profiling and compares the
+ * results with a baseline.
+ * <br>
+ * Arguments:
+ * <ul>
+ * <li><code>--record</code> stores the results as the new baseline</li>
+ * <li><code>--baseline file</code> baseline file, default
+ * <code>baseline.json</code></li>
+ * <li><code>--result file</code> result file, default
+ * <code>target/jmh-result.json</code></li>
+ * <li><code>--threshold fraction</code> allowed slowdown and allocation
+ * growth, default 0.1</li>
+ * <li><code>-p name=v1,v2</code> overrides a benchmark parameter</li>
+ * <li>anything else is a benchmark include pattern</li>
+ * </ul>
+ * The process exits with status 1 if any benchmark regressed, so it can
+ * be used as a gate in regression runs.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final class OceanBenchmarks {
+
+	/**
+	 * Patch size of the default ocean.
+	 */
+	static final float PATCH_SIZE = 256.0f;
+	/**
+	 * Gravity of the default ocean.
+	 */
+	static final float GRAVITY = PhysicsSystem.GRAVITY_DEFAULT;
+	/**
+	 * Phillips spectrum with the parameters of the default ocean, which
+	 * does not need an ocean instance.
+	 */
+	static final SpectrumAlgorithm PHILLIPS;
+
+	static {
+		Vector2f windDirection = new Vector2f(0.35f, 0.65f);
+		PHILLIPS = (water, k) -> Ocean.phillips(k, 4.0f, windDirection, 1.4f, GRAVITY);
+	}
+
+	private OceanBenchmarks() {
+	}
+
+	public static void main(String[] args) throws IOException, RunnerException {
+		String include = "org\\.ice\\.scene\\.ocean\\..*Benchmark";
+		Path baseline = Paths.get("baseline.json");
+		Path result = Paths.get("target", "jmh-result.json");
+		double threshold = 0.1;
+		boolean record = false;
+		Map<String, String[]> params = new LinkedHashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--record":
+					record = true;
+					break;
+				case "--baseline":
+					baseline = Paths.get(args[++i]);
+					break;
+				case "--result":
+					result = Paths.get(args[++i]);
+					break;
+				case "--threshold":
+					threshold = Double.parseDouble(args[++i]);
+					break;
+				case "-p":
+					String[] param = args[++i].split("=", 2);
+					params.put(param[0], param[1].split(","));
+					break;
+				default:
+					include = args[i];
+			}
+		}
+		if (result.getParent() != null) {
+			Files.createDirectories(result.getParent());
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder()
+			.include(include)
+			.addProfiler(GCProfiler.class)
+			.resultFormat(ResultFormatType.JSON)
+			.result(result.toString());
+		for (Map.Entry<String, String[]> param : params.entrySet()) {
+			options.param(param.getKey(), param.getValue());
+		}
+		new Runner(options.build()).run();
+
+		if (record) {
+			Files.copy(result, baseline, StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("Baseline recorded to " + baseline);
+			return;
+		}
+		if (!Files.isRegularFile(baseline)) {
+			System.out.println("No baseline at " + baseline + ", run with --record first");
+			return;
+		}
+		int regressions = BenchmarkBaseline.compare(baseline, result, threshold, System.out);
+		if (regressions > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.ice.math.FastMath;
+import org.ice.math.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the phillips spectrum evaluated for every wave vector of a
+ * table, without the random amplitudes.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhillipsBenchmark {
+
+	@Param({"64", "128", "256", "512", "1024", "2048"})
+	public int dimension;
+
+	private final Vector2f k = new Vector2f(0.0f, 0.0f);
+
+	@Benchmark
+	public double phillips() {
+		int half = dimension / 2;
+		float fa = 2.0f * FastMath.PI_FLOAT / OceanBenchmarks.PATCH_SIZE;
+		double sum = 0.0;
+		for (int i = 1; i < dimension; i++) {
+			for (int j = 1; j < dimension; j++) {
+				if (i == half && j == half) {
+					continue;
+				}
+				k.x = (i - half) * fa;
+				k.y = (j - half) * fa;
+				sum += OceanBenchmarks.PHILLIPS.spectrum(null, k);
+			}
+		}
+		return sum;
+	}
+}
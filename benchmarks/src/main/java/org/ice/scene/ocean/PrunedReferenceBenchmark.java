@@ -0,0 +1,59 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.ice.math.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the pruned CPU pipeline for several sea states. A negative
+ * threshold runs the full transformation, 0 only prunes exact zeros.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrunedReferenceBenchmark {
+
+	@Param({"256", "512"})
+	public int dimension;
+
+	@Param({"4", "16", "32"})
+	public float windSpeed;
+
+	@Param({"-1", "0", "1e-6"})
+	public double threshold;
+
+	private OceanReference reference;
+	private double time;
+
+	@Setup
+	public void setup() {
+		Vector2f windDirection = new Vector2f(0.35f, 0.65f);
+		SpectrumAlgorithm spectrum = (water, k) -> Ocean.phillips(k, windSpeed, windDirection, 1.4f, OceanBenchmarks.GRAVITY);
+		OceanTables tables = OceanTables.build(null, spectrum, dimension, OceanBenchmarks.PATCH_SIZE, OceanBenchmarks.GRAVITY, OceanTables.DEFAULT_SEED);
+		reference = new OceanReference(tables, OceanBenchmarks.PATCH_SIZE, new Vector2f(1.5f, 1.5f));
+		reference.setPruneThreshold(threshold);
+	}
+
+	@Benchmark
+	public double[] update() {
+		time += 1.0 / 60.0;
+		reference.update(time);
+		return reference.getDisplacement();
+	}
+}
@@ -0,0 +1,58 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.ice.math.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the CPU pipeline: spectrum displacement, inverse fourier
+ * transformation and normals. 2048 is left out, because the exact
+ * reference needs more than half a gigabyte at that dimension.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReferenceBenchmark {
+
+	@Param({"64", "128", "256", "512", "1024"})
+	public int dimension;
+
+	/**
+	 * Storage precision or EXACT for the double precision reference.
+	 */
+	@Param({"EXACT", "HALF", "FULL"})
+	public String precision;
+
+	private OceanReference reference;
+	private double time;
+
+	@Setup
+	public void setup() {
+		OceanTables tables = OceanTables.build(null, OceanBenchmarks.PHILLIPS, dimension, OceanBenchmarks.PATCH_SIZE, OceanBenchmarks.GRAVITY, OceanTables.DEFAULT_SEED);
+		reference = new OceanReference(tables, OceanBenchmarks.PATCH_SIZE, new Vector2f(1.5f, 1.5f),
+			"EXACT".equals(precision) ? null : OceanPrecision.valueOf(precision));
+	}
+
+	@Benchmark
+	public double[] update() {
+		time += 1.0 / 60.0;
+		reference.update(time);
+		return reference.getDisplacement();
+	}
+}
@@ -0,0 +1,107 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.ice.math.FastMath;
+import org.ice.math.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the phillips, Pierson-Moskowitz, JONSWAP and TMA spectra
+ * evaluated for every wave vector of a 1024x1024 table. The rebuild
+ * benchmark includes the radial tables of {@link OceanSpectrum}, which are
+ * built once per parameter set.
+ * <br>
+ * The <code>EXPLICIT</code> source creates the spectra directly, the
+ * <code>OCEAN</code> source resolves the ocean constants like a table
+ * build of {@link Ocean} does, see {@link Ocean#resolveSpectrumAlgorithm}.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpectrumBenchmark {
+
+	private static final int DIMENSION = 1024;
+
+	@Param({"PHILLIPS", "PIERSON_MOSKOWITZ", "JONSWAP", "TMA"})
+	public String algorithm;
+
+	@Param({"EXPLICIT", "OCEAN"})
+	public String source;
+
+	private final Vector2f windDirection = new Vector2f(0.35f, 0.65f);
+	private final Vector2f k = new Vector2f(0.0f, 0.0f);
+	private SpectrumAlgorithm spectrum;
+
+	@Setup
+	public void setup() {
+		spectrum = create();
+	}
+
+	private SpectrumAlgorithm create() {
+		if (source.equals("OCEAN")) {
+			return Ocean.resolveSpectrumAlgorithm(oceanAlgorithm(), 4.0f, windDirection, OceanSpectrum.DEFAULT_FETCH,
+				OceanSpectrum.DEFAULT_DEPTH, 1.4f, OceanBenchmarks.GRAVITY);
+		}
+		if (algorithm.equals("PHILLIPS")) {
+			return OceanBenchmarks.PHILLIPS;
+		}
+		return OceanSpectrum.create(OceanSpectrum.Shape.valueOf(algorithm), 4.0f, windDirection, OceanSpectrum.DEFAULT_FETCH,
+			OceanSpectrum.DEFAULT_DEPTH, 1.4f, OceanBenchmarks.GRAVITY);
+	}
+
+	private SpectrumAlgorithm oceanAlgorithm() {
+		switch (algorithm) {
+			case "PIERSON_MOSKOWITZ":
+				return Ocean.PIERSON_MOSKOWITZ;
+			case "JONSWAP":
+				return Ocean.JONSWAP;
+			case "TMA":
+				return Ocean.TMA;
+			default:
+				return Ocean.PHILLIPS;
+		}
+	}
+
+	private double evaluate(SpectrumAlgorithm spectrum) {
+		int half = DIMENSION / 2;
+		float fa = 2.0f * FastMath.PI_FLOAT / OceanBenchmarks.PATCH_SIZE;
+		double sum = 0.0;
+		for (int i = 1; i < DIMENSION; i++) {
+			for (int j = 1; j < DIMENSION; j++) {
+				if (i == half && j == half) {
+					continue;
+				}
+				k.x = (i - half) * fa;
+				k.y = (j - half) * fa;
+				sum += spectrum.spectrum(null, k);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double spectrum() {
+		return evaluate(spectrum);
+	}
+
+	@Benchmark
+	public double rebuild() {
+		return evaluate(create());
+	}
+}
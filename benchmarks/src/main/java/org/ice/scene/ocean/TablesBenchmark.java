@@ -0,0 +1,69 @@
+package org.ice.scene.ocean;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the pre-calculated ocean tables.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TablesBenchmark {
+
+	@Param({"64", "128", "256", "512", "1024", "2048"})
+	public int dimension;
+
+	private int butterflies;
+
+	@Setup
+	public void setup() {
+		butterflies = Integer.numberOfTrailingZeros(dimension);
+	}
+
+	@Benchmark
+	public float[] spectrum() {
+		return OceanTables.spectrum(null, OceanBenchmarks.PHILLIPS, dimension, OceanBenchmarks.PATCH_SIZE, OceanTables.DEFAULT_SEED);
+	}
+
+	@Benchmark
+	public float[] omega() {
+		return OceanTables.omega(dimension, OceanBenchmarks.PATCH_SIZE, OceanBenchmarks.GRAVITY);
+	}
+
+	@Benchmark
+	public float[] butterfly() {
+		return OceanTables.butterfly(dimension);
+	}
+
+	@Benchmark
+	public float[][] indices() {
+		return OceanTables.indices(butterflies, 2 * dimension);
+	}
+
+	@Benchmark
+	public float[][] weights() {
+		return OceanTables.weights(butterflies, 2 * dimension, dimension);
+	}
+
+	@Benchmark
+	public OceanTables build() {
+		return OceanTables.build(null, OceanBenchmarks.PHILLIPS, dimension, OceanBenchmarks.PATCH_SIZE, OceanBenchmarks.GRAVITY, OceanTables.DEFAULT_SEED);
+	}
+}
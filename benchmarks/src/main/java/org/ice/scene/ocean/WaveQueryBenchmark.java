@@ -0,0 +1,64 @@
+package org.ice.scene.ocean;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the analytic wave query for a batch of random points, see
+ * {@link ReferenceBenchmark} for the cost of the full FFT field.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WaveQueryBenchmark {
+
+	@Param({"32", "128", "512"})
+	public int components;
+
+	@Param({"1", "256"})
+	public int points;
+
+	private OceanWaveQuery query;
+	private float[] x, z, dx, dy, dz;
+	private double time;
+
+	@Setup
+	public void setup() {
+		OceanTables tables = OceanTables.build(null, OceanBenchmarks.PHILLIPS, 512, OceanBenchmarks.PATCH_SIZE, OceanBenchmarks.GRAVITY, OceanTables.DEFAULT_SEED);
+		query = new OceanWaveQuery(tables, OceanBenchmarks.PATCH_SIZE, components);
+		Random random = new Random(7);
+		x = new float[points];
+		z = new float[points];
+		for (int i = 0; i < points; i++) {
+			x[i] = random.nextFloat() * 4.0f * OceanBenchmarks.PATCH_SIZE;
+			z[i] = random.nextFloat() * 4.0f * OceanBenchmarks.PATCH_SIZE;
+		}
+		dx = new float[points];
+		dy = new float[points];
+		dz = new float[points];
+	}
+
+	@Benchmark
+	public float[] query() {
+		time += 1.0 / 60.0;
+		query.query(x, z, points, time, dx, dy, dz);
+		return dy;
+	}
+}
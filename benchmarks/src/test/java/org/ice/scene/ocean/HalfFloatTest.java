@@ -0,0 +1,49 @@
+package org.ice.scene.ocean;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Boundary tests of the {@link HalfFloat} conversion around the smallest
+ * subnormal half float.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public class HalfFloatTest {
+
+	/**
+	 * Smallest subnormal half float.
+	 */
+	private static final float SMALLEST = 0x1.0p-24f;
+
+	@Test
+	public void smallestSubnormal() {
+		assertEquals(0x0001, HalfFloat.toHalf(SMALLEST));
+		assertEquals(SMALLEST, HalfFloat.toFloat((short) 0x0001), 0.0f);
+	}
+
+	@Test
+	public void halfOfSmallestSubnormalRoundsUp() {
+		assertEquals(0x0001, HalfFloat.toHalf(0.5f * SMALLEST));
+		assertEquals(0x0001, HalfFloat.toHalf(Math.nextUp(0.5f * SMALLEST)));
+		assertEquals(0x0001, HalfFloat.toHalf(Math.nextDown(SMALLEST)));
+		assertEquals((short) 0x8001, HalfFloat.toHalf(-0.5f * SMALLEST));
+	}
+
+	@Test
+	public void belowHalfOfSmallestSubnormalFlushes() {
+		assertEquals(0x0000, HalfFloat.toHalf(Math.nextDown(0.5f * SMALLEST)));
+		assertEquals((short) 0x8000, HalfFloat.toHalf(-Math.nextDown(0.5f * SMALLEST)));
+		assertEquals(0x0000, HalfFloat.toHalf(Float.MIN_VALUE));
+	}
+
+	@Test
+	public void subnormalsRoundToNearest() {
+		assertEquals(0x0002, HalfFloat.toHalf(1.75f * SMALLEST));
+		assertEquals(0x0001, HalfFloat.toHalf(1.25f * SMALLEST));
+		assertEquals(0x03FF, HalfFloat.toHalf(1023.0f * SMALLEST));
+		assertEquals(0x0400, HalfFloat.toHalf(0x1.0p-14f));
+	}
+}
@@ -0,0 +1,197 @@
+package org.ice.scene.ocean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.ice.math.Vector2f;
+import org.ice.physics.PhysicsSystem;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Conformance tests of the bit exact {@link SeaState} reconstruction.
+ * <br>
+ * The displacement field of a sea state is hashed at several times on the
+ * calling thread, and the hashes have to match the ones computed
+ * concurrently from decoded copies of the descriptor and the ones computed
+ * in child processes running interpreted, with the client compiler only
+ * and with the default compilers.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public class SeaStateConformanceTest {
+
+	/**
+	 * Simulation times which are checked.
+	 */
+	private static final double[] TIMES = {0.0, 1.5, 3_600.25, 1_000_000.125};
+	/**
+	 * Number of concurrent threads.
+	 */
+	private static final int THREADS = 4;
+
+	private static SeaState state;
+	private static String descriptor;
+	private static List<String> expected;
+
+	@BeforeClass
+	public static void hashReference() {
+		state = new SeaState(SeaState.Algorithm.PHILLIPS, OceanTables.DEFAULT_SEED, 128, 256.0f, 4.0f, new Vector2f(0.35f, 0.65f), 1.4f,
+			PhysicsSystem.GRAVITY_DEFAULT, 0L);
+		descriptor = toHex(state.encode());
+		expected = hashes(state);
+	}
+
+	@Test
+	public void encodingRoundTrip() {
+		assertEquals(state, SeaState.decode(state.encode()));
+	}
+
+	@Test
+	public void rectangularRoundTrip() {
+		SeaState strip = new SeaState(SeaState.Algorithm.JONSWAP, OceanTables.DEFAULT_SEED, 128, 32, 256.0f, 4.0f, new Vector2f(0.35f, 0.65f),
+			1.4f, PhysicsSystem.GRAVITY_DEFAULT, OceanSpectrum.DEFAULT_FETCH, OceanSpectrum.DEFAULT_DEPTH, 0L);
+		SeaState decoded = SeaState.decode(strip.encode());
+		assertEquals(strip, decoded);
+		assertEquals(32, decoded.getDimensionZ());
+		assertEquals(3 * 128 * 32, decoded.displacement(1.5).length);
+	}
+
+	@Test
+	public void squareVersion2Decoding() {
+		//A version 2 descriptor is the current one without the trailing dimension along the z axis
+		byte[] data = Arrays.copyOf(state.encode(), SeaState.ENCODED_SIZE - 1);
+		data[0] = 2;
+		assertEquals(state, SeaState.decode(data));
+	}
+
+	@Test
+	public void concurrentThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				//Every thread builds its own tables from a decoded copy
+				futures.add(executor.submit(() -> hashes(SeaState.decode(fromHex(descriptor)))));
+			}
+			for (Future<List<String>> future : futures) {
+				assertEquals(expected, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void interpretedProcess() throws Exception {
+		assertEquals(expected, runChild("-Xint"));
+	}
+
+	@Test
+	public void clientCompilerProcess() throws Exception {
+		assertEquals(expected, runChild("-XX:TieredStopAtLevel=1"));
+	}
+
+	@Test
+	public void defaultCompilersProcess() throws Exception {
+		assertEquals(expected, runChild());
+	}
+
+	/**
+	 * Hashes the displacement field of the given sea state at every time.
+	 *
+	 * @param state Sea state.
+	 * @return SHA-256 hashes of the raw bits of all values, in hex.
+	 */
+	private static List<String> hashes(SeaState state) {
+		List<String> hashes = new ArrayList<>();
+		for (double time : TIMES) {
+			hashes.add(hash(state, time));
+		}
+		return hashes;
+	}
+
+	private static String hash(SeaState state, double simulationTime) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] bits = new byte[Long.BYTES];
+			for (double value : state.displacement(simulationTime)) {
+				long raw = Double.doubleToRawLongBits(value);
+				for (int i = 0; i < Long.BYTES; i++) {
+					bits[i] = (byte) (raw >>> (56 - 8 * i));
+				}
+				digest.update(bits);
+			}
+			return toHex(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not available!", ex);
+		}
+	}
+
+	private static String toHex(byte[] data) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : data) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] data = new byte[hex.length() / 2];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return data;
+	}
+
+	private static List<String> runChild(String... options) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(Arrays.asList(options));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Child.class.getName());
+		command.add(descriptor);
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line.trim());
+			}
+		}
+		assertTrue("Child process failed: " + lines, process.waitFor() == 0);
+		return lines;
+	}
+
+	/**
+	 * Entry point of the child processes, prints the hashes of the given
+	 * descriptor, one per line.
+	 */
+	public static final class Child {
+
+		private Child() {
+		}
+
+		public static void main(String[] args) {
+			for (String hash : hashes(SeaState.decode(fromHex(args[0])))) {
+				System.out.println(hash);
+			}
+		}
+	}
+}
@@ -11,6 +11,7 @@ uniform mat3 m_ModelNormalMatrix;
 
 uniform sampler2D m_NormalsFoldingMap;
 uniform sampler2D m_FoamMap;
+uniform sampler2D m_FoamAccumulationMap;
 
 //uniform samplerCube m_SkyBox;
 
@@ -31,11 +32,13 @@ uniform float m_FoamHeightModification;
 // Varying variables
 smooth in vec4 e_TexCoord;
 smooth in vec4 e_Position;
+smooth in vec2 e_WakeSlope;
 smooth in vec4 v_Color;
 
 void main(void) {
     // Pre-Calculated Often Used Values
-    vec3 normal = normalize(m_ModelNormalMatrix * texture(m_NormalsFoldingMap, e_TexCoord.st).xyz);
+    // Tilt the normal by the slope of the wake layer, which is zero without one
+    vec3 normal = normalize(m_ModelNormalMatrix * (normalize(texture(m_NormalsFoldingMap, e_TexCoord.st).xyz) - vec3(e_WakeSlope.x, 0.0, e_WakeSlope.y)));
     float folding = texture(m_NormalsFoldingMap, e_TexCoord.st).a;
 
     float fraction = (e_Position.y + 4.0) * 0.1;
@@ -68,7 +71,8 @@ void main(void) {
     // Put All Together
     vec4 color0 =  mix(mix(heightAdjustment, reflection, m_Reflection), refraction, m_Reflection);
     vec4 color1 = texture(m_FoamMap, e_TexCoord.st * 6.0);
-    float foamFactor = folding * m_Foam + 0.0 * m_FoamHeightModification;
+    // The accumulated foam holds the folding of this frame and the decayed folding of earlier frames
+    float foamFactor = texture(m_FoamAccumulationMap, e_TexCoord.st).r * m_Foam + 0.0 * m_FoamHeightModification;
     vec4 water = mix(color0, color1, clamp(foamFactor, 0.0, 1.0)) * m_DiffuseColor;
 
     vec4 result = diffuse + water + specular * fs;
@@ -3,10 +3,27 @@
 // Author: Daniel Kleebinder
 
 //Input vertex data
-in vec4 i_Vertex;
-in vec3 i_Normal;
-in vec4 i_TexCoord;
-in vec4 i_Color;
+//The grid lies in the x-z plane, so only (x, z) is stored per vertex
+in vec2 i_Vertex;
+in vec2 i_TexCoord;
+
+//Constant vertex attributes
+uniform vec4 m_SurfaceColor;
+
+//Clipmap
+//In clipmap mode i_Vertex holds the lattice coordinate and i_TexCoord.x the
+//level index. Every level is described by (origin x, origin z, cell size).
+uniform bool m_Clipmap;
+uniform vec3 m_ClipmapLevels[16];
+//Half extent of a level and width of the morph region at its outer border,
+//both in cells of the level. Towards the border the odd lattice vertices
+//collapse onto their even neighbours, so the last cells of a level match the
+//cells of the next coarser level and the rings meet without T-junctions.
+uniform vec2 m_ClipmapMorph;
+uniform vec3 m_CameraPosition;
+//Texture coordinates per x-z unit, the spectra of rectangular maps repeat
+//later along z
+uniform vec2 m_TexCoordScale;
 
 //Matrices
 uniform mat4 m_ModelMatrix;
@@ -26,7 +43,22 @@ smooth out vec4 v_Position;
 smooth out vec4 v_Color;
 
 void main(void) {
-    v_TexCoord = i_TexCoord;
-    v_Position = i_Vertex;
-    v_Color    = i_Color;
+    if (m_Clipmap) {
+        vec3 level = m_ClipmapLevels[int(i_TexCoord.x)];
+        vec2 position = level.xy + i_Vertex * level.z;
+        if (m_ClipmapMorph.y > 0.0) {
+            //The surface shaders double the x-z plane, see Water.tes. The
+            //levels snap to two cells, so the border is at least the half
+            //extent minus two cells away and always fully morphed.
+            vec2 viewer = abs(position - m_CameraPosition.xz * 0.5) / level.z;
+            vec2 alpha = clamp((viewer - (m_ClipmapMorph.x - m_ClipmapMorph.y - 2.0)) / m_ClipmapMorph.y, 0.0, 1.0);
+            position = level.xy + (i_Vertex - mod(i_Vertex, 2.0) * max(alpha.x, alpha.y)) * level.z;
+        }
+        v_TexCoord = vec4(position * m_TexCoordScale, 0.0, 1.0);
+        v_Position = vec4(position.x, 0.0, position.y, 1.0);
+    } else {
+        v_TexCoord = vec4(i_TexCoord * vec2(1.0, m_TexCoordScale.y / m_TexCoordScale.x), 0.0, 1.0);
+        v_Position = vec4(i_Vertex.x, 0.0, i_Vertex.y, 1.0);
+    }
+    v_Color = m_SurfaceColor;
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package org.ice.scene.ocean;
+
+import org.ice.shader.ShaderProgram;
+import org.lwjgl.opengl.GL20;
+
+/**
+ * Shader program which is loaded from the shared {@link ProgramBinaryCache}
+ * whenever possible.
+ * <br>
+ * On a cache hit the program is created from the stored binary and the
+ * shaders are not compiled at all. On a miss, or if the driver rejects the
+ * binary, the program is compiled from source as usual and its binary is
+ * stored for the next time, see {@link ProgramBinaryCache#store}.
+ * <br>
+ * The engine has no hook which accepts a program binary, so a cache hit<br>
+ * bypasses {@link ShaderProgram#compile()} completely: the program name,<br>
+ * link state and uniform locations the base class keeps after its own<br>
+ * link are never set. This class assumes that the engine resolves the<br>
+ * program only through {@link #getProgramID()} in <code>use()</code>,<br>
+ * the parameter upload and <code>dispose()</code>, and looks uniforms up<br>
+ * by name on that program. If an engine version keeps any of this state<br>
+ * itself, disable the cache with <code>-Dice.ocean.shaderCache=off</code>.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class CachedShaderProgram extends ShaderProgram {
+
+	/**
+	 * Program created from a cached binary, 0 if compiled from source.
+	 */
+	private int binaryProgram;
+
+	/**
+	 * Creates a new cached shader program.
+	 *
+	 * @param name Program name.
+	 */
+	CachedShaderProgram(String name) {
+		super(name);
+	}
+
+	@Override
+	public void compile() {
+		ProgramBinaryCache cache = ProgramBinaryCache.shared();
+		String key = cache.key(this);
+		if (key != null) {
+			binaryProgram = cache.load(key);
+			if (binaryProgram != 0) {
+				return;
+			}
+		}
+		super.compile();
+		if (key != null) {
+			cache.store(key, super.getProgramID());
+		}
+	}
+
+	@Override
+	public int getProgramID() {
+		return binaryProgram != 0 ? binaryProgram : super.getProgramID();
+	}
+
+	@Override
+	public void dispose() {
+		if (binaryProgram != 0) {
+			GL20.glDeleteProgram(binaryProgram);
+			binaryProgram = 0;
+		}
+		super.dispose();
+	}
+}
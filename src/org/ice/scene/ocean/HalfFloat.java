@@ -0,0 +1,127 @@
+package org.ice.scene.ocean;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven conversion of 32 bit floats into 16 bit half floats.
+ * <br>
+ * The conversion uses the base and shift tables described by Jeroen van
+ * der Zijp, indexed by the sign and exponent of the float. Every value is
+ * converted with two table lookups, a shift and an add, rounding to the
+ * nearest half float. Values out of range become infinity, values below
+ * half the smallest subnormal become zero and NaN stays NaN.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class HalfFloat {
+
+	/**
+	 * Half float bits of the sign and exponent.
+	 */
+	private static final short[] BASE = new short[512];
+	/**
+	 * Mantissa shift of the sign and exponent.
+	 */
+	private static final byte[] SHIFT = new byte[512];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int e = i - 127;
+			int base, shift;
+			if (e < -25) {
+				//Too small, flush to zero
+				base = 0x0000;
+				shift = 24;
+			} else if (e == -25) {
+				//At least half the smallest subnormal, rounds up to it
+				base = 0x0001;
+				shift = 24;
+			} else if (e < -14) {
+				//Subnormal half floats
+				base = 0x0400 >> (-e - 14);
+				shift = -e - 1;
+			} else if (e <= 15) {
+				//Normal half floats
+				base = (e + 15) << 10;
+				shift = 13;
+			} else if (e < 128) {
+				//Too large, map to infinity
+				base = 0x7C00;
+				shift = 24;
+			} else {
+				//Infinity and NaN
+				base = 0x7C00;
+				shift = 13;
+			}
+			BASE[i] = (short) base;
+			BASE[i | 0x100] = (short) (base | 0x8000);
+			SHIFT[i] = (byte) shift;
+			SHIFT[i | 0x100] = (byte) shift;
+		}
+	}
+
+	private HalfFloat() {
+	}
+
+	/**
+	 * Converts a single float into half float bits.
+	 *
+	 * @param value Float value.
+	 * @return Half float bits.
+	 */
+	static short toHalf(float value) {
+		int f = Float.floatToRawIntBits(value);
+		int index = f >>> 23;
+		int shift = SHIFT[index];
+		int mantissa = f & 0x007FFFFF;
+		if ((index & 0xFF) == 0xFF) {
+			//Keep NaN a NaN even if the upper mantissa bits are zero
+			return (short) (BASE[index] | (mantissa >> shift) | (mantissa != 0 ? 0x0200 : 0));
+		}
+		if (shift == 24) {
+			return BASE[index];
+		}
+		int half = BASE[index] + (mantissa >> shift);
+		//Round to nearest, a carry correctly moves into the exponent
+		half += (mantissa >> (shift - 1)) & 1;
+		return (short) half;
+	}
+
+	/**
+	 * Converts half float bits back into a float. The conversion is exact.
+	 *
+	 * @param half Half float bits.
+	 * @return Float value.
+	 */
+	static float toFloat(short half) {
+		int sign = (half & 0x8000) << 16;
+		int exponent = (half >>> 10) & 0x1F;
+		int mantissa = half & 0x03FF;
+		if (exponent == 0x1F) {
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		}
+		if (exponent == 0) {
+			//Zero and subnormal half floats are normal floats
+			float value = mantissa * 0x1.0p-24f;
+			return sign != 0 ? -value : value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+
+	/**
+	 * Converts all floats of the given array into half floats and writes
+	 * them into the target buffer in its byte order.
+	 *
+	 * @param source Float values.
+	 * @param target Target buffer with at least
+	 * <code>2 * source.length</code> remaining bytes.
+	 * @return Target buffer.
+	 */
+	static ByteBuffer toHalf(float[] source, ByteBuffer target) {
+		for (float value : source) {
+			target.putShort(toHalf(value));
+		}
+		return target;
+	}
+}
@@ -1,20 +1,27 @@
 package org.ice.scene.ocean;
 
-import java.nio.FloatBuffer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ice.core.AbstractEngine;
 import org.ice.core.AbstractEngineState;
 import org.ice.math.FastMath;
-import org.ice.math.FastRandom;
+import org.ice.math.Matrix4f;
 import org.ice.math.Vector2f;
 import org.ice.math.Vector3f;
-import org.ice.math.Vector4f;
 import org.ice.math.paint.ColorRGBA;
 import org.ice.physics.CollisionShape;
 import org.ice.physics.PhysicsSystem;
 import org.ice.physics.boundings.BoundingSphere;
-import org.ice.platform.BufferGroup;
-import org.ice.platform.GeometryBuffer;
 import org.ice.platform.Pipeline;
 import org.ice.platform.VertexArrayBuffer;
 import org.ice.platform.texture.ImageData;
@@ -24,30 +31,30 @@ import org.ice.platform.texture.Texture2D;
 import org.ice.platform.texture.TextureCubeMap;
 import org.ice.scene.Mesh;
 import org.ice.scene.lod.TessellationLevelOfDetail;
-import org.ice.scene.option.DataModificationType;
-import org.ice.scene.option.PrimitiveType;
 import org.ice.scene.render.Renderer;
 import org.ice.shader.ComputeShader;
-import org.ice.shader.FragmentShader;
 import org.ice.shader.ShaderProgram;
-import org.ice.shader.TessellationControlShader;
-import org.ice.shader.TessellationEvaluationShader;
-import org.ice.shader.VertexShader;
 import org.ice.shader.parameter.BoolParameter;
 import org.ice.shader.parameter.ColorRGBAParameter;
 import org.ice.shader.parameter.FloatParameter;
 import org.ice.shader.parameter.Image2DParameter;
+import org.ice.shader.parameter.IntParameter;
 import org.ice.shader.parameter.Mat3Parameter;
 import org.ice.shader.parameter.Mat4Parameter;
 import org.ice.shader.parameter.Sampler2DParameter;
 import org.ice.shader.parameter.Vec2Parameter;
 import org.ice.shader.parameter.Vec3Parameter;
-import org.ice.util.AssetManager;
 import org.ice.util.BufferUtilities;
 import org.ice.util.EngineTimer;
 import org.ice.util.GraphicsUtilities;
 import org.ice.util.LoggerFactory;
 import org.ice.util.OffscreenSampler;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
 
 /**
  *
@@ -60,53 +67,123 @@ public class Ocean extends Mesh {
 	 * Class logger.
 	 */
 	private static final Logger LOG = LoggerFactory.getLogger(Ocean.class);
+	/**
+	 * Distance between two neighbouring grid vertices.
+	 */
+	private static final float GRID_SPACING = 2.0f;
+	/**
+	 * Amplitude factor applied to the spectrum during the displacement.
+	 */
+	static final float DISPLACEMENT_AMPLITUDE = 0.25f;
+	/**
+	 * Spectrum quality of the coarse pipeline in progressive mode.
+	 */
+	private static final int PROGRESSIVE_DIMENSION = 64;
+	/**
+	 * Angle in radians one pixel covers at a 60 degree vertical field of
+	 * view and 1080 lines, which defines the distance based mip selection.
+	 */
+	private static final float MIPMAP_PIXEL_ANGLE = 1.07e-3f;
+	/**
+	 * Executor which builds the ocean tables in progressive mode.
+	 */
+	private static final ExecutorService TABLE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Ocean Tables");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Listeners of collected oceans which still have to be removed from the
+	 * renderer, see {@link #removeStaleListeners()}.
+	 */
+	private static final Queue<Renderer.Listener> STALE_LISTENERS = new ConcurrentLinkedQueue<>();
 	/**
 	 * Natural phillips spectrum algorithm.
 	 */
-	public static final SpectrumAlgorithm PHILLIPS = (Ocean water, Vector2f k) -> {
-		float r = (water.getWindSpeed() * water.getWindSpeed()) / (water.getGravity() * 0.01f);
-		float l = r / 1_000.0f;
-
-		float sqrK = k.x * k.x + k.y * k.y;
-		float cosK = k.x * water.getWindDirection().x + k.y * water.getWindDirection().y;
-
-		float phillips = water.getAmplitude() * FastMath.exp(-1.0f / (sqrK * r * r)) / (sqrK * sqrK * sqrK) * (cosK * cosK);
-
-		if (cosK < 0.0f) {
-			phillips *= 0.07f;
-		}
+	public static final SpectrumAlgorithm PHILLIPS = (Ocean water, Vector2f k)
+		-> phillips(k, water.getWindSpeed(), water.getWindDirection(), water.getAmplitude(), water.getGravity());
+	/**
+	 * Fully developed Pierson-Moskowitz spectrum, see {@link OceanSpectrum}.
+	 */
+	public static final SpectrumAlgorithm PIERSON_MOSKOWITZ = new OceanSpectrum.OceanDriven(OceanSpectrum.Shape.PIERSON_MOSKOWITZ);
+	/**
+	 * Fetch limited JONSWAP spectrum, see {@link OceanSpectrum}.
+	 */
+	public static final SpectrumAlgorithm JONSWAP = new OceanSpectrum.OceanDriven(OceanSpectrum.Shape.JONSWAP);
+	/**
+	 * Finite depth TMA spectrum, see {@link OceanSpectrum}.
+	 */
+	public static final SpectrumAlgorithm TMA = new OceanSpectrum.OceanDriven(OceanSpectrum.Shape.TMA);
 
-		return phillips * FastMath.exp(-sqrK * l * l);
-	};
+	/**
+	 * Shared shader programs and maps.
+	 */
+	private final OceanResources resources = OceanResources.acquire();
 
 	//Surface
 	/**
 	 * Surface shader.
 	 */
 	private ShaderProgram surfaceShader;
-
-	//Spectrum Displacement
 	/**
-	 * Spectrum shader.
+	 * If the compact memory mode is requested and if it is used by the
+	 * current pipeline.
 	 */
-	private ShaderProgram spectrumShader;
-
-	//Fast Fourier Transformation
-	private ShaderProgram fftShader;
+	private boolean compactMemory = false, activeCompactMemory = false;
+	/**
+	 * If the spectral normals are requested and if they are used by the
+	 * current pipeline.
+	 */
+	private boolean spectralNormals = false, activeSpectralNormals = false;
+	/**
+	 * GPU memory of the current pipeline and geometry.
+	 */
+	private long gpuMemoryBytes;
+	/**
+	 * Requested storage precision and the one of the current pipeline.
+	 */
+	private OceanPrecision precision = OceanPrecision.HALF, activePrecision = OceanPrecision.HALF;
 	/**
-	 * Shader for calculating the normals and the folding value.
+	 * Fixed simulation time in seconds, NaN to follow the engine timer.
 	 */
-	private ShaderProgram nfShader;
+	private float fixedTime = Float.NaN;
 
 	//Fast Fourier Transformation
 	/**
-	 * Butterfly dimension.
+	 * Butterfly dimension, which is the width of rectangular spectra.
 	 */
 	private int dimension = 512;
+	/**
+	 * Spectrum height along the z axis, which equals the dimension for
+	 * square spectra.
+	 */
+	private int dimensionZ = 512;
 	/**
 	 * Number of butterflies.
 	 */
 	private int butterflies = 9;
+	/**
+	 * Dimension and number of butterflies of the current pipeline, which
+	 * differ from the configured ones while a background build is pending.
+	 */
+	private int activeDimension = 512, activeDimensionZ = 512, activeButterflies = 9;
+	/**
+	 * Mixed radix plans of the columns and rows of the current pipeline,
+	 * null if it uses the butterfly table.
+	 */
+	private OceanMixedRadix mixedRadixColumns, mixedRadixRows;
+	/**
+	 * Seed of the random spectrum amplitudes.
+	 */
+	private long spectrumSeed = OceanTables.DEFAULT_SEED;
+	/**
+	 * If the tables should be built in the background.
+	 */
+	private boolean progressiveStartup = false;
+	/**
+	 * Pending background table build.
+	 */
+	private Future<OceanTables> pendingTables;
 
 	//Textures
 	/**
@@ -125,6 +202,16 @@ public class Ocean extends Mesh {
 	 * Heightfield values x, y and z.
 	 */
 	public ImageTexture2D heightfieldX, heightfieldY, heightfieldZ;
+	/**
+	 * Packed choppy X-Z field and the second ping-pong pair of the compact
+	 * memory mode.
+	 */
+	private ImageTexture2D heightfieldXZ, bufferY, bufferXZ;
+	/**
+	 * Packed derivative spectra, their ping-pong buffers and the resulting
+	 * derivative map of the spectral normals.
+	 */
+	private ImageTexture2D derivativesA, derivativesB, bufferDerivativesA, bufferDerivativesB, derivativeMap;
 	public Texture2D[] samplerTextures = new Texture2D[6];
 	private OffscreenSampler[] samplers = new OffscreenSampler[2];
 	/**
@@ -135,6 +222,10 @@ public class Ocean extends Mesh {
 	 * Contains the normals and the folding value.
 	 */
 	public ImageTexture2D nfMap;
+	/**
+	 * Folding accumulated over time (R16F), which lets whitecaps trail.
+	 */
+	private Texture2D foamAccumulation;
 
 	//Properties
 	/**
@@ -166,6 +257,14 @@ public class Ocean extends Mesh {
 	 * Wave amplitude.
 	 */
 	private float amplitude = 1.4f;
+	/**
+	 * Fetch in meters, used by the JONSWAP and TMA spectra.
+	 */
+	private float fetch = OceanSpectrum.DEFAULT_FETCH;
+	/**
+	 * Water depth in meters, used by the TMA spectrum.
+	 */
+	private float depth = OceanSpectrum.DEFAULT_DEPTH;
 	/**
 	 * Reflection factor.
 	 */
@@ -178,6 +277,38 @@ public class Ocean extends Mesh {
 	 * Foam height modification.
 	 */
 	private float foamHeightModification = 1.4f;
+	/**
+	 * Time constant of the foam decay in seconds.
+	 */
+	private float foamDecay = 2.0f;
+	/**
+	 * Simulation time of the last foam accumulation.
+	 */
+	private float foamTime = Float.NaN;
+	/**
+	 * If the foam accumulation map is copied to the CPU every frame.
+	 */
+	private boolean foamReadbackEnabled = false;
+	/**
+	 * CPU copy of the foam accumulation map.
+	 */
+	private final OceanFoamReadback foamReadback = new OceanFoamReadback();
+	/**
+	 * If the displacement and the normals and folding map are mipmapped,
+	 * their largest anisotropy and the bias of the mip selection.
+	 */
+	private boolean mipmapsEnabled = true;
+	private float anisotropy = 8.0f;
+	private float mipmapBias = 0.0f;
+	/**
+	 * Mip chains of the current pipeline, null if disabled.
+	 */
+	private OceanMipChain mipChain;
+	/**
+	 * Vertex array of the previous geometry, freed by the next compile on
+	 * the render thread, see {@link #invalidateGeometry()}.
+	 */
+	private VertexArrayBuffer staleVao;
 	/**
 	 * Perlin Noise height scale.
 	 */
@@ -215,15 +346,11 @@ public class Ocean extends Mesh {
 	 */
 	private ColorRGBA deepWaterColor = new ColorRGBA(20, 40, 50, 255);
 	/**
-	 * Foam map.
+	 * Foam map, null to use the shared default.
 	 */
 	private Texture2D foammap;
 	/**
-	 * Fresnel normals map.
-	 */
-	private Texture2D fresnelmap;
-	/**
-	 * Sky texture.
+	 * Sky texture, null to use the shared default.
 	 */
 	private TextureCubeMap sky;
 	/**
@@ -239,116 +366,389 @@ public class Ocean extends Mesh {
 	 */
 	private float diviation = 8.0f;
 //	private float diviation = 18.0f;
+	/**
+	 * Number of grid quads per side.
+	 */
+	private int gridSize = 128;
+	/**
+	 * Indexed surface grid.
+	 */
+	private OceanGrid grid;
+	/**
+	 * If the camera centred clipmap should be used instead of the grid.
+	 */
+	private boolean clipmapEnabled = false;
+	/**
+	 * Number of cells per clipmap level side.
+	 */
+	private int clipmapResolution = 64;
+	/**
+	 * Number of clipmap levels.
+	 */
+	private int clipmapLevels = 6;
+	/**
+	 * Camera centred clipmap.
+	 */
+	private OceanClipmap clipmap;
+	/**
+	 * Number of grid quads per culling tile side.
+	 */
+	private int tileSize = 16;
+	/**
+	 * View frustum used for tile culling.
+	 */
+	private final OceanFrustum frustum = new OceanFrustum();
+	/**
+	 * Eye position in model space, see {@link OceanFrustum#eye}.
+	 */
+	private final Vector3f modelEye = new Vector3f(0.0f, 0.0f, 0.0f);
+	/**
+	 * Number of tiles drawn in the last frame.
+	 */
+	private int visibleTiles;
+	/**
+	 * If the grid tiles are culled on the GPU and tessellated by their
+	 * screen space error.
+	 */
+	private boolean screenSpaceTessellation = false;
+	/**
+	 * Largest screen space error in pixels.
+	 */
+	private float tessellationPixelError = 8.0f;
+	/**
+	 * GPU tile culling, null unless the screen space error tessellation is
+	 * enabled.
+	 */
+	private OceanPatchCulling patchCulling;
+	/**
+	 * Dynamic wave layer composited with the displacement, null if none.
+	 */
+	private OceanWake wake;
+	/**
+	 * Sum of all spectrum magnitudes, used to bound the displacement.
+	 */
+	private float spectrumMagnitude;
+	/**
+	 * Renderer the fourier transformation listener is registered at.
+	 */
+	private final Renderer renderer;
+	/**
+	 * Fourier transformation listener.
+	 */
+	private final Renderer.Listener fftListener = new FourierTransformationListener(this);
+	/**
+	 * If the displaced spectrum of this frame still has to be transformed.
+	 */
+	private boolean fftPending = false;
+	/**
+	 * If the displacement should be updated even if the surface is not
+	 * visible.
+	 */
+	private boolean updateRequested = false;
+	/**
+	 * Rolling per-stage statistics.
+	 */
+	private final OceanMetrics metrics = new OceanMetrics(this, 240);
+	/**
+	 * GPU stage timer.
+	 */
+	private final OceanGpuTimer gpuTimer = new OceanGpuTimer();
+	/**
+	 * Staging memory for table uploads.
+	 */
+	private final StagingBufferPool stagingPool = new StagingBufferPool(32L << 20);
+	/**
+	 * If the GPU stages should be measured.
+	 */
+	private boolean gpuTimingEnabled = true;
+	/**
+	 * If this ocean has been disposed.
+	 */
+	private boolean disposed = false;
 
 	/**
 	 * Creates a new water surface which is hardware accelerated.
 	 */
 	public Ocean() {
-		//Setup parameters
-		foammap = AssetManager.loadTextureSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/materials/water/Foam.jpg"));
-		foammap.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
-		foammap.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+		//The default maps are loaded by the shared resources on first use
+		surfaceShader = resources.getSurfaceShader();
 
-		fresnelmap = AssetManager.loadTextureSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/materials/water/Normalmap.jpg"));
-		fresnelmap.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
-		fresnelmap.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+		renderer = ((AbstractEngineState) AbstractEngine.getContext()).getRenderer();
+		renderer.getListeners().add(fftListener);
+	}
 
-		Texture2D skyTexture = AssetManager.loadTextureSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/materials/water/ClearSky.jpg"));
-		sky = new TextureCubeMap(skyTexture, skyTexture, skyTexture, skyTexture, skyTexture, skyTexture);
+	/**
+	 * Evaluates the phillips spectrum for explicit parameters.
+	 * <br>
+	 * The evaluation is strict, so it returns bit identical values on<br>
+	 * every platform.
+	 *
+	 * @param k Wave vector.
+	 * @param windSpeed Wind speed.
+	 * @param windDirection Normalized wind direction.
+	 * @param amplitude Wave amplitude.
+	 * @param gravity Gravity.
+	 * @return Spectrum value.
+	 */
+	static strictfp float phillips(Vector2f k, float windSpeed, Vector2f windDirection, float amplitude, float gravity) {
+		float r = (windSpeed * windSpeed) / (gravity * 0.01f);
+		float l = r / 1_000.0f;
 
-		//Setup all shaders
-		surfaceShader = new ShaderProgram("Surface Shader");
-		spectrumShader = new ShaderProgram("Spectrum Shader");
-		fftShader = new ShaderProgram("Fast Fourier Transformation Shader");
-		nfShader = new ShaderProgram("Normals Shader");
+		float sqrK = k.x * k.x + k.y * k.y;
+		float cosK = k.x * windDirection.x + k.y * windDirection.y;
 
-		surfaceShader.getShaders().add(new VertexShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/Water.vs"))));
-		surfaceShader.getShaders().add(new TessellationControlShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/Water.tcs"))));
-		surfaceShader.getShaders().add(new TessellationEvaluationShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/Water.tes"))));
-		surfaceShader.getShaders().add(new FragmentShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/Water.fs"))));
+		float phillips = amplitude * (float) StrictMath.exp(-1.0f / (sqrK * r * r)) / (sqrK * sqrK * sqrK) * (cosK * cosK);
 
-		spectrumShader.getShaders().add(new ComputeShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/SpectrumDisplacement.comp"))));
+		if (cosK < 0.0f) {
+			phillips *= 0.07f;
+		}
 
-		fftShader.getShaders().add(new VertexShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/Processing.vs"))));
-		fftShader.getShaders().add(new FragmentShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/TwoDimensionalFFT.fs"))));
+		return phillips * (float) StrictMath.exp(-sqrK * l * l);
+	}
 
-		nfShader.getShaders().add(new ComputeShader(AssetManager.loadTextSuppressed(Ocean.class.getResourceAsStream("/org/ice/assets/shaders/ocean/Normals.comp"))));
+	/**
+	 * Renderer listener which runs the fourier transformation after the
+	 * perspective rendering.
+	 * <br>
+	 * The listener only holds a weak reference to its ocean. If the ocean<br>
+	 * is collected without being disposed, the listener queues itself and<br>
+	 * the next ocean update or disposal removes it, never the dispatch<br>
+	 * which iterates the listeners.
+	 */
+	private static final class FourierTransformationListener implements Renderer.Listener {
 
-		surfaceShader.setAutomaticUniformMatrices(false);
-		spectrumShader.setAutomaticUniformMatrices(false);
-		nfShader.setAutomaticUniformMatrices(false);
+		private final WeakReference<Ocean> ocean;
+		private boolean stale;
 
-		surfaceShader.compile();
-		spectrumShader.compile();
-		fftShader.compile();
-		nfShader.compile();
+		private FourierTransformationListener(Ocean ocean) {
+			this.ocean = new WeakReference<>(ocean);
+		}
 
-		((AbstractEngineState) AbstractEngine.getContext()).getRenderer().getListeners().add((Renderer.Listener) (Renderer.RenderingState state) -> {
-			if (!Renderer.RenderingState.POST_PERSPECTIVE_RENDERING.equals(state)) {
+		@Override
+		public void stateChanged(Renderer.RenderingState state) {
+			if (stale || !Renderer.RenderingState.POST_PERSPECTIVE_RENDERING.equals(state)) {
 				return;
 			}
-			GraphicsUtilities.begin2DRendering();
-
-			Pipeline.setMatrixMode(Pipeline.Mode.PROJECTION);
-			Pipeline.push();
-			GraphicsUtilities.toOrthographic(0, 0, dimension, dimension);
-			Pipeline.setMatrixMode(Pipeline.Mode.MODEL);
-
-			// begin sampling
-			Sampler2DParameter[] samplerParametersX = new Sampler2DParameter[2];
-			samplerParametersX[0] = new Sampler2DParameter("m_HeightFieldX", samplerTextures[0]);
-			samplerParametersX[1] = new Sampler2DParameter("m_HeightFieldX", samplerTextures[1]);
-			Sampler2DParameter[] samplerParametersY = new Sampler2DParameter[2];
-			samplerParametersY[0] = new Sampler2DParameter("m_HeightFieldY", samplerTextures[2]);
-			samplerParametersY[1] = new Sampler2DParameter("m_HeightFieldY", samplerTextures[3]);
-			Sampler2DParameter[] samplerParametersZ = new Sampler2DParameter[2];
-			samplerParametersZ[0] = new Sampler2DParameter("m_HeightFieldZ", samplerTextures[4]);
-			samplerParametersZ[1] = new Sampler2DParameter("m_HeightFieldZ", samplerTextures[5]);
-
-			Sampler2DParameter bufferflyTextureParameter = new Sampler2DParameter("m_ButterflyTexture", butterfly);
-
-			for (int i = 0; i < butterflies * 2; i++) {
-				if (i < butterflies) {
-					fftShader.getParameters().clear();
-					if (i == 0) {
-						fftShader.getParameters().add(new Sampler2DParameter("m_HeightFieldX", heightfieldX));
-						fftShader.getParameters().add(new Sampler2DParameter("m_HeightFieldY", heightfieldY));
-						fftShader.getParameters().add(new Sampler2DParameter("m_HeightFieldZ", heightfieldZ));
-					} else {
-						fftShader.getParameters().add(samplerParametersX[i % 2]);
-						fftShader.getParameters().add(samplerParametersY[i % 2]);
-						fftShader.getParameters().add(samplerParametersZ[i % 2]);
-					}
-					fftShader.getParameters().add(bufferflyTextureParameter);
-					fftShader.getParameters().add(new FloatParameter("m_Dimension", (float) dimension));
-					fftShader.getParameters().add(new FloatParameter("m_PatchSize", patchSize));
-					fftShader.getParameters().add(new BoolParameter("m_Vertical", false));
-					fftShader.getParameters().add(new BoolParameter("m_LastPass", false));
-					fftShader.getParameters().add(new FloatParameter("m_ButterflyIndex", i / (float) (butterflies - 1)));
-					samplers[(i + 1) % 2].sample(fftShader, false);
+			Ocean o = ocean.get();
+			if (o == null) {
+				stale = true;
+				STALE_LISTENERS.add(this);
+				return;
+			}
+			if (o.fftPending) {
+				o.fftPending = false;
+				o.performFourierTransformation();
+			}
+		}
+	}
+
+	/**
+	 * Removes the listeners of collected oceans from the renderer. Called
+	 * outside of the listener dispatch.
+	 */
+	private void removeStaleListeners() {
+		Renderer.Listener listener;
+		while ((listener = STALE_LISTENERS.poll()) != null) {
+			renderer.getListeners().remove(listener);
+		}
+	}
+
+	/**
+	 * Performs the inverse fast fourier transformation of the displaced
+	 * spectrum into the resulting displacement map.
+	 */
+	private void performFourierTransformation() {
+		ShaderProgram fftShader = resources.getFFTShader();
+		GraphicsUtilities.begin2DRendering();
+
+		Pipeline.setMatrixMode(Pipeline.Mode.PROJECTION);
+		Pipeline.push();
+		GraphicsUtilities.toOrthographic(0, 0, activeDimension, activeDimension);
+		Pipeline.setMatrixMode(Pipeline.Mode.MODEL);
+
+		// begin sampling
+		Sampler2DParameter[] samplerParametersX = new Sampler2DParameter[2];
+		samplerParametersX[0] = new Sampler2DParameter("m_HeightFieldX", samplerTextures[0]);
+		samplerParametersX[1] = new Sampler2DParameter("m_HeightFieldX", samplerTextures[1]);
+		Sampler2DParameter[] samplerParametersY = new Sampler2DParameter[2];
+		samplerParametersY[0] = new Sampler2DParameter("m_HeightFieldY", samplerTextures[2]);
+		samplerParametersY[1] = new Sampler2DParameter("m_HeightFieldY", samplerTextures[3]);
+		Sampler2DParameter[] samplerParametersZ = new Sampler2DParameter[2];
+		samplerParametersZ[0] = new Sampler2DParameter("m_HeightFieldZ", samplerTextures[4]);
+		samplerParametersZ[1] = new Sampler2DParameter("m_HeightFieldZ", samplerTextures[5]);
+
+		Sampler2DParameter bufferflyTextureParameter = new Sampler2DParameter("m_ButterflyTexture", butterfly);
+
+		for (int i = 0; i < activeButterflies * 2; i++) {
+			if (i < activeButterflies) {
+				fftShader.getParameters().clear();
+				if (i == 0) {
+					fftShader.getParameters().add(new Sampler2DParameter("m_HeightFieldX", heightfieldX));
+					fftShader.getParameters().add(new Sampler2DParameter("m_HeightFieldY", heightfieldY));
+					fftShader.getParameters().add(new Sampler2DParameter("m_HeightFieldZ", heightfieldZ));
 				} else {
-					fftShader.getParameters().clear();
 					fftShader.getParameters().add(samplerParametersX[i % 2]);
 					fftShader.getParameters().add(samplerParametersY[i % 2]);
 					fftShader.getParameters().add(samplerParametersZ[i % 2]);
-					fftShader.getParameters().add(bufferflyTextureParameter);
-					fftShader.getParameters().add(new FloatParameter("m_Dimension", (float) dimension));
-					fftShader.getParameters().add(new FloatParameter("m_PatchSize", patchSize));
-					fftShader.getParameters().add(new BoolParameter("m_Vertical", true));
-					fftShader.getParameters().add(new BoolParameter("m_LastPass", (i == (butterflies * 2 - 1))));
-					fftShader.getParameters().add(new FloatParameter("m_ButterflyIndex", (i - butterflies) / (float) (butterflies - 1)));
-					samplers[(i + 1) % 2].sample(fftShader, false);
 				}
+				fftShader.getParameters().add(bufferflyTextureParameter);
+				fftShader.getParameters().add(new FloatParameter("m_Dimension", (float) activeDimension));
+				fftShader.getParameters().add(new FloatParameter("m_PatchSize", patchSize));
+				fftShader.getParameters().add(new BoolParameter("m_Vertical", false));
+				fftShader.getParameters().add(new BoolParameter("m_LastPass", false));
+				fftShader.getParameters().add(new FloatParameter("m_ButterflyIndex", i / (float) (activeButterflies - 1)));
+				gpuTimer.begin(OceanMetrics.fftPass(i));
+				samplers[(i + 1) % 2].sample(fftShader, false);
+				gpuTimer.end();
+			} else {
+				fftShader.getParameters().clear();
+				fftShader.getParameters().add(samplerParametersX[i % 2]);
+				fftShader.getParameters().add(samplerParametersY[i % 2]);
+				fftShader.getParameters().add(samplerParametersZ[i % 2]);
+				fftShader.getParameters().add(bufferflyTextureParameter);
+				fftShader.getParameters().add(new FloatParameter("m_Dimension", (float) activeDimension));
+				fftShader.getParameters().add(new FloatParameter("m_PatchSize", patchSize));
+				fftShader.getParameters().add(new BoolParameter("m_Vertical", true));
+				fftShader.getParameters().add(new BoolParameter("m_LastPass", (i == (activeButterflies * 2 - 1))));
+				fftShader.getParameters().add(new FloatParameter("m_ButterflyIndex", (i - activeButterflies) / (float) (activeButterflies - 1)));
+				gpuTimer.begin(OceanMetrics.fftPass(i));
+				samplers[(i + 1) % 2].sample(fftShader, false);
+				gpuTimer.end();
 			}
+		}
+
+		ShaderProgram.unuseAllShaders();
+
+		// end sampling
+		Pipeline.setMatrixMode(Pipeline.Mode.PROJECTION);
+		Pipeline.pop();
 
-			ShaderProgram.unuseAllShaders();
+		GraphicsUtilities.end2DRendering();
 
-			// end sampling
-			Pipeline.setMatrixMode(Pipeline.Mode.PROJECTION);
-			Pipeline.pop();
+		gpuTimer.endFrame();
+	}
+
+	/**
+	 * Performs the inverse fast fourier transformation of the compact memory
+	 * mode with compute shaders.
+	 * <br>
+	 * The passes ping-pong between the heightfield and the buffer images<br>
+	 * and the last pass writes straight into the resulting displacement<br>
+	 * map.
+	 */
+	private void performCompactFourierTransformation() {
+		ShaderProgram fftComputeShader = resources.getCompactFFTShader(activePrecision);
+		for (ComputeShader shader : fftComputeShader.getShadersOfType(ComputeShader.class)) {
+			shader.setWorkGroupsX(activeDimension / 8);
+			shader.setWorkGroupsY(activeDimension / 8);
+		}
+
+		ImageTexture2D[] y = {heightfieldY, bufferY};
+		ImageTexture2D[] xz = {heightfieldXZ, bufferXZ};
+		ImageTexture2D[] da = {derivativesA, bufferDerivativesA};
+		ImageTexture2D[] db = {derivativesB, bufferDerivativesB};
+		Sampler2DParameter butterflyTextureParameter = new Sampler2DParameter("m_ButterflyTexture", butterfly);
+
+		int passes = activeButterflies * 2;
+		for (int i = 0; i < passes; i++) {
+			boolean lastPass = i == passes - 1;
+			fftComputeShader.getParameters().clear();
+			fftComputeShader.getParameters().add(new Image2DParameter("m_HeightFieldY", y[i % 2]));
+			fftComputeShader.getParameters().add(new Image2DParameter("m_HeightFieldXZ", xz[i % 2]));
+			if (lastPass) {
+				fftComputeShader.getParameters().add(new Image2DParameter("m_Result", result));
+			} else {
+				fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture0", y[(i + 1) % 2]));
+				fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture1", xz[(i + 1) % 2]));
+			}
+			if (activeSpectralNormals) {
+				fftComputeShader.getParameters().add(new Image2DParameter("m_DerivativesA", da[i % 2]));
+				fftComputeShader.getParameters().add(new Image2DParameter("m_DerivativesB", db[i % 2]));
+				if (lastPass) {
+					fftComputeShader.getParameters().add(new Image2DParameter("m_DerivativeResult", derivativeMap));
+				} else {
+					fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture2", da[(i + 1) % 2]));
+					fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture3", db[(i + 1) % 2]));
+				}
+			}
+			fftComputeShader.getParameters().add(new BoolParameter("m_Derivatives", activeSpectralNormals));
+			fftComputeShader.getParameters().add(butterflyTextureParameter);
+			fftComputeShader.getParameters().add(new IntParameter("m_Dimension", activeDimension));
+			fftComputeShader.getParameters().add(new IntParameter("m_ButterflyRow", i % activeButterflies));
+			fftComputeShader.getParameters().add(new BoolParameter("m_Vertical", i >= activeButterflies));
+			fftComputeShader.getParameters().add(new BoolParameter("m_LastPass", lastPass));
+			fftComputeShader.getParameters().add(new FloatParameter("m_PatchSize", patchSize));
+
+			gpuTimer.begin(OceanMetrics.fftPass(i));
+			fftComputeShader.use();
+			fftComputeShader.unuse();
+			GL42.glMemoryBarrier(GL42.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+			gpuTimer.end();
+		}
+	}
+
+	/**
+	 * Performs the mixed radix inverse fast fourier transformation of
+	 * rectangular and non power of two spectra with compute shaders, see
+	 * {@link OceanMixedRadix}.
+	 * <br>
+	 * The columns are transformed first, then the rows. The passes use the<br>
+	 * same images as the compact memory mode.
+	 */
+	private void performMixedRadixFourierTransformation() {
+		ShaderProgram fftComputeShader = resources.getMixedRadixFFTShader(activePrecision);
+		OceanMixedRadix columns = mixedRadixColumns, rows = mixedRadixRows;
+
+		ImageTexture2D[] y = {heightfieldY, bufferY};
+		ImageTexture2D[] xz = {heightfieldXZ, bufferXZ};
+		ImageTexture2D[] da = {derivativesA, bufferDerivativesA};
+		ImageTexture2D[] db = {derivativesB, bufferDerivativesB};
+
+		int passes = columns.getPasses() + rows.getPasses();
+		for (int i = 0; i < passes; i++) {
+			boolean rowPass = i >= columns.getPasses();
+			boolean lastPass = i == passes - 1;
+			OceanMixedRadix plan = rowPass ? rows : columns;
+			int pass = rowPass ? i - columns.getPasses() : i;
+			int invocations = plan.getLength() / plan.getRadix(pass);
+			for (ComputeShader shader : fftComputeShader.getShadersOfType(ComputeShader.class)) {
+				shader.setWorkGroupsX((invocations + 7) / 8);
+				shader.setWorkGroupsY((rowPass ? activeDimensionZ : activeDimension) / 8);
+			}
 
-			GraphicsUtilities.end2DRendering();
-		});
+			fftComputeShader.getParameters().clear();
+			fftComputeShader.getParameters().add(new Image2DParameter("m_HeightFieldY", y[i % 2]));
+			fftComputeShader.getParameters().add(new Image2DParameter("m_HeightFieldXZ", xz[i % 2]));
+			if (lastPass) {
+				fftComputeShader.getParameters().add(new Image2DParameter("m_Result", result));
+			} else {
+				fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture0", y[(i + 1) % 2]));
+				fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture1", xz[(i + 1) % 2]));
+			}
+			if (activeSpectralNormals) {
+				fftComputeShader.getParameters().add(new Image2DParameter("m_DerivativesA", da[i % 2]));
+				fftComputeShader.getParameters().add(new Image2DParameter("m_DerivativesB", db[i % 2]));
+				if (lastPass) {
+					fftComputeShader.getParameters().add(new Image2DParameter("m_DerivativeResult", derivativeMap));
+				} else {
+					fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture2", da[(i + 1) % 2]));
+					fftComputeShader.getParameters().add(new Image2DParameter("m_BufferTexture3", db[(i + 1) % 2]));
+				}
+			}
+			fftComputeShader.getParameters().add(new BoolParameter("m_Derivatives", activeSpectralNormals));
+			fftComputeShader.getParameters().add(new IntParameter("m_Radix", plan.getRadix(pass)));
+			fftComputeShader.getParameters().add(new IntParameter("m_Stride", plan.getStride(pass)));
+			fftComputeShader.getParameters().add(new IntParameter("m_Length", plan.getLength()));
+			fftComputeShader.getParameters().add(new BoolParameter("m_Rows", rowPass));
+			fftComputeShader.getParameters().add(new BoolParameter("m_LastPass", lastPass));
+			fftComputeShader.getParameters().add(new FloatParameter("m_PatchSize", patchSize));
+
+			gpuTimer.begin(OceanMetrics.fftPass(i));
+			fftComputeShader.use();
+			fftComputeShader.unuse();
+			GL42.glMemoryBarrier(GL42.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+			gpuTimer.end();
+		}
 	}
 
 	public void setSurfaceShader(ShaderProgram surfaceShader) {
@@ -380,182 +780,711 @@ public class Ocean extends Mesh {
 		hasChanged = true;
 	}
 
+	/**
+	 * Drops the vertex array, so the geometry is compiled again with the
+	 * next render pass. The old vertex array is kept until then, so the
+	 * setters make no GL calls.
+	 */
+	private void invalidateGeometry() {
+		if (vao != null) {
+			staleVao = vao;
+			vao = null;
+		}
+	}
+
 	@Override
 	public void compile(VertexArrayBuffer vab) {
+		if (staleVao != null && staleVao != vab) {
+			staleVao.dispose();
+		}
+		staleVao = null;
 		vao = vab;
 
-		long s = System.currentTimeMillis();
-
-		int width = 128;
-		int height = 128;
-
-		// (float) FastMath.log2((width * height) / 2.0f);
-//		float diviation = 8;
-		BufferGroup group = new BufferGroup(PrimitiveType.PATCHES);
-
-		GeometryBuffer<Vector3f> vs = new GeometryBuffer<>(DataModificationType.STATIC_DRAW);
-		GeometryBuffer<Vector3f> ns = new GeometryBuffer<>(DataModificationType.STATIC_DRAW);
-		GeometryBuffer<Vector4f> ts = new GeometryBuffer<>(DataModificationType.STATIC_DRAW);
-		GeometryBuffer<ColorRGBA> cs = new GeometryBuffer<>(DataModificationType.STATIC_DRAW);
-
-		vs.setDataAttributePosition(VertexArrayBuffer.ATTRIB_LOCATION_VERTEX);
-		ns.setDataAttributePosition(VertexArrayBuffer.ATTRIB_LOCATION_NORMAL);
-		ts.setDataAttributePosition(VertexArrayBuffer.ATTRIB_LOCATION_TEXCOORD);
-		cs.setDataAttributePosition(VertexArrayBuffer.ATTRIB_LOCATION_COLOR);
-
-		group.getBuffers().add(vs);
-		group.getBuffers().add(ns);
-		group.getBuffers().add(ts);
-		group.getBuffers().add(cs);
+		OceanCompileEvent event = new OceanCompileEvent();
+		event.begin();
 
-		for (int z = 0; z < width; z++) {
-			for (int x = 0; x < height; x++) {
-				float y = 0.0f;
-
-				float f = 2.0f;
-				Vector3f v0 = new Vector3f(x, y, z).multLocal(f);
-				Vector3f v1 = new Vector3f(x, y, z + 1).multLocal(f);
-				Vector3f v2 = new Vector3f(x + 1, y, z + 1).multLocal(f);
-				Vector3f v3 = new Vector3f(x + 1, y, z).multLocal(f);
-
-				Vector3f n = Vector3f.UNIT_Y;
-
-				Vector4f t0 = new Vector4f(x, z, 0.0f, 1.0f).divideLocal(width / diviation).multLocal(f);
-				Vector4f t1 = new Vector4f(x, z + 1, 0.0f, 1.0f).divideLocal(height / diviation).multLocal(f);
-				Vector4f t2 = new Vector4f(x + 1, z + 1, 0.0f, 1.0f).divideLocal((width + height) / 2.0f / diviation).multLocal(f);
-				Vector4f t3 = new Vector4f(x + 1, z, 0.0f, 1.0f).divideLocal(width / diviation).multLocal(f);
-
-				ColorRGBA c = ColorRGBA.LIGHT_GRAY;
+		long s = System.nanoTime();
+		if (patchCulling != null) {
+			patchCulling.dispose();
+			patchCulling = null;
+		}
+		if (grid != null) {
+			grid.dispose();
+			grid = null;
+		}
+		if (clipmap != null) {
+			clipmap.dispose();
+			clipmap = null;
+		}
 
-				vs.getData().addAll(v0, v1, v2, v2, v3, v0);
-				ns.getData().addAll(n, n, n, n, n, n);
-				ts.getData().addAll(t0, t1, t2, t2, t3, t0);
-				cs.getData().addAll(c, c, c, c, c, c);
+		if (clipmapEnabled) {
+			clipmap = new OceanClipmap(clipmapResolution, clipmapLevels, GRID_SPACING);
+			clipmap.upload();
+			LOG.log(Level.FINE, "Ocean clipmap with {0} levels compiled ({1} vertices) in {2} ms", new Object[]{
+				clipmapLevels, clipmap.getVertexCount(), (System.nanoTime() - s) / 1_000_000.0});
+		} else {
+			grid = new OceanGrid(gridSize, tileSize, GRID_SPACING, diviation);
+			grid.upload();
+			if (screenSpaceTessellation) {
+				patchCulling = new OceanPatchCulling(grid, GRID_SPACING);
 			}
+			LOG.log(Level.FINE, "Ocean grid {0}x{0} compiled ({1} vertices, {2} indices, {3} bytes) in {4} ms", new Object[]{
+				gridSize, grid.getVertexCount(), grid.getIndexCount(), grid.getSizeInBytes(), (System.nanoTime() - s) / 1_000_000.0});
 		}
-		vao.getBufferGroups().add(group);
-		vao.compile();
-		System.out.println("Vertex Creation: " + (System.currentTimeMillis() - s));
 		compiled = true;
+
+		if (event.shouldCommit()) {
+			event.clipmap = clipmap != null;
+			event.resolution = clipmap != null ? clipmapResolution : gridSize;
+			event.vertices = clipmap != null ? clipmap.getVertexCount() : grid.getVertexCount();
+			event.bytesUploaded = clipmap != null ? clipmap.getSizeInBytes() : grid.getSizeInBytes();
+			event.commit();
+		}
+		gpuMemoryBytes = computeGpuMemory();
+		metrics.record(OceanMetrics.GPU_MEMORY, gpuMemoryBytes);
 	}
 
 	@Override
 	public void render() {
+		if (disposed) {
+			throw new IllegalStateException("The ocean has already been disposed!");
+		}
 		if (vao == null) {
 			compile();
 		}
 
+		if (gpuTimingEnabled) {
+			gpuTimer.collect(metrics);
+		}
+
+		boolean visible = cullSurface();
+		if (clipmap == null) {
+			metrics.record(OceanMetrics.VISIBLE_TILES, visibleTiles);
+		}
+		if (!visible && !updateRequested) {
+			return;
+		}
+		updateRequested = false;
+
 		performUpdates();
+		if (wake != null) {
+			wake.update(getTime());
+		}
 
+		if (gpuTimingEnabled) {
+			gpuTimer.beginFrame();
+		}
+		gpuTimer.begin(OceanMetrics.SPECTRUM);
 		performSpectrumDisplacement();
+		gpuTimer.end();
+
+		//The compute transformation does not need the post perspective pass
+		if (mixedRadixRows != null) {
+			performMixedRadixFourierTransformation();
+		} else if (activeCompactMemory) {
+			performCompactFourierTransformation();
+		}
+
+		gpuTimer.begin(OceanMetrics.NORMALS);
 		performNormalsFoldingCalculation();
+		gpuTimer.end();
+		fftPending = !activeCompactMemory;
 
-		renderSurface();
+		if (visible) {
+			gpuTimer.begin(OceanMetrics.SURFACE);
+			renderSurface();
+			gpuTimer.end();
+		}
+		if (activeCompactMemory) {
+			gpuTimer.endFrame();
+		}
 	}
 
 	/**
-	 * Performs an omega and spectrum texture update if some properties have
-	 * changed.
+	 * Returns the rolling per-stage statistics of this ocean.
+	 * <br>
+	 * Subscribe with {@link OceanMetrics#addListener} to get notified<br>
+	 * whenever the GPU measurements of a frame are available.
+	 *
+	 * @return Ocean metrics.
 	 */
-	public void performUpdates() {
-		if (!hasChanged) {
-			return;
-		}
-		long s = System.currentTimeMillis();
-		omega = omega();
-		spectrum = spectrum();
-		butterfly = butterfly();
-		System.out.println("Texture Creation: " + (System.currentTimeMillis() - s));
-
-		heightfieldX = new ImageTexture2D(ImageData.Format.RG16F, dimension, dimension);
-		heightfieldY = new ImageTexture2D(ImageData.Format.RG16F, dimension, dimension);
-		heightfieldZ = new ImageTexture2D(ImageData.Format.RG16F, dimension, dimension);
-		nfMap = new ImageTexture2D(ImageData.Format.RGBA16F, dimension, dimension);
-		result = new ImageTexture2D(ImageData.Format.RGBA16F, dimension, dimension);
-
-		heightfieldX.setMagFilter(Texture.MagFilter.NEAREST);
-		heightfieldY.setMagFilter(Texture.MagFilter.NEAREST);
-		heightfieldZ.setMagFilter(Texture.MagFilter.NEAREST);
-		nfMap.setMagFilter(Texture.MagFilter.BILINEAR);
-		result.setMagFilter(Texture.MagFilter.NEAREST);
+	public OceanMetrics getMetrics() {
+		return metrics;
+	}
 
-		heightfieldX.setMinFilter(Texture.MinFilter.NEAREST);
-		heightfieldY.setMinFilter(Texture.MinFilter.NEAREST);
-		heightfieldZ.setMinFilter(Texture.MinFilter.NEAREST);
-		nfMap.setMinFilter(Texture.MinFilter.NEAREST);
-		result.setMinFilter(Texture.MinFilter.NEAREST);
+	/**
+	 * Enables or disables the GPU timestamp queries around every stage.
+	 * <br>
+	 * The results are read asynchronously a few frames later and never<br>
+	 * stall the pipeline. Enabled by default.
+	 *
+	 * @param gpuTimingEnabled If the GPU stages should be measured.
+	 */
+	public void setGpuTimingEnabled(boolean gpuTimingEnabled) {
+		this.gpuTimingEnabled = gpuTimingEnabled;
+	}
 
-		nfMap.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
-		nfMap.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
-		result.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
-		result.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+	/**
+	 * Returns if the GPU stages are measured.
+	 *
+	 * @return If the GPU stages are measured.
+	 */
+	public boolean isGpuTimingEnabled() {
+		return gpuTimingEnabled;
+	}
 
-		heightfieldX.setDepthTexture(false);
-		heightfieldY.setDepthTexture(false);
-		heightfieldZ.setDepthTexture(false);
-		nfMap.setDepthTexture(false);
-		result.setDepthTexture(false);
+	/**
+	 * Requests that the displacement, normals and folding maps are updated
+	 * in the next frame, even if the surface itself is not visible.
+	 * <br>
+	 * Use this if the maps are queried without rendering the surface.
+	 */
+	public void requestUpdate() {
+		updateRequested = true;
+	}
 
-		for (int i = 0; i < samplerTextures.length; i++) {
-			samplerTextures[i] = new Texture2D(new ImageData(ImageData.Format.RG16F, dimension, dimension, BufferUtilities.createByteBuffer(dimension * dimension * 2 * 4)));
-			samplerTextures[i].setMinFilter(Texture.MinFilter.NEAREST);
-			samplerTextures[i].setMagFilter(Texture.MagFilter.NEAREST);
-			samplerTextures[i].setDepthTexture(false);
+	/**
+	 * Culls the surface against the current view frustum.
+	 *
+	 * @return True if any part of the surface is visible.
+	 */
+	private boolean cullSurface() {
+		if (clipmap != null) {
+			return true;
 		}
-
-		samplers = new OffscreenSampler[2];
-		samplers[0] = new OffscreenSampler(samplerTextures[0], samplerTextures[2], samplerTextures[4], result);
-		samplers[1] = new OffscreenSampler(samplerTextures[1], samplerTextures[3], samplerTextures[5], result);
-
-		hasChanged = false;
+		float vertical = getMaximumDisplacement();
+		float horizontal = vertical * Math.max(choppyScale.x, choppyScale.y);
+		Matrix4f mvp = Pipeline.getModelViewProjectionMatrix();
+		frustum.set(mvp);
+		//Cheap whole surface test, also with GPU culling the spectrum work is skipped if no tile is visible
+		visibleTiles = grid.cull(frustum, horizontal, vertical + perlinNoiseHeight);
+		if (patchCulling != null && visibleTiles > 0) {
+			//The tile bounds are in model space, so the eye is taken from the same matrix
+			Vector3f eye = OceanFrustum.eye(mvp, modelEye) ? modelEye : cameraPosition;
+			patchCulling.cull(resources.getPatchCullingShader(), mvp, eye, horizontal, vertical + perlinNoiseHeight, tessellationPixelError,
+				levelOfDetail.getMinDetailLevel(), levelOfDetail.getMaxDetailLevel());
+		}
+		return visibleTiles > 0;
 	}
 
 	/**
-	 * Performs the phillips spectrum displacement.
+	 * Unregisters the fourier transformation listener and frees all
+	 * textures, shaders, samplers and buffers of this ocean.
+	 * <br>
+	 * The ocean can not be rendered anymore afterwards.
 	 */
-	private void performSpectrumDisplacement() {
-		//Do Spectrum Displacement
-		spectrumShader.getParameters().clear();
-
-		for (ComputeShader shader : spectrumShader.getShadersOfType(ComputeShader.class)) {
-			shader.setWorkGroupsX(dimension / 8);
-			shader.setWorkGroupsY(dimension / 8);
+	public void dispose() {
+		if (disposed) {
+			return;
 		}
-
+		disposed = true;
+		fftPending = false;
+		cancelPendingTables();
+		renderer.getListeners().remove(fftListener);
+		removeStaleListeners();
+		gpuTimer.dispose();
+		foamReadback.dispose();
+		stagingPool.trim();
+
+		if (patchCulling != null) {
+			patchCulling.dispose();
+			patchCulling = null;
+		}
+		if (grid != null) {
+			grid.dispose();
+			grid = null;
+		}
+		if (clipmap != null) {
+			clipmap.dispose();
+			clipmap = null;
+		}
+		if (vao != null) {
+			vao.dispose();
+			vao = null;
+		}
+		if (staleVao != null) {
+			staleVao.dispose();
+			staleVao = null;
+		}
+		disposeSpectrumResources();
+
+		//Shared programs and maps are freed with the last ocean, the ones set by the user are never freed
+		resources.release();
+	}
+
+	/**
+	 * Frees all textures and samplers which depend on the spectrum quality.
+	 */
+	private void disposeSpectrumResources() {
+		Texture[] textures = {spectrum, omega, butterfly, heightfieldX, heightfieldY, heightfieldZ, heightfieldXZ, bufferY, bufferXZ, nfMap, result,
+			foamAccumulation, derivativesA, derivativesB, bufferDerivativesA, bufferDerivativesB, derivativeMap};
+		for (Texture texture : textures) {
+			if (texture != null) {
+				texture.dispose();
+			}
+		}
+		for (Texture2D texture : samplerTextures) {
+			if (texture != null) {
+				texture.dispose();
+			}
+		}
+		for (OffscreenSampler sampler : samplers) {
+			if (sampler != null) {
+				sampler.dispose();
+			}
+		}
+		spectrum = omega = butterfly = null;
+		heightfieldX = heightfieldY = heightfieldZ = nfMap = result = null;
+		foamAccumulation = null;
+		if (mipChain != null) {
+			mipChain.dispose();
+		}
+		mipChain = null;
+		mixedRadixColumns = mixedRadixRows = null;
+		heightfieldXZ = bufferY = bufferXZ = null;
+		derivativesA = derivativesB = bufferDerivativesA = bufferDerivativesB = derivativeMap = null;
+		Arrays.fill(samplerTextures, null);
+		Arrays.fill(samplers, null);
+	}
+
+	/**
+	 * Performs an omega and spectrum texture update if some properties have
+	 * changed.
+	 * <br>
+	 * In progressive mode the tables are built on a background thread and<br>
+	 * the current pipeline is kept until they are ready. If there is no<br>
+	 * pipeline yet, a coarse one is built first, so the surface appears<br>
+	 * immediately.
+	 */
+	public void performUpdates() {
+		removeStaleListeners();
+		if (hasChanged) {
+			hasChanged = false;
+			cancelPendingTables();
+
+			//The coarse spectrum is square, so rectangular spectra skip it
+			if (!progressiveStartup || (spectrum == null && (dimension <= PROGRESSIVE_DIMENSION || dimension != dimensionZ))) {
+				createPipeline(captureTables(dimension, dimensionZ).get());
+			} else {
+				if (spectrum == null) {
+					createPipeline(captureTables(PROGRESSIVE_DIMENSION, PROGRESSIVE_DIMENSION).get());
+				}
+				Supplier<OceanTables> build = captureTables(dimension, dimensionZ);
+				pendingTables = TABLE_EXECUTOR.submit(build::get);
+			}
+		}
+
+		if (pendingTables != null && pendingTables.isDone()) {
+			Future<OceanTables> done = pendingTables;
+			pendingTables = null;
+			try {
+				createPipeline(done.get());
+			} catch (InterruptedException | ExecutionException ex) {
+				LOG.log(Level.WARNING, "Background ocean table build failed, building synchronously", ex);
+				createPipeline(captureTables(dimension, dimensionZ).get());
+			}
+		}
+	}
+
+	/**
+	 * Captures all spectrum inputs on the calling thread and returns a table
+	 * build which only uses the captured values, so it can run on the table
+	 * executor while the ocean is changed. The built-in spectra are resolved
+	 * once per build, see {@link #resolveSpectrumAlgorithm}.
+	 * <br>
+	 * Custom spectrum algorithms get the ocean itself and have to capture<br>
+	 * their own inputs if they read it.
+	 *
+	 * @param width Table width along the x axis.
+	 * @param height Table height along the z axis.
+	 * @return Table build.
+	 */
+	private Supplier<OceanTables> captureTables(int width, int height) {
+		final SpectrumAlgorithm custom = spectrumAlgorithm;
+		final float windSpeed = this.windSpeed, fetch = this.fetch, depth = this.depth, amplitude = this.amplitude;
+		final float patchSize = this.patchSize, gravity = this.gravity;
+		final Vector2f windDirection = new Vector2f(this.windDirection.x, this.windDirection.y);
+		final long seed = spectrumSeed;
+		return () -> {
+			SpectrumAlgorithm algorithm = resolveSpectrumAlgorithm(custom, windSpeed, windDirection, fetch, depth, amplitude, gravity);
+			return OceanTables.build(algorithm == custom ? this : null, algorithm, width, height, patchSize, gravity, seed);
+		};
+	}
+
+	/**
+	 * Resolves the given spectrum algorithm for explicit parameters. The
+	 * built-in spectra become immutable instances which no longer read the
+	 * ocean, custom algorithms are returned unchanged.
+	 *
+	 * @param algorithm Spectrum algorithm.
+	 * @param windSpeed Wind speed.
+	 * @param windDirection Wind direction.
+	 * @param fetch Fetch.
+	 * @param depth Water depth.
+	 * @param amplitude Wave amplitude.
+	 * @param gravity Gravity.
+	 * @return Resolved spectrum algorithm.
+	 */
+	static SpectrumAlgorithm resolveSpectrumAlgorithm(SpectrumAlgorithm algorithm, float windSpeed, Vector2f windDirection, float fetch,
+		float depth, float amplitude, float gravity) {
+		if (algorithm == PHILLIPS) {
+			final Vector2f direction = new Vector2f(windDirection.x, windDirection.y);
+			return (water, k) -> phillips(k, windSpeed, direction, amplitude, gravity);
+		}
+		if (algorithm instanceof OceanSpectrum.OceanDriven) {
+			return OceanSpectrum.create(((OceanSpectrum.OceanDriven) algorithm).getShape(), windSpeed, windDirection, fetch, depth, amplitude,
+				gravity);
+		}
+		return algorithm;
+	}
+
+	/**
+	 * Cancels the background table build, if any.
+	 */
+	private void cancelPendingTables() {
+		if (pendingTables != null) {
+			pendingTables.cancel(false);
+			pendingTables = null;
+		}
+	}
+
+	/**
+	 * Replaces all spectrum dependent textures and samplers with the ones
+	 * for the given tables.
+	 *
+	 * @param tables Ocean tables.
+	 */
+	private void createPipeline(OceanTables tables) {
+		disposeSpectrumResources();
+
+		OceanUpdateEvent update = new OceanUpdateEvent();
+		update.begin();
+		long uploaded = 0;
+
+		int size = tables.getWidth(), sizeZ = tables.getHeight();
+		activeDimension = size;
+		activeDimensionZ = sizeZ;
+		activeButterflies = tables.getButterflies();
+		boolean mixedRadix = tables.isMixedRadix();
+		mixedRadixColumns = mixedRadix ? new OceanMixedRadix(sizeZ, true) : null;
+		mixedRadixRows = mixedRadix ? new OceanMixedRadix(size, true) : null;
+		spectrumMagnitude = tables.getSpectrumMagnitude();
+
+		activePrecision = precision;
+		ImageData.Format complex = activePrecision.getTwoChannelFormat();
+		ImageData.Format packed = activePrecision.getFourChannelFormat();
+		boolean half = activePrecision == OceanPrecision.HALF;
+
+		omega = createTable(ImageData.Format.R32F, GL11.GL_RED, false, size, sizeZ, tables.getOmega());
+		spectrum = createTable(complex, GL30.GL_RG, half, size, sizeZ, tables.getSpectrum());
+		//The mixed radix passes compute their twiddles and need no table
+		butterfly = mixedRadix ? null : createTable(ImageData.Format.RGBA32F, GL11.GL_RGBA, false, size, activeButterflies, tables.getButterfly());
+		metrics.record(OceanMetrics.STAGING_POOLED, stagingPool.getPooledBytes());
+		metrics.record(OceanMetrics.STAGING_HIT_RATE, stagingPool.getHitRate());
+		uploaded += (long) (tables.getOmega().length + tables.getButterfly().length) * Float.BYTES;
+		uploaded += (long) tables.getSpectrum().length * activePrecision.getChannelBytes();
+
+		OceanTableEvent table = new OceanTableEvent();
+		table.begin();
+		//The derivative spectra and mixed radix spectra are only transformed by the compute shaders
+		activeSpectralNormals = spectralNormals;
+		activeCompactMemory = compactMemory || activeSpectralNormals || mixedRadix;
+		heightfieldY = createWorkingTexture(complex, size, sizeZ);
+		nfMap = createWorkingTexture(packed, size, sizeZ);
+		result = createWorkingTexture(packed, size, sizeZ);
+
+		//The foam accumulates across frames, so it has to start at zero
+		foamAccumulation = createWorkingTexture(ImageData.Format.R16F, size, sizeZ);
+		clearFoam(foamAccumulation, size, sizeZ);
+		foamAccumulation.setMagFilter(Texture.MagFilter.BILINEAR);
+		foamAccumulation.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
+		foamAccumulation.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+		foamTime = Float.NaN;
+
+		nfMap.setMagFilter(Texture.MagFilter.BILINEAR);
+		nfMap.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
+		nfMap.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+		result.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
+		result.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+		mipChain = mipmapsEnabled ? new OceanMipChain(result, nfMap, size, sizeZ, activePrecision, anisotropy) : null;
+
+		if (activeCompactMemory) {
+			//Two pairs of Y and packed X-Z images, the last pass writes into the result
+			heightfieldXZ = createWorkingTexture(packed, size, sizeZ);
+			bufferY = createWorkingTexture(complex, size, sizeZ);
+			bufferXZ = createWorkingTexture(packed, size, sizeZ);
+			if (activeSpectralNormals) {
+				derivativesA = createWorkingTexture(packed, size, sizeZ);
+				derivativesB = createWorkingTexture(complex, size, sizeZ);
+				bufferDerivativesA = createWorkingTexture(packed, size, sizeZ);
+				bufferDerivativesB = createWorkingTexture(complex, size, sizeZ);
+				derivativeMap = createWorkingTexture(packed, size, sizeZ);
+			}
+		} else {
+			heightfieldX = createWorkingTexture(complex, size, sizeZ);
+			heightfieldZ = createWorkingTexture(complex, size, sizeZ);
+
+			//The sampler textures are render targets, so they need no initial data
+			for (int i = 0; i < samplerTextures.length; i++) {
+				samplerTextures[i] = createWorkingTexture(complex, size, sizeZ);
+			}
+
+			samplers = new OffscreenSampler[2];
+			samplers[0] = new OffscreenSampler(samplerTextures[0], samplerTextures[2], samplerTextures[4], result);
+			samplers[1] = new OffscreenSampler(samplerTextures[1], samplerTextures[3], samplerTextures[5], result);
+		}
+		gpuMemoryBytes = computeGpuMemory();
+		metrics.record(OceanMetrics.GPU_MEMORY, gpuMemoryBytes);
+		if (table.shouldCommit()) {
+			table.step = OceanTableEvent.TEXTURES;
+			table.dimension = size;
+			//Everything but the tables uploaded above
+			table.bytes = computeTextureMemory() - uploaded;
+			table.commit();
+		}
+		LOG.log(Level.FINE, "Ocean pipeline for {0}x{1} created, {2} KiB of GPU memory", new Object[]{size, sizeZ, gpuMemoryBytes / 1024});
+
+		if (update.shouldCommit()) {
+			update.dimension = size;
+			update.patchSize = patchSize;
+			update.windSpeed = windSpeed;
+			update.amplitude = amplitude;
+			update.gravity = gravity;
+			update.algorithm = getSpectrumAlgorithmName();
+			update.bytesUploaded = uploaded;
+			update.commit();
+		}
+	}
+
+	/**
+	 * Returns the name of the spectrum algorithm for the update events.
+	 */
+	private String getSpectrumAlgorithmName() {
+		if (spectrumAlgorithm == PHILLIPS) {
+			return "PHILLIPS";
+		}
+		if (spectrumAlgorithm == PIERSON_MOSKOWITZ || spectrumAlgorithm == JONSWAP || spectrumAlgorithm == TMA
+			|| spectrumAlgorithm instanceof OceanSpectrum) {
+			return spectrumAlgorithm.toString();
+		}
+		return spectrumAlgorithm.getClass().getName();
+	}
+
+	/**
+	 * Creates a nearest filtered table texture and uploads the given data
+	 * through a pooled staging buffer.
+	 * <br>
+	 * Half float formats are converted on the CPU and uploaded with<br>
+	 * <code>GL_HALF_FLOAT</code>, which halves the staging memory and the<br>
+	 * upload bandwidth and spares the driver the conversion.
+	 *
+	 * @param format Texture format.
+	 * @param pixelFormat OpenGL pixel format matching the channels.
+	 * @param half If the format stores half floats.
+	 * @param width Texture width.
+	 * @param height Texture height.
+	 * @param data Table data.
+	 * @return Table texture.
+	 */
+	private Texture2D createTable(ImageData.Format format, int pixelFormat, boolean half, int width, int height, float[] data) {
+		ByteBuffer buffer = stagingPool.acquire(data.length * (half ? Short.BYTES : Float.BYTES));
+		if (half) {
+			HalfFloat.toHalf(data, buffer);
+		} else {
+			buffer.asFloatBuffer().put(data);
+		}
+		buffer.rewind();
+
+		Texture2D t = new ImageTexture2D(format, width, height);
+		t.setMagFilter(Texture.MagFilter.NEAREST);
+		t.setMinFilter(Texture.MinFilter.NEAREST);
+		t.bind();
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, width, height, pixelFormat, half ? GL30.GL_HALF_FLOAT : GL11.GL_FLOAT, buffer);
+
+		//The upload copies the data, so the staging buffer can be reused right away
+		stagingPool.release(buffer);
+		return t;
+	}
+
+	/**
+	 * Clears an R16F texture to zero on the GPU.
+	 * <br>
+	 * A pixel unpack buffer is zeroed by <code>glClearBufferData</code><br>
+	 * and copied into the texture, so no data passes through the CPU.<br>
+	 * <code>glClearTexImage</code> would need OpenGL 4.4.
+	 *
+	 * @param texture R16F texture.
+	 * @param width Texture width.
+	 * @param height Texture height.
+	 */
+	private static void clearFoam(Texture2D texture, int width, int height) {
+		int buffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, buffer);
+		GL15.glBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, (long) width * height * Short.BYTES, GL15.GL_STREAM_DRAW);
+		GL43.glClearBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, GL30.GL_R16F, GL11.GL_RED, GL30.GL_HALF_FLOAT, (ByteBuffer) null);
+		texture.bind();
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, width, height, GL11.GL_RED, GL30.GL_HALF_FLOAT, 0L);
+		GL15.glBindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+		GL15.glDeleteBuffers(buffer);
+	}
+
+	/**
+	 * Creates an uninitialised, nearest filtered working texture.
+	 *
+	 * @param format Texture format.
+	 * @param width Texture width.
+	 * @param height Texture height.
+	 * @return Working texture.
+	 */
+	private ImageTexture2D createWorkingTexture(ImageData.Format format, int width, int height) {
+		ImageTexture2D t = new ImageTexture2D(format, width, height);
+		t.setMagFilter(Texture.MagFilter.NEAREST);
+		t.setMinFilter(Texture.MinFilter.NEAREST);
+		t.setDepthTexture(false);
+		return t;
+	}
+
+	/**
+	 * Computes the GPU memory of the current pipeline and geometry.
+	 *
+	 * @return GPU memory in bytes.
+	 */
+	private long computeGpuMemory() {
+		long bytes = computeTextureMemory();
+		if (grid != null) {
+			bytes += grid.getSizeInBytes();
+		}
+		if (patchCulling != null) {
+			bytes += patchCulling.getSizeInBytes();
+		}
+		if (clipmap != null) {
+			bytes += clipmap.getSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Computes the GPU memory of the tables and working textures of the
+	 * current pipeline.
+	 *
+	 * @return GPU memory in bytes.
+	 */
+	private long computeTextureMemory() {
+		long bytes = 0;
+		if (spectrum != null) {
+			long texels = (long) activeDimension * activeDimensionZ;
+			int channel = activePrecision.getChannelBytes();
+			//Omega (R32F), spectrum (two channels) and butterfly (RGBA32F) tables
+			bytes += texels * (4 + 2 * channel) + (long) activeDimension * activeButterflies * 16;
+			//Heightfield Y (two channels), normals and folding and result (four channels)
+			bytes += texels * channel * (2 + 4 + 4);
+			//Foam accumulation (R16F)
+			bytes += texels * 2;
+			if (mipChain != null) {
+				bytes += mipChain.getSizeInBytes();
+			}
+			if (activeCompactMemory) {
+				//Packed X-Z field and one more Y and X-Z pair
+				bytes += texels * channel * (4 + 2 + 4);
+			}
+			if (activeSpectralNormals) {
+				//Packed derivative spectra, their buffers and the derivative map
+				bytes += texels * channel * (4 + 2 + 4 + 2 + 4);
+			}
+			if (!activeCompactMemory) {
+				//Heightfields X and Z and six sampler textures (two channels)
+				bytes += texels * channel * 2 * 8;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Performs the phillips spectrum displacement.
+	 */
+	private void performSpectrumDisplacement() {
+		ShaderProgram spectrumShader = resources.getSpectrumShader(activePrecision);
+
+		//Do Spectrum Displacement
+		spectrumShader.getParameters().clear();
+
+		for (ComputeShader shader : spectrumShader.getShadersOfType(ComputeShader.class)) {
+			shader.setWorkGroupsX(activeDimension / 8);
+			shader.setWorkGroupsY(activeDimensionZ / 8);
+		}
+
 		//Uniform params
-		spectrumShader.getParameters().add(new Image2DParameter("m_HeightFieldX", heightfieldX));
 		spectrumShader.getParameters().add(new Image2DParameter("m_HeightFieldY", heightfieldY));
-		spectrumShader.getParameters().add(new Image2DParameter("m_HeightFieldZ", heightfieldZ));
+		if (activeCompactMemory) {
+			spectrumShader.getParameters().add(new Image2DParameter("m_HeightFieldXZ", heightfieldXZ));
+		} else {
+			spectrumShader.getParameters().add(new Image2DParameter("m_HeightFieldX", heightfieldX));
+			spectrumShader.getParameters().add(new Image2DParameter("m_HeightFieldZ", heightfieldZ));
+		}
+		spectrumShader.getParameters().add(new BoolParameter("m_PackedChoppy", activeCompactMemory));
+		if (activeSpectralNormals) {
+			spectrumShader.getParameters().add(new Image2DParameter("m_DerivativesA", derivativesA));
+			spectrumShader.getParameters().add(new Image2DParameter("m_DerivativesB", derivativesB));
+		}
+		spectrumShader.getParameters().add(new BoolParameter("m_Derivatives", activeSpectralNormals));
 
 		spectrumShader.getParameters().add(new Sampler2DParameter("m_SpectrumTexture", spectrum));
 		spectrumShader.getParameters().add(new Sampler2DParameter("m_OmegaTexture", omega));
 
-		spectrumShader.getParameters().add(new FloatParameter("m_Time", EngineTimer.getTickTime() / EngineTimer.SECOND_TO_NANO / 3.0f));
-		spectrumShader.getParameters().add(new FloatParameter("m_Amplitude", 0.25f));
-		spectrumShader.getParameters().add(new FloatParameter("m_Dimension", (float) dimension));
+		spectrumShader.getParameters().add(new FloatParameter("m_Time", getSpectrumTime()));
+		spectrumShader.getParameters().add(new FloatParameter("m_Amplitude", DISPLACEMENT_AMPLITUDE));
+		spectrumShader.getParameters().add(new Vec2Parameter("m_Dimension", new Vector2f(activeDimension, activeDimensionZ)));
 
 		spectrumShader.use();
 		spectrumShader.unuse();
 	}
 
 	private void performNormalsFoldingCalculation() {
+		ShaderProgram nfShader = resources.getNormalsShader(activePrecision);
+
 		//Uniform parameters
 		nfShader.getParameters().clear();
 
 		for (ComputeShader shader : nfShader.getShadersOfType(ComputeShader.class)) {
-			shader.setWorkGroupsX(dimension / 8);
-			shader.setWorkGroupsY(dimension / 8);
+			shader.setWorkGroupsX(activeDimension / 8);
+			shader.setWorkGroupsY(activeDimensionZ / 8);
 		}
 
 		nfShader.getParameters().add(new Image2DParameter("m_DisplacementMap", result));
 		nfShader.getParameters().add(new Image2DParameter("m_NormalsFoldingMap", nfMap));
+		nfShader.getParameters().add(new Image2DParameter("m_FoamAccumulationMap", foamAccumulation));
+		if (activeSpectralNormals) {
+			nfShader.getParameters().add(new Image2DParameter("m_DerivativeMap", derivativeMap));
+		}
+		nfShader.getParameters().add(new BoolParameter("m_SpectralDerivatives", activeSpectralNormals));
+		nfShader.getParameters().add(new Vec2Parameter("m_Dimension", new Vector2f(activeDimension, activeDimensionZ)));
 
 		nfShader.getParameters().add(new Vec2Parameter("m_ChoppyScale", choppyScale));
 
-		nfShader.getParameters().add(new FloatParameter("m_DistanceBetweenVertex", 40.0f / (dimension * 2.0f)));
+		nfShader.getParameters().add(new FloatParameter("m_DistanceBetweenVertex", 40.0f / (activeDimension * 2.0f)));
+		//Derivatives per patch coordinate, which equals the central differences at 512 texels and a patch size of 256
+		nfShader.getParameters().add(new FloatParameter("m_FoldScale", activeDimension / patchSize));
+
+		//Decay by the simulation time since the last accumulation, a fixed time freezes the foam
+		float time = getTime();
+		float elapsed = Float.isNaN(foamTime) ? 0.0f : Math.max(time - foamTime, 0.0f);
+		foamTime = time;
+		nfShader.getParameters().add(new FloatParameter("m_FoamDecay", foamDecay > 0.0f ? (float) Math.exp(-elapsed / foamDecay) : 0.0f));
 
 		nfShader.use();
 		nfShader.unuse();
+
+		//The levels follow the maps every frame, which keeps distant surfaces stable
+		if (mipChain != null) {
+			mipChain.generate(resources.getDownsampleShader(activePrecision));
+		}
+
+		if (foamReadbackEnabled) {
+			foamReadback.collect();
+			GL42.glMemoryBarrier(GL42.GL_TEXTURE_UPDATE_BARRIER_BIT | GL42.GL_PIXEL_BUFFER_BARRIER_BIT);
+			Vector2f scale = getTexCoordScale();
+			foamReadback.request(foamAccumulation, activeDimension, activeDimensionZ, scale.x, scale.y);
+		}
 	}
 
 	/**
@@ -565,21 +1494,25 @@ public class Ocean extends Mesh {
 		//Uniform parameters
 		surfaceShader.getParameters().clear();
 
-//		surfaceShader.getParameters().add(new AttributeLocationParameter("i_Vertex", vao.getBufferGroups().get(0).getBuffers().get(0)));
-//		surfaceShader.getParameters().add(new AttributeLocationParameter("i_Normal", vao.getBufferGroups().get(0).getBuffers().get(1)));
-//		surfaceShader.getParameters().add(new AttributeLocationParameter("i_TexCoord", vao.getBufferGroups().get(0).getBuffers().get(2)));
-//		surfaceShader.getParameters().add(new AttributeLocationParameter("i_Color", vao.getBufferGroups().get(0).getBuffers().get(3)));
 		surfaceShader.getParameters().add(new Mat3Parameter("m_ModelNormalMatrix", Pipeline.getNormalMatrix()));
 		surfaceShader.getParameters().add(new Mat4Parameter("m_ModelViewProjectionMatrix", Pipeline.getModelViewProjectionMatrix()));
 
-		surfaceShader.getParameters().add(new Sampler2DParameter("m_FoamMap", foammap));
+		surfaceShader.getParameters().add(new Sampler2DParameter("m_FoamMap", getFoamMap()));
 //		surfaceShader.getParameters().add(new SamplerCubeParameter("m_SkyBox", sky));
-		surfaceShader.getParameters().add(new Sampler2DParameter("m_DisplacementMap", result));
-		surfaceShader.getParameters().add(new Sampler2DParameter("m_NormalsFoldingMap", nfMap));
+		if (mipChain != null) {
+			//The mip chains are bound to fixed units around the draw
+			surfaceShader.getParameters().add(new IntParameter("m_DisplacementMap", OceanMipChain.DISPLACEMENT_UNIT));
+			surfaceShader.getParameters().add(new IntParameter("m_NormalsFoldingMap", OceanMipChain.NORMALS_FOLDING_UNIT));
+		} else {
+			surfaceShader.getParameters().add(new Sampler2DParameter("m_DisplacementMap", result));
+			surfaceShader.getParameters().add(new Sampler2DParameter("m_NormalsFoldingMap", nfMap));
+		}
+		surfaceShader.getParameters().add(new Sampler2DParameter("m_FoamAccumulationMap", foamAccumulation));
 
 		surfaceShader.getParameters().add(new Vec3Parameter("m_CameraPosition", cameraPosition));
 		surfaceShader.getParameters().add(new Vec3Parameter("m_LightPosition", new Vector3f(-400, 200, -400)));
 
+		surfaceShader.getParameters().add(new ColorRGBAParameter("m_SurfaceColor", ColorRGBA.LIGHT_GRAY));
 		surfaceShader.getParameters().add(new ColorRGBAParameter("m_LightColor", ColorRGBA.WHITE));
 		surfaceShader.getParameters().add(new ColorRGBAParameter("m_DiffuseColor", diffuseColor));
 		surfaceShader.getParameters().add(new ColorRGBAParameter("m_LowWaterColor", deepWaterColor));
@@ -588,7 +1521,7 @@ public class Ocean extends Mesh {
 		surfaceShader.getParameters().add(new Vec2Parameter("m_PerlinNoiseScale", Vector2f.UNIT_XY.divide(perlinNoiseScale)));
 		surfaceShader.getParameters().add(new Vec2Parameter("m_ChoppyScale", choppyScale));
 
-		surfaceShader.getParameters().add(new FloatParameter("m_Time", EngineTimer.getTickTime() / EngineTimer.SECOND_TO_NANO));
+		surfaceShader.getParameters().add(new FloatParameter("m_Time", getTime()));
 		surfaceShader.getParameters().add(new FloatParameter("m_LightShininess", specularIntensity));
 		surfaceShader.getParameters().add(new FloatParameter("m_Reflection", reflection));
 		surfaceShader.getParameters().add(new FloatParameter("m_Transparency", transparency));
@@ -597,57 +1530,470 @@ public class Ocean extends Mesh {
 		surfaceShader.getParameters().add(new FloatParameter("m_PerlinNoiseHeight", perlinNoiseHeight));
 		surfaceShader.getParameters().add(new FloatParameter("m_PerlinNoiseAnimationSpeed", perlinNoiseAnimationSpeed));
 
-		surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailMinDistance", levelOfDetail.getMinDetailLevel()));
-		surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailMaxDistance", levelOfDetail.getMaxDetailLevel()));
-		surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailChangeDistance", levelOfDetail.getFarthestChangeDistance()));
+		surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailMinDistance", levelOfDetail.getMinDetailLevel()));
+		surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailMaxDistance", levelOfDetail.getMaxDetailLevel()));
+		surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailChangeDistance", levelOfDetail.getFarthestChangeDistance()));
+
+		surfaceShader.getParameters().add(new BoolParameter("m_WakeEnabled", wake != null));
+		if (wake != null) {
+			//The wake window is centered at the camera in world coordinates
+			metrics.record(OceanMetrics.WAKE_UPLOADS, wake.upload(cameraPosition.x, cameraPosition.z));
+			metrics.record(OceanMetrics.WAKE_TILES, wake.getActiveTiles());
+			surfaceShader.getParameters().add(new Sampler2DParameter("m_WakeMap", wake.getTexture()));
+			surfaceShader.getParameters().add(new Vec3Parameter("m_WakeWindow",
+				new Vector3f(wake.getWindowOriginX(), wake.getWindowOriginZ(), wake.getWindowSize())));
+			surfaceShader.getParameters().add(new FloatParameter("m_WakeCellSize", wake.getCellSize()));
+		}
+
+		surfaceShader.getParameters().add(new BoolParameter("m_Clipmap", clipmap != null));
+		surfaceShader.getParameters().add(new BoolParameter("m_ScreenSpaceTessellation", patchCulling != null));
+		//Always set, so the buffer sampler never shares unit 0 with a 2D sampler
+		surfaceShader.getParameters().add(new IntParameter("m_PatchLevels", OceanPatchCulling.LEVELS_UNIT));
+		if (patchCulling != null) {
+			surfaceShader.getParameters().add(new FloatParameter("m_TileExtent", patchCulling.getTileExtent()));
+			surfaceShader.getParameters().add(new IntParameter("m_Tiles", patchCulling.getTilesPerSide()));
+		}
+		//Square texels, the maps of rectangular spectra repeat later along z
+		surfaceShader.getParameters().add(new Vec2Parameter("m_TexCoordScale", getTexCoordScale()));
+		//Distance based mip selection, one displacement texel covers about one pixel at level 0
+		float texelSize = 2.0f * gridSize / (diviation * activeDimension);
+		surfaceShader.getParameters().add(new FloatParameter("m_MipmapScale",
+			mipChain != null ? (float) (MIPMAP_PIXEL_ANGLE * Math.pow(2.0, mipmapBias) / texelSize) : 0.0f));
+		if (clipmap != null) {
+			//The surface shaders double the x-z plane, see Water.tes
+			clipmap.update(cameraPosition.x * 0.5f, cameraPosition.z * 0.5f);
+
+			Vector3f[] transforms = clipmap.getTransforms();
+			for (int i = 0; i < transforms.length; i++) {
+				surfaceShader.getParameters().add(new Vec3Parameter("m_ClipmapLevels[" + i + "]", transforms[i]));
+			}
+			surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailNearField", clipmap.getNearFieldDistance()));
+			surfaceShader.getParameters().add(new Vec2Parameter("m_ClipmapMorph", clipmap.getMorph()));
+		} else {
+			surfaceShader.getParameters().add(new FloatParameter("m_LevelOfDetailNearField", 0.0f));
+		}
+
+		//Start shading and rendering
+		surfaceShader.use();
+		if (mipChain != null) {
+			mipChain.bind();
+		}
+		if (clipmap != null) {
+			clipmap.render();
+		} else if (patchCulling != null) {
+			patchCulling.render(grid);
+		} else {
+			grid.renderVisible();
+		}
+		if (mipChain != null) {
+			mipChain.unbind();
+		}
+		surfaceShader.unuse();
+	}
+
+	/**
+	 * Sets the dynamic wave layer which is stepped with the simulation time
+	 * and added to the displacement of the surface.
+	 * <br>
+	 * The layer is owned by the caller and is not freed with the ocean.
+	 *
+	 * @param wake Wave layer or null for none.
+	 */
+	public void setWake(OceanWake wake) {
+		this.wake = wake;
+	}
+
+	/**
+	 * Returns the dynamic wave layer.
+	 *
+	 * @return Wave layer or null.
+	 */
+	public OceanWake getWake() {
+		return wake;
+	}
+
+	public void setSpecularIntensity(float specularIntensity) {
+		this.specularIntensity = specularIntensity;
+	}
+
+	public float getSpecularIntensity() {
+		return specularIntensity;
+	}
+
+	/**
+	 * Sets the size/quality of the spectrum texture.
+	 * <br>
+	 * The higher this value is, the more realistic the water will look. The<br>
+	 * default value is int(512).
+	 * <br>
+	 * Powers of 2 use the butterfly transformation. Other multiples of 8<br>
+	 * whose only prime factors are 2, 3 and 5 (96, 160, 240, 384, ...) are<br>
+	 * supported by the mixed radix transformation, see<br>
+	 * {@link #setSpectrumQuality(int, int)}. If the size increases, the<br>
+	 * performance will drop. This is because the<br>
+	 * <code>inverse fast fourier transformation</code> will take longer to
+	 * complete on the GPU.
+	 *
+	 * @param size Spectrum quality.
+	 */
+	public void setSpectrumQuality(int size) {
+		setSpectrumQuality(size, size);
+	}
+
+	/**
+	 * Sets a rectangular spectrum with the given number of texels along the
+	 * x and z axis.
+	 * <br>
+	 * The texels stay square: the patch size is the length along the x<br>
+	 * axis and the length along the z axis is scaled by<br>
+	 * <code>sizeZ / sizeX</code>, so a 512x128 spectrum covers a strip four<br>
+	 * times as long as wide with a quarter of the work of 512x512.<br>
+	 * Rectangular and non power of two spectra are transformed by the mixed<br>
+	 * radix compute shaders, which always use the compact memory layout.
+	 *
+	 * @param sizeX Texels along the x axis.
+	 * @param sizeZ Texels along the z axis.
+	 */
+	public void setSpectrumQuality(int sizeX, int sizeZ) {
+		if (sizeX < 32 || sizeZ < 32) {
+			throw new IllegalArgumentException("The size should not be below 32!");
+		}
+		if (!OceanMixedRadix.isSupported(sizeX) || !OceanMixedRadix.isSupported(sizeZ)) {
+			throw new IllegalArgumentException("The size must be a multiple of 8 with no prime factors other than 2, 3 and 5 (64, 96, 160, 512, ...)!");
+		}
+		if (sizeX == dimension && sizeZ == dimensionZ) {
+			return;
+		}
+		dimension = sizeX;
+		dimensionZ = sizeZ;
+		butterflies = sizeX == sizeZ && FastMath.isPowerOf2(sizeX) ? (int) FastMath.log2(sizeX) : 0;
+
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns the spectrum quality, which is the number of texels along the
+	 * x axis of rectangular spectra.
+	 *
+	 * @return Spectrum quality.
+	 */
+	public int getSpectrumQuality() {
+		return dimension;
+	}
+
+	/**
+	 * Returns the number of texels along the z axis, which equals the
+	 * spectrum quality of square spectra.
+	 *
+	 * @return Spectrum quality along the z axis.
+	 */
+	public int getSpectrumQualityZ() {
+		return dimensionZ;
+	}
+
+	/**
+	 * Enables or disables the compact memory mode.
+	 * <br>
+	 * The compact mode packs the choppy X and Z fields into a single<br>
+	 * RGBA16F image and runs the fourier transformation with compute<br>
+	 * shaders which ping-pong between two image pairs and write the last<br>
+	 * pass straight into the displacement map. This replaces nine RG16F<br>
+	 * working textures with two RG16F and two RGBA16F ones, which saves 12<br>
+	 * bytes per texel. The public <code>heightfieldX</code>,<br>
+	 * <code>heightfieldZ</code> and <code>samplerTextures</code> are not<br>
+	 * allocated in this mode.
+	 *
+	 * @param compactMemory If the compact memory mode should be used.
+	 */
+	public void setCompactMemory(boolean compactMemory) {
+		if (this.compactMemory == compactMemory) {
+			return;
+		}
+		this.compactMemory = compactMemory;
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns if the compact memory mode is used.
+	 *
+	 * @return If the compact memory mode is used.
+	 */
+	public boolean isCompactMemory() {
+		return compactMemory;
+	}
+
+	/**
+	 * Enables or disables the spectral normals.
+	 * <br>
+	 * By default the normals and the folding are derived from finite<br>
+	 * differences of the displacement map. With spectral normals the<br>
+	 * spectrum displacement also computes the slope and Jacobian<br>
+	 * derivative spectra, which are transformed in the same passes as the<br>
+	 * displacement. The normals pass then only reads its own texel and the<br>
+	 * result is exact and seamless at any dimension. The folding uses<br>
+	 * derivatives per patch coordinate, so it keeps its strength when the<br>
+	 * dimension or the patch size changes.
+	 * <br>
+	 * This mode always uses the compute shader fourier transformation of<br>
+	 * the compact memory mode and needs 32 more bytes per texel at 16 bit<br>
+	 * precision. Compare the {@link OceanMetrics#FFT_PASS} and<br>
+	 * {@link OceanMetrics#NORMALS} timings to weigh it against the finite<br>
+	 * differences.
+	 *
+	 * @param spectralNormals If the spectral normals should be used.
+	 */
+	public void setSpectralNormals(boolean spectralNormals) {
+		if (this.spectralNormals == spectralNormals) {
+			return;
+		}
+		this.spectralNormals = spectralNormals;
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns if the spectral normals are used.
+	 *
+	 * @return If the spectral normals are used.
+	 */
+	public boolean isSpectralNormals() {
+		return spectralNormals;
+	}
+
+	/**
+	 * Enables or disables the mip chains of the displacement and the<br>
+	 * normals and folding map.
+	 * <br>
+	 * The levels are rebuilt by a compute downsample after every normals<br>
+	 * pass. The surface selects the displacement level by the distance to<br>
+	 * the camera, the normals use trilinear and anisotropic filtering.<br>
+	 * Distant tiles then read a small level instead of skipping over<br>
+	 * texels, which removes the aliasing and keeps the texture cache<br>
+	 * warm. Enabled by default. The chains are separate textures which<br>
+	 * copy the first level of both maps every frame, so they need a third<br>
+	 * more than twice the memory of both maps.
+	 *
+	 * @param mipmapsEnabled If the maps should be mipmapped.
+	 */
+	public void setMipmapsEnabled(boolean mipmapsEnabled) {
+		if (this.mipmapsEnabled == mipmapsEnabled) {
+			return;
+		}
+		this.mipmapsEnabled = mipmapsEnabled;
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns if the maps are mipmapped.
+	 *
+	 * @return If the maps are mipmapped.
+	 */
+	public boolean isMipmapsEnabled() {
+		return mipmapsEnabled;
+	}
+
+	/**
+	 * Sets the largest anisotropy of the mipmapped maps. The driver limit<br>
+	 * applies, 1 disables anisotropic filtering. Default is float(8).
+	 *
+	 * @param anisotropy Largest anisotropy.
+	 */
+	public void setAnisotropy(float anisotropy) {
+		if (anisotropy < 1.0f) {
+			throw new IllegalArgumentException("The anisotropy must be at least 1!");
+		}
+		if (this.anisotropy == anisotropy) {
+			return;
+		}
+		this.anisotropy = anisotropy;
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns the largest anisotropy of the mipmapped maps.
+	 *
+	 * @return Largest anisotropy.
+	 */
+	public float getAnisotropy() {
+		return anisotropy;
+	}
+
+	/**
+	 * Sets the bias of the distance based displacement level selection.<br>
+	 * Every unit halves the distance at which the next level is used,<br>
+	 * negative values keep the detail longer. Default is float(0).
+	 *
+	 * @param mipmapBias Level bias.
+	 */
+	public void setMipmapBias(float mipmapBias) {
+		this.mipmapBias = mipmapBias;
+	}
+
+	/**
+	 * Returns the bias of the distance based displacement level selection.
+	 *
+	 * @return Level bias.
+	 */
+	public float getMipmapBias() {
+		return mipmapBias;
+	}
+
+	/**
+	 * Returns the GPU memory held by this ocean, which are all textures of
+	 * the spectrum pipeline and the surface geometry buffers. The shared
+	 * maps and shader programs are not included.
+	 *
+	 * @return GPU memory in bytes.
+	 */
+	public long getGpuMemoryBytes() {
+		return gpuMemoryBytes;
+	}
+
+	/**
+	 * Sets the storage precision of the spectrum and all intermediate
+	 * textures.
+	 * <br>
+	 * See {@link OceanPrecision} for the measured errors. The default is<br>
+	 * {@link OceanPrecision#HALF}.
+	 *
+	 * @param precision Storage precision.
+	 */
+	public void setPrecision(OceanPrecision precision) {
+		if (precision == null) {
+			throw new IllegalArgumentException("The precision must not be null!");
+		}
+		if (this.precision == precision) {
+			return;
+		}
+		this.precision = precision;
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns the storage precision.
+	 *
+	 * @return Storage precision.
+	 */
+	public OceanPrecision getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Freezes the simulation at the given time, which makes the<br>
+	 * displacement reproducible, for example to compare it with<br>
+	 * {@link OceanAccuracy}. NaN follows the engine timer again, which is<br>
+	 * the default.
+	 *
+	 * @param fixedTime Simulation time in seconds or NaN.
+	 */
+	public void setFixedTime(float fixedTime) {
+		this.fixedTime = fixedTime;
+	}
+
+	/**
+	 * Returns the fixed simulation time.
+	 *
+	 * @return Simulation time in seconds or NaN.
+	 */
+	public float getFixedTime() {
+		return fixedTime;
+	}
+
+	/**
+	 * Returns the current simulation time.
+	 *
+	 * @return Simulation time in seconds.
+	 */
+	public float getTime() {
+		return Float.isNaN(fixedTime) ? EngineTimer.getTickTime() / EngineTimer.SECOND_TO_NANO : fixedTime;
+	}
 
-		//Start shading and rendering
-		surfaceShader.use();
-		vao.render();
-		surfaceShader.unuse();
+	/**
+	 * Returns the time the spectrum is evolved to, which runs at a third<br>
+	 * of the simulation time.
+	 *
+	 * @return Spectrum time.
+	 */
+	public float getSpectrumTime() {
+		return getTime() / 3.0f;
 	}
 
-	public void setSpecularIntensity(float specularIntensity) {
-		this.specularIntensity = specularIntensity;
+	/**
+	 * Returns the spectrum quality of the pipeline which is currently used.
+	 * <br>
+	 * In progressive mode this is lower than {@link #getSpectrumQuality()}<br>
+	 * until the tables of the configured quality have been built.
+	 *
+	 * @return Active spectrum quality.
+	 */
+	public int getActiveSpectrumQuality() {
+		return activeDimension;
 	}
 
-	public float getSpecularIntensity() {
-		return specularIntensity;
+	/**
+	 * Returns the spectrum quality along the z axis of the pipeline which is
+	 * currently used.
+	 *
+	 * @return Active spectrum quality along the z axis.
+	 */
+	public int getActiveSpectrumQualityZ() {
+		return activeDimensionZ;
 	}
 
 	/**
-	 * Sets the size/quality of the spectrum texture.
-	 * <br>
-	 * The higher this value is, the more realistic the water will look. The<br>
-	 * default value is int(512).
+	 * Enables or disables the progressive startup.
 	 * <br>
-	 * The size of the texture must a power of 2! If the size increases,<br>
-	 * the performance will drop. This is because the<br>
-	 * <code>inverse fast fourier transformation</code> will take longer to
-	 * complete on the GPU.
+	 * If enabled, the first frame uses a coarse 64x64 spectrum and the<br>
+	 * tables of the configured quality are built on a background thread.<br>
+	 * The full pipeline is swapped in as soon as they are ready. Later<br>
+	 * changes are built in the background as well while the current<br>
+	 * pipeline keeps running. The coarse spectrum is a subset of the full<br>
+	 * one, so the large waves do not change on the swap. Rectangular<br>
+	 * spectra have no coarse stage and build the first pipeline right away.
 	 *
-	 * @param size Spectrum quality.
+	 * @param progressiveStartup If the progressive startup should be used.
 	 */
-	public void setSpectrumQuality(int size) {
-		if (!FastMath.isPowerOf2(size)) {
-			throw new IllegalArgumentException("The size must be power of 2 (64, 128, 256, 512, 1024, ...)!");
-		}
-		if (size < 32) {
-			throw new IllegalArgumentException("The size should not be below 32!");
-		}
-		dimension = size;
-		butterflies = (int) FastMath.log2(size);
+	public void setProgressiveStartup(boolean progressiveStartup) {
+		this.progressiveStartup = progressiveStartup;
+	}
+
+	/**
+	 * Returns if the progressive startup is used.
+	 *
+	 * @return If the progressive startup is used.
+	 */
+	public boolean isProgressiveStartup() {
+		return progressiveStartup;
+	}
+
+	/**
+	 * Returns if a background table build is pending.
+	 *
+	 * @return If the full pipeline is not ready yet.
+	 */
+	public boolean isTableBuildPending() {
+		return pendingTables != null;
+	}
 
+	/**
+	 * Sets the seed of the random spectrum amplitudes.
+	 *
+	 * @param spectrumSeed Spectrum seed.
+	 */
+	public void setSpectrumSeed(long spectrumSeed) {
+		if (this.spectrumSeed == spectrumSeed) {
+			return;
+		}
+		this.spectrumSeed = spectrumSeed;
 		hasChanged = true;
 	}
 
 	/**
-	 * Returns the spectrum quality.
+	 * Returns the seed of the random spectrum amplitudes.
 	 *
-	 * @return Spectrum quality.
+	 * @return Spectrum seed.
 	 */
-	public int getSpectrumQuality() {
-		return dimension;
+	public long getSpectrumSeed() {
+		return spectrumSeed;
 	}
 
 	/**
@@ -815,6 +2161,56 @@ public class Ocean extends Mesh {
 		return amplitude;
 	}
 
+	/**
+	 * Sets the fetch, the distance the wind blows over open water.
+	 * <br>
+	 * This will influence the wave height of the JONSWAP and TMA spectra.
+	 *
+	 * @param fetch Fetch in meters.
+	 */
+	public void setFetch(float fetch) {
+		if (fetch <= 0.0f) {
+			throw new IllegalArgumentException("The fetch must be positive!");
+		}
+		this.fetch = fetch;
+
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns the fetch.
+	 *
+	 * @return Fetch in meters.
+	 */
+	public float getFetch() {
+		return fetch;
+	}
+
+	/**
+	 * Sets the water depth.
+	 * <br>
+	 * This will influence the wave height of the TMA spectrum.
+	 *
+	 * @param depth Depth in meters.
+	 */
+	public void setDepth(float depth) {
+		if (depth <= 0.0f) {
+			throw new IllegalArgumentException("The depth must be positive!");
+		}
+		this.depth = depth;
+
+		hasChanged = true;
+	}
+
+	/**
+	 * Returns the water depth.
+	 *
+	 * @return Depth in meters.
+	 */
+	public float getDepth() {
+		return depth;
+	}
+
 	/**
 	 * Sets how much the reflection texture should be used.
 	 * <br>
@@ -887,6 +2283,79 @@ public class Ocean extends Mesh {
 		return foamHeightModification;
 	}
 
+	/**
+	 * Sets how long whitecaps trail after the wave has passed.
+	 * <br>
+	 * The folding of every frame is accumulated into a foam map, which<br>
+	 * decays by <code>exp(-t / foamDecay)</code> over the simulation time<br>
+	 * <code>t</code>. Zero disables the accumulation. The default value is<br>
+	 * float(2.0).
+	 *
+	 * @param foamDecay Decay time constant in seconds.
+	 */
+	public void setFoamDecay(float foamDecay) {
+		if (foamDecay < 0.0f) {
+			throw new IllegalArgumentException("The foam decay must not be negative!");
+		}
+		this.foamDecay = foamDecay;
+	}
+
+	/**
+	 * Returns the foam decay time constant.
+	 *
+	 * @return Decay time constant in seconds.
+	 */
+	public float getFoamDecay() {
+		return foamDecay;
+	}
+
+	/**
+	 * Enables or disables the CPU copy of the foam accumulation map, see
+	 * {@link #getFoamAmount(float, float)}.
+	 * <br>
+	 * The copy is read asynchronously and lags a few frames behind.<br>
+	 * Disabled by default.
+	 *
+	 * @param foamReadbackEnabled If the foam map should be copied.
+	 */
+	public void setFoamReadbackEnabled(boolean foamReadbackEnabled) {
+		this.foamReadbackEnabled = foamReadbackEnabled;
+	}
+
+	/**
+	 * Returns if the foam accumulation map is copied to the CPU.
+	 *
+	 * @return If the foam map is copied.
+	 */
+	public boolean isFoamReadbackEnabled() {
+		return foamReadbackEnabled;
+	}
+
+	/**
+	 * Returns the accumulated foam at the given world position from the
+	 * latest CPU copy. Can be called from any thread, the copy carries the
+	 * texture coordinate scale it was made with.
+	 *
+	 * @param x World x coordinate.
+	 * @param z World z coordinate.
+	 * @return Foam amount, 0 if no copy is available.
+	 */
+	public float getFoamAmount(float x, float z) {
+		//Same texture coordinates as the surface shaders, which double the x-z plane
+		return foamReadback.sample(x * 0.5f, z * 0.5f);
+	}
+
+	/**
+	 * Returns the texture coordinate scale of the surface along the x and z
+	 * axis.
+	 *
+	 * @return Texture coordinate scale.
+	 */
+	private Vector2f getTexCoordScale() {
+		float scale = diviation / gridSize;
+		return new Vector2f(scale, scale * activeDimension / activeDimensionZ);
+	}
+
 	/**
 	 * Sets the wind direction.
 	 *
@@ -1018,7 +2487,7 @@ public class Ocean extends Mesh {
 	 * @return Foam map.
 	 */
 	public Texture2D getFoamMap() {
-		return foammap;
+		return foammap != null ? foammap : resources.getFoamMap();
 	}
 
 	/**
@@ -1052,7 +2521,7 @@ public class Ocean extends Mesh {
 	 * @return Sky texture.
 	 */
 	public TextureCubeMap getSkyMap() {
-		return sky;
+		return sky != null ? sky : resources.getSky();
 	}
 
 	/**
@@ -1086,246 +2555,281 @@ public class Ocean extends Mesh {
 	}
 
 	/**
-	 * Sets the grid diviation.
+	 * Sets the number of grid quads per side.
+	 * <br>
+	 * The grid is the base geometry which will be refined by the<br>
+	 * tessellation stages. Vertices are shared and indexed, which keeps<br>
+	 * large grids practical. The default value is int(128).
 	 *
-	 * @param diviation Grid diviation.
+	 * @param gridSize Grid size.
 	 */
-	public void setGridDiviation(float diviation) {
-		this.diviation = diviation;
+	public void setGridSize(int gridSize) {
+		if (gridSize < 1) {
+			throw new IllegalArgumentException("The grid size must be at least 1!");
+		}
+		this.gridSize = gridSize;
+
+		invalidateGeometry();
 	}
 
 	/**
-	 * Returns the grid diviation.
+	 * Returns the number of grid quads per side.
 	 *
-	 * @return Grid diviation.
+	 * @return Grid size.
 	 */
-	public float getGridDiviation() {
-		return diviation;
+	public int getGridSize() {
+		return gridSize;
 	}
 
 	/**
-	 * Sets the tessellation level of detail properties.
+	 * Enables or disables the camera centred clipmap.
+	 * <br>
+	 * If enabled, the surface will be built out of nested rings of grids<br>
+	 * which follow the camera position. Every ring has half the resolution<br>
+	 * of the previous one, so the number of vertices does not depend on the<br>
+	 * covered distance. Tessellation is only used inside the finest ring.
 	 *
-	 * @param levelOfDetail Level of detail.
+	 * @param clipmapEnabled If the clipmap should be used.
 	 */
-	public void setLevelOfDetail(TessellationLevelOfDetail levelOfDetail) {
-		this.levelOfDetail = levelOfDetail;
+	public void setClipmapEnabled(boolean clipmapEnabled) {
+		this.clipmapEnabled = clipmapEnabled;
+
+		invalidateGeometry();
 	}
 
 	/**
-	 * Returns the used tessellation level of detail.
+	 * Returns if the camera centred clipmap is used.
 	 *
-	 * @return Level of detail.
+	 * @return If the clipmap is used.
 	 */
-	public TessellationLevelOfDetail getLevelOfDetail() {
-		return levelOfDetail;
+	public boolean isClipmapEnabled() {
+		return clipmapEnabled;
 	}
 
 	/**
-	 * Sets the surface transparency.
+	 * Sets the number of cells per clipmap ring side.
+	 * <br>
+	 * The value must be a multiple of 4. The default value is int(64).
 	 *
-	 * @param transparency Surface transparency.
+	 * @param clipmapResolution Clipmap resolution.
 	 */
-	public void setTransparency(float transparency) {
-		this.transparency = transparency;
+	public void setClipmapResolution(int clipmapResolution) {
+		if (clipmapResolution < 8 || clipmapResolution % 4 != 0) {
+			throw new IllegalArgumentException("The clipmap resolution must be a multiple of 4 and at least 8!");
+		}
+		this.clipmapResolution = clipmapResolution;
+
+		invalidateGeometry();
 	}
 
 	/**
-	 * Returns the surface transparency.
+	 * Returns the number of cells per clipmap ring side.
 	 *
-	 * @return Surface transparency.
+	 * @return Clipmap resolution.
 	 */
-	public float getTransparency() {
-		return transparency;
-	}
-
-	@Override
-	public boolean hasTransparency() {
-		return deepWaterColor.hasTransparency() || waterColor.hasTransparency() || transparency < 1.0f;
+	public int getClipmapResolution() {
+		return clipmapResolution;
 	}
 
 	/**
-	 * Creates and returns the phillips spectrum texture.
+	 * Sets the number of clipmap rings.
+	 * <br>
+	 * Every additional ring doubles the covered distance. The default<br>
+	 * value is int(6).
 	 *
-	 * @return Phillips spectrum texture.
+	 * @param clipmapLevels Number of clipmap rings.
 	 */
-	private Texture2D spectrum() {
-		FloatBuffer buffer = BufferUtilities.createFloatBuffer(dimension * dimension * 2);
-		FastRandom rnd = new FastRandom(4893555064671L);
-		//4893555064671L
-		System.out.println(rnd.getSeed());
-
-		float x, y;
-		float nd = -dimension / 2.0f;
-		float fa = 2.0f * FastMath.PI_FLOAT / patchSize;
-
-		for (int i = 0; i < dimension; i++) {
-			x = (nd + i) * fa;
-			for (int j = 0; j < dimension; j++) {
-				y = (nd + j) * fa;
-
-				float phillips = (x == 0 && y == 0) ? 0.0f : FastMath.sqrt(spectrumAlgorithm.spectrum(this, new Vector2f(x, y)));
-
-				buffer.put(phillips * rnd.nextGaussian() * FastMath.INV_SQRT_2_FLOAT);
-				buffer.put(phillips * rnd.nextGaussian() * FastMath.INV_SQRT_2_FLOAT);
-			}
+	public void setClipmapLevels(int clipmapLevels) {
+		if (clipmapLevels < 1 || clipmapLevels > OceanClipmap.MAX_LEVELS) {
+			throw new IllegalArgumentException("The clipmap level count must be between 1 and " + OceanClipmap.MAX_LEVELS + "!");
 		}
+		this.clipmapLevels = clipmapLevels;
 
-		Texture2D t = new Texture2D(new ImageData(ImageData.Format.RG16F, dimension, dimension, BufferUtilities.asByteBuffer(buffer)));
-		t.setMagFilter(Texture.MagFilter.NEAREST);
-		t.setMinFilter(Texture.MinFilter.NEAREST);
-		return t;
+		invalidateGeometry();
 	}
 
 	/**
-	 * Creates the omega texture.
+	 * Returns the number of clipmap rings.
 	 *
-	 * @return Omega texture.
+	 * @return Number of clipmap rings.
 	 */
-	private Texture2D omega() {
-		FloatBuffer buffer = BufferUtilities.createFloatBuffer(dimension * dimension);
-
-		float x, y;
-		float nd = -dimension / 2.0f;
-		float fa = 2.0f * FastMath.PI_FLOAT / patchSize;
-		for (int i = 0; i < dimension; i++) {
-			x = (nd + i) * fa;
-			for (int j = 0; j < dimension; j++) {
-				y = (nd + j) * fa;
+	public int getClipmapLevels() {
+		return clipmapLevels;
+	}
 
-				buffer.put(FastMath.sqrt((gravity * 100.0f) * FastMath.sqrt(x * x + y * y)));
-			}
+	/**
+	 * Sets the number of grid quads per culling tile side.
+	 * <br>
+	 * The grid is split into tiles which are culled against the view<br>
+	 * frustum on their own. The default value is int(16).
+	 *
+	 * @param tileSize Tile size.
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("The tile size must be at least 1!");
 		}
+		this.tileSize = tileSize;
 
-		Texture2D t = new Texture2D(new ImageData(ImageData.Format.R32F, dimension, dimension, BufferUtilities.asByteBuffer(buffer)));
-		t.setMagFilter(Texture.MagFilter.NEAREST);
-		t.setMinFilter(Texture.MinFilter.NEAREST);
-		return t;
+		invalidateGeometry();
 	}
 
 	/**
-	 * Creates and returns the butterfly texture.
+	 * Returns the number of grid quads per culling tile side.
 	 *
-	 * @return Butterfly texture.
+	 * @return Tile size.
 	 */
-	private Texture2D butterfly() {
-		float[][] indices = indices(butterflies, 2 * dimension);
-		float[][] weights = weights(butterflies, 2 * dimension);
+	public int getTileSize() {
+		return tileSize;
+	}
 
-		float[] butterflyArray = new float[dimension * butterflies * 4];
-		for (int y = 0; y < butterflies; y++) {
-			int rowAdd = 4 * y * dimension;
-			for (int x = 0; x < dimension; x++) {
-				int colAdd = 4 * x;
-				butterflyArray[rowAdd + colAdd + 0] = indices[y][2 * x] / dimension;
-				butterflyArray[rowAdd + colAdd + 1] = indices[y][2 * x + 1] / dimension;
-				butterflyArray[rowAdd + colAdd + 2] = weights[y][2 * x];
-				butterflyArray[rowAdd + colAdd + 3] = weights[y][2 * x + 1];
-			}
-		}
+	/**
+	 * Returns the number of tiles the grid is split into.
+	 *
+	 * @return Tile count.
+	 */
+	public int getTileCount() {
+		return grid != null ? grid.getTileCount() : 0;
+	}
 
-		Texture2D t = new Texture2D(new ImageData(ImageData.Format.RGBA32F, dimension, butterflies, BufferUtilities.asByteBuffer(butterflyArray)));
-		t.setMagFilter(Texture.MagFilter.NEAREST);
-		t.setMinFilter(Texture.MinFilter.NEAREST);
-		return t;
+	/**
+	 * Returns the number of tiles which passed the frustum culling in the
+	 * last frame. With the screen space error tessellation this is the CPU
+	 * test, the GPU pass uses the same boxes.
+	 *
+	 * @return Visible tile count.
+	 */
+	public int getVisibleTileCount() {
+		return visibleTiles;
 	}
 
 	/**
-	 * Creates all indices for the butterfly transformation in the FFT.
+	 * Enables or disables the screen space error tessellation.
+	 * <br>
+	 * If enabled, a compute pass culls the grid tiles against the view<br>
+	 * frustum and selects the tessellation level of every tile from its<br>
+	 * screen space error, see {@link #setTessellationPixelError(float)}.<br>
+	 * The tiles are drawn indirectly, so hidden tiles never reach the<br>
+	 * tessellator. The clipmap is not affected. Requires OpenGL 4.3.
 	 *
-	 * @param numButterflies Number of butterflies.
-	 * @param indices Number of indices.
-	 * @return Indices.
+	 * @param screenSpaceTessellation If the screen space error
+	 * tessellation should be used.
 	 */
-	private float[][] indices(int numButterflies, int indices) {
-		float[][] res = new float[numButterflies][indices];
+	public void setScreenSpaceTessellationEnabled(boolean screenSpaceTessellation) {
+		this.screenSpaceTessellation = screenSpaceTessellation;
 
-		int iterations = indices / 2;
-		int offset = 1;
-		int start, end;
-		int step, ip;
+		invalidateGeometry();
+	}
 
-		for (int i = 0; i < numButterflies; i++) {
-			iterations >>= 1;
-			step = 2 * offset;
-			end = step;
-			start = 0;
-			ip = 0;
-			for (int j = 0; j < iterations; j++) {
-				for (int k = start, l = 0, v = ip; k < end; k += 2, l += 2, v++) {
-					res[i][k] = v;
-					res[i][k + 1] = v + offset;
-					res[i][l + end] = v;
-					res[i][l + end + 1] = v + offset;
-				}
-				start += 2 * step;
-				end += 2 * step;
-				ip += step;
-			}
-			offset <<= 1;
+	/**
+	 * Returns if the screen space error tessellation is used.
+	 *
+	 * @return If the screen space error tessellation is used.
+	 */
+	public boolean isScreenSpaceTessellationEnabled() {
+		return screenSpaceTessellation;
+	}
+
+	/**
+	 * Sets the largest screen space error of the screen space error<br>
+	 * tessellation.
+	 * <br>
+	 * A surface segment may span this many pixels before its tile is<br>
+	 * refined further. Tiles whose displacement bounds project smaller<br>
+	 * than this stay at the minimum detail level. The default value is<br>
+	 * float(8.0).
+	 *
+	 * @param tessellationPixelError Screen space error in pixels.
+	 */
+	public void setTessellationPixelError(float tessellationPixelError) {
+		if (tessellationPixelError <= 0.0f) {
+			throw new IllegalArgumentException("The pixel error must be positive!");
 		}
+		this.tessellationPixelError = tessellationPixelError;
+	}
 
-		reverse(res[0], numButterflies);
+	/**
+	 * Returns the largest screen space error of the screen space error
+	 * tessellation.
+	 *
+	 * @return Screen space error in pixels.
+	 */
+	public float getTessellationPixelError() {
+		return tessellationPixelError;
+	}
 
-		return res;
+	/**
+	 * Returns an upper bound of the vertical displacement produced by the
+	 * current spectrum.
+	 * <br>
+	 * The bound is the sum of all spectrum magnitudes after the amplitude<br>
+	 * and patch size scaling of the displacement and fourier passes. The<br>
+	 * perlin noise height is not included.
+	 *
+	 * @return Maximum displacement.
+	 */
+	public float getMaximumDisplacement() {
+		return 2.0f * DISPLACEMENT_AMPLITUDE * spectrumMagnitude / (patchSize * (patchSize * 0.01f));
 	}
 
 	/**
-	 * Creates all weights for the butterfly transformation in the FFT.
+	 * Sets the grid diviation.
 	 *
-	 * @param numButterflies Number of butterflies.
-	 * @param weights Number of weights.
-	 * @return Weights.
+	 * @param diviation Grid diviation.
 	 */
-	private float[][] weights(int numButterflies, int weights) {
-		float[][] res = new float[numButterflies][weights];
+	public void setGridDiviation(float diviation) {
+		this.diviation = diviation;
 
-		int iterations = weights / 4;
-		int numk = 1;
-		int start, end;
+		invalidateGeometry();
+	}
 
-		for (int i = 0; i < numButterflies; i++) {
-			start = 0;
-			end = 2 * numk;
-			for (int j = 0; j < iterations; j++) {
-				int kk = 0;
-				for (int k = start; k < end; k += 2) {
-					double v = 2.0 * FastMath.PI * kk * iterations / dimension;
+	/**
+	 * Returns the grid diviation.
+	 *
+	 * @return Grid diviation.
+	 */
+	public float getGridDiviation() {
+		return diviation;
+	}
 
-					res[i][k] = (float) FastMath.cos(v);
-					res[i][k + 1] = (float) -FastMath.sin(v);
-					res[i][k + 2 * numk] = (float) -FastMath.cos(v);
-					res[i][k + 2 * numk + 1] = (float) FastMath.sin(v);
+	/**
+	 * Sets the tessellation level of detail properties.
+	 *
+	 * @param levelOfDetail Level of detail.
+	 */
+	public void setLevelOfDetail(TessellationLevelOfDetail levelOfDetail) {
+		this.levelOfDetail = levelOfDetail;
+	}
 
-					kk++;
-				}
-				start += 4 * numk;
-				end = start + 2 * numk;
-			}
-			iterations >>= 1;
-			numk <<= 1;
-		}
+	/**
+	 * Returns the used tessellation level of detail.
+	 *
+	 * @return Level of detail.
+	 */
+	public TessellationLevelOfDetail getLevelOfDetail() {
+		return levelOfDetail;
+	}
 
-		return res;
+	/**
+	 * Sets the surface transparency.
+	 *
+	 * @param transparency Surface transparency.
+	 */
+	public void setTransparency(float transparency) {
+		this.transparency = transparency;
 	}
 
 	/**
-	 * Reverses the bit order.
+	 * Returns the surface transparency.
 	 *
-	 * @param indices Indices.
-	 * @param numButterflies Number of butterflies.
+	 * @return Surface transparency.
 	 */
-	private void reverse(float[] indices, int numButterflies) {
-		int mask = 0x1;
-		for (int j = 0; j < indices.length; j++) {
-			int val = 0x0;
-			int temp = (int) indices[j];
-			for (int i = 0; i < numButterflies; i++) {
-				int t = (mask & temp);
-				val = (val << 1) | t;
-				temp >>= 1;
-			}
-			indices[j] = val;
-		}
+	public float getTransparency() {
+		return transparency;
+	}
+
+	@Override
+	public boolean hasTransparency() {
+		return deepWaterColor.hasTransparency() || waterColor.hasTransparency() || transparency < 1.0f;
 	}
 }
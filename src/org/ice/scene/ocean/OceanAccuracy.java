@@ -0,0 +1,345 @@
+package org.ice.scene.ocean;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import org.ice.math.Vector2f;
+import org.ice.platform.texture.Texture2D;
+import org.ice.util.BufferUtilities;
+import org.lwjgl.opengl.GL11;
+
+/**
+ * Accuracy harness which compares ocean backends against the double
+ * precision {@link OceanReference}.
+ * <br>
+ * The CPU backends emulate the storage error of every
+ * {@link OceanPrecision} and run without any graphics context, the
+ * benchmarks module prints them with <code>AccuracyReport</code>. The GPU backend reads back the displacement and
+ * the normals and folding map of a rendered ocean with
+ * {@link #measure(Ocean)}. To measure it headless, run the application
+ * with Mesa's software rasterizer (<code>LIBGL_ALWAYS_SOFTWARE=1</code>)
+ * on an offscreen or virtual display, set a fixed time with
+ * {@link Ocean#setFixedTime(float)} and call {@link #measure(Ocean)} after
+ * the ocean has been rendered once.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final class OceanAccuracy {
+
+	/**
+	 * Errors of one backend.
+	 */
+	public static final class Report {
+
+		private final String backend;
+		private final int dimension;
+		private final double maxDisplacementError, rmsDisplacementError;
+		private final double maxNormalError, p99NormalError, maxFoldingError;
+		private final double millis;
+
+		private Report(String backend, int dimension, double maxDisplacementError, double rmsDisplacementError,
+			double maxNormalError, double p99NormalError, double maxFoldingError, double millis) {
+			this.backend = backend;
+			this.dimension = dimension;
+			this.maxDisplacementError = maxDisplacementError;
+			this.rmsDisplacementError = rmsDisplacementError;
+			this.maxNormalError = maxNormalError;
+			this.p99NormalError = p99NormalError;
+			this.maxFoldingError = maxFoldingError;
+			this.millis = millis;
+		}
+
+		public String getBackend() {
+			return backend;
+		}
+
+		public int getDimension() {
+			return dimension;
+		}
+
+		/**
+		 * Returns the largest displacement error relative to the largest
+		 * reference displacement.
+		 *
+		 * @return Relative maximum displacement error.
+		 */
+		public double getMaxDisplacementError() {
+			return maxDisplacementError;
+		}
+
+		/**
+		 * Returns the RMS displacement error relative to the largest
+		 * reference displacement.
+		 *
+		 * @return Relative RMS displacement error.
+		 */
+		public double getRmsDisplacementError() {
+			return rmsDisplacementError;
+		}
+
+		/**
+		 * Returns the largest angle between a normal and its reference.
+		 *
+		 * @return Maximum normal error in degrees.
+		 */
+		public double getMaxNormalError() {
+			return maxNormalError;
+		}
+
+		/**
+		 * Returns the 99th percentile of the angles between the normals and
+		 * their references. The normals are finite differences over one<br>
+		 * texel, so a few texels with steep waves dominate the maximum.
+		 *
+		 * @return 99th percentile normal error in degrees.
+		 */
+		public double getP99NormalError() {
+			return p99NormalError;
+		}
+
+		/**
+		 * Returns the largest absolute folding error.
+		 *
+		 * @return Maximum folding error.
+		 */
+		public double getMaxFoldingError() {
+			return maxFoldingError;
+		}
+
+		/**
+		 * Returns the time the backend needed for one update, NaN if it was
+		 * not measured.
+		 *
+		 * @return Update time in milliseconds.
+		 */
+		public double getMillis() {
+			return millis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-14s %5d  displacement %.2e max %.2e rms  normals %.4f max %.4f p99 deg  folding %.2e  %8.2f ms",
+				backend, dimension, maxDisplacementError, rmsDisplacementError, maxNormalError, p99NormalError, maxFoldingError, millis);
+		}
+	}
+
+	/**
+	 * Errors and speedup of the pruned CPU transformation.
+	 */
+	public static final class PruningReport {
+
+		private final Report report;
+		private final String seaState;
+		private final double skippedFraction;
+		private final double fullMillis, prunedMillis;
+
+		private PruningReport(Report report, String seaState, double skippedFraction, double fullMillis, double prunedMillis) {
+			this.report = report;
+			this.seaState = seaState;
+			this.skippedFraction = skippedFraction;
+			this.fullMillis = fullMillis;
+			this.prunedMillis = prunedMillis;
+		}
+
+		/**
+		 * Returns the errors of the pruned transformation against the full
+		 * one.
+		 *
+		 * @return Errors of the pruned transformation.
+		 */
+		public Report getReport() {
+			return report;
+		}
+
+		public String getSeaState() {
+			return seaState;
+		}
+
+		/**
+		 * Returns the fraction of the transformation which was skipped.
+		 *
+		 * @return Skipped fraction.
+		 */
+		public double getSkippedFraction() {
+			return skippedFraction;
+		}
+
+		/**
+		 * Returns the best update time of the full transformation.
+		 *
+		 * @return Update time in milliseconds.
+		 */
+		public double getFullMillis() {
+			return fullMillis;
+		}
+
+		/**
+		 * Returns the best update time of the pruned transformation.
+		 *
+		 * @return Update time in milliseconds.
+		 */
+		public double getPrunedMillis() {
+			return prunedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-14s %5d  %-10s skipped %5.1f%%  displacement %.2e max  %8.2f ms full  %8.2f ms pruned  %5.2fx",
+				report.getBackend(), report.getDimension(), seaState, 100.0 * skippedFraction, report.getMaxDisplacementError(),
+				fullMillis, prunedMillis, fullMillis / prunedMillis);
+		}
+	}
+
+	private OceanAccuracy() {
+	}
+
+	/**
+	 * Compares the given maps against the reference.
+	 *
+	 * @param backend Backend name.
+	 * @param reference Updated exact reference.
+	 * @param displacement Displacement as (x, y, z) triples.
+	 * @param normalsFolding Normals and folding as (nx, ny, nz, fold)
+	 * quadruples.
+	 * @param millis Update time of the backend in milliseconds.
+	 * @return Errors of the backend.
+	 */
+	public static Report compare(String backend, OceanReference reference, double[] displacement, double[] normalsFolding, double millis) {
+		if (reference.getPrecision() != null) {
+			throw new IllegalArgumentException("The reference must not use a storage precision!");
+		}
+		double[] expected = reference.getDisplacement();
+		if (displacement.length != expected.length) {
+			throw new IllegalArgumentException("The backend dimension does not match the reference!");
+		}
+
+		double scale = 0.0, max = 0.0, sum = 0.0;
+		for (int i = 0; i < expected.length; i++) {
+			double error = Math.abs(displacement[i] - expected[i]);
+			scale = Math.max(scale, Math.abs(expected[i]));
+			max = Math.max(max, error);
+			sum += error * error;
+		}
+		double rms = Math.sqrt(sum / expected.length);
+		if (scale > 0.0) {
+			max /= scale;
+			rms /= scale;
+		}
+
+		double[] expectedNF = reference.getNormalsFolding();
+		double[] angles = new double[expectedNF.length / 4];
+		double fold = 0.0;
+		for (int i = 0; i < expectedNF.length; i += 4) {
+			double dot = 0.0, length = 0.0;
+			for (int c = 0; c < 3; c++) {
+				dot += normalsFolding[i + c] * expectedNF[i + c];
+				length += normalsFolding[i + c] * normalsFolding[i + c];
+			}
+			//Renormalize, the stored normals are rounded
+			double cos = length > 0.0 ? dot / Math.sqrt(length) : -1.0;
+			angles[i / 4] = Math.toDegrees(Math.acos(Math.min(1.0, Math.max(-1.0, cos))));
+			fold = Math.max(fold, Math.abs(normalsFolding[i + 3] - expectedNF[i + 3]));
+		}
+		Arrays.sort(angles);
+		double p99 = angles[(int) (angles.length * 0.99)];
+		return new Report(backend, reference.getDimension(), max, rms, angles[angles.length - 1], p99, fold, millis);
+	}
+
+	/**
+	 * Measures the CPU backend of the given precision.
+	 *
+	 * @param tables Ocean tables.
+	 * @param patchSize Patch size the tables were built with.
+	 * @param choppyScale Choppy scale.
+	 * @param time Spectrum time.
+	 * @param precision Storage precision.
+	 * @return Errors of the backend.
+	 */
+	public static Report measure(OceanTables tables, float patchSize, Vector2f choppyScale, double time, OceanPrecision precision) {
+		OceanReference reference = new OceanReference(tables, patchSize, choppyScale);
+		reference.update(time);
+
+		OceanReference backend = new OceanReference(tables, patchSize, choppyScale, precision);
+		backend.update(time);
+		long s = System.nanoTime();
+		backend.update(time);
+		double millis = (System.nanoTime() - s) / 1_000_000.0;
+
+		return compare("cpu-" + precision.name().toLowerCase(Locale.ROOT), reference, backend.getDisplacement(), backend.getNormalsFolding(), millis);
+	}
+
+	/**
+	 * Measures the GPU backend of the given ocean. Must be called on the
+	 * render thread after the ocean has been rendered with a fixed time.
+	 *
+	 * @param ocean Rendered ocean.
+	 * @return Errors of the backend.
+	 */
+	public static Report measure(Ocean ocean) {
+		OceanTables tables = OceanTables.build(ocean, ocean.getActiveSpectrumQuality(), ocean.getActiveSpectrumQualityZ(), ocean.getSpectrumSeed());
+		OceanReference reference = new OceanReference(tables, ocean.getPatchSize(), ocean.getChoppyScale());
+		reference.update(ocean.getSpectrumTime());
+
+		int texels = tables.getWidth() * tables.getHeight();
+		double[] displacement = new double[texels * 3];
+		double[] result = readBack(ocean.result, texels);
+		for (int i = 0; i < texels; i++) {
+			displacement[3 * i] = result[4 * i];
+			displacement[3 * i + 1] = result[4 * i + 1];
+			displacement[3 * i + 2] = result[4 * i + 2];
+		}
+		double[] normalsFolding = readBack(ocean.nfMap, texels);
+
+		String path = tables.isMixedRadix() ? "mixed-radix-" : ocean.isCompactMemory() ? "compute-" : "fragment-";
+		String backend = path + ocean.getPrecision().name().toLowerCase(Locale.ROOT);
+		RollingStatistics fft = ocean.getMetrics().getStatistics(OceanMetrics.FFT);
+		return compare(backend, reference, displacement, normalsFolding, fft != null ? fft.getMean() : Double.NaN);
+	}
+
+	private static double[] readBack(Texture2D texture, int texels) {
+		FloatBuffer buffer = BufferUtilities.createFloatBuffer(texels * 4);
+		texture.bind();
+		GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, GL11.GL_FLOAT, buffer);
+
+		double[] values = new double[texels * 4];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = buffer.get(i);
+		}
+		return values;
+	}
+
+	/**
+	 * Measures the pruned CPU transformation against the full one.
+	 *
+	 * @param tables Ocean tables.
+	 * @param patchSize Patch size the tables were built with.
+	 * @param choppyScale Choppy scale.
+	 * @param time Spectrum time.
+	 * @param threshold Relative prune threshold.
+	 * @param seaState Description of the sea state.
+	 * @return Skipped fraction, errors and update times.
+	 */
+	public static PruningReport measurePruning(OceanTables tables, float patchSize, Vector2f choppyScale, double time, double threshold, String seaState) {
+		OceanReference full = new OceanReference(tables, patchSize, choppyScale);
+		OceanReference pruned = new OceanReference(tables, patchSize, choppyScale);
+		pruned.setPruneThreshold(threshold);
+
+		//Warm up both, then take the best of a few updates
+		double fullMillis = Double.MAX_VALUE, prunedMillis = Double.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			long s = System.nanoTime();
+			full.update(time);
+			long m = System.nanoTime();
+			pruned.update(time);
+			long e = System.nanoTime();
+			if (i > 0) {
+				fullMillis = Math.min(fullMillis, (m - s) / 1_000_000.0);
+				prunedMillis = Math.min(prunedMillis, (e - m) / 1_000_000.0);
+			}
+		}
+
+		Report report = compare("cpu-pruned", full, pruned.getDisplacement(), pruned.getNormalsFolding(), prunedMillis);
+		return new PruningReport(report, seaState, pruned.getSkippedFraction(), fullMillis, prunedMillis);
+	}
+}
@@ -0,0 +1,335 @@
+package org.ice.scene.ocean;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import org.ice.math.Vector2f;
+import org.ice.math.Vector3f;
+import org.ice.platform.VertexArrayBuffer;
+import org.ice.util.BufferUtilities;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL40;
+
+/**
+ * Camera centred geometry clipmap for the ocean surface.
+ * <br>
+ * The clipmap consists of nested square levels with the same number of
+ * cells per side. Level 0 is a full block, every further level is a ring
+ * whose cells are twice as large as the ones of the previous level and
+ * whose hole is covered exactly by the previous level. The vertex count
+ * therefore only grows with the number of levels and not with the covered
+ * distance.
+ * <br>
+ * Every second vertex on the outer border of a level lies on the middle of
+ * an edge of the next coarser level. To avoid cracks and T-junctions,
+ * <code>Water.vs</code> morphs the cells in a region at the outer border
+ * of every level: the odd lattice vertices slide onto their even
+ * neighbours with the distance to the camera, so the border cells match
+ * the coarser level exactly. The region stays clear of the inner border,
+ * which therefore never moves. Levels with fewer than 16 cells per side
+ * are too small for a region and are not morphed.
+ * <br>
+ * All meshes are built once. Every level owns a copy of the vertex lattice
+ * which carries its level index, so a single index buffer is shared by all
+ * levels and the per-frame work is limited to snapping the level origins
+ * and picking one of four ring variants per level.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanClipmap {
+
+	/**
+	 * Maximum number of levels, must match <code>Water.vs</code>.
+	 */
+	static final int MAX_LEVELS = 16;
+
+	/**
+	 * Number of cells per level side.
+	 */
+	private final int resolution;
+	/**
+	 * Number of levels.
+	 */
+	private final int levels;
+	/**
+	 * Cell size of level 0.
+	 */
+	private final float spacing;
+	/**
+	 * Half extent of a level and width of the morph region, in cells.
+	 */
+	private final Vector2f morph;
+
+	/**
+	 * Index count and byte offset of the full block.
+	 */
+	private final int blockCount;
+	/**
+	 * Index count of a single ring variant.
+	 */
+	private final int ringCount;
+	/**
+	 * Byte offsets of the four ring variants, indexed by
+	 * <code>offsetX + 2 * offsetZ</code>.
+	 */
+	private final long[] ringOffsets = new long[4];
+
+	/**
+	 * Level origins (x, z) and cell sizes, updated every frame.
+	 */
+	private final Vector3f[] transforms;
+	/**
+	 * Ring variant of every level, updated every frame.
+	 */
+	private final int[] variants;
+
+	private final FloatBuffer vertices;
+	private final IntBuffer indices;
+	private final IntBuffer drawCounts;
+	private final IntBuffer drawBaseVertices;
+	private final PointerBuffer drawOffsets;
+
+	private int vertexArray, vertexBuffer, indexBuffer;
+
+	/**
+	 * Creates a new clipmap.
+	 *
+	 * @param resolution Number of cells per level side, must be a multiple
+	 * of 4.
+	 * @param levels Number of levels.
+	 * @param spacing Cell size of the finest level.
+	 */
+	OceanClipmap(int resolution, int levels, float spacing) {
+		if (resolution < 8 || resolution % 4 != 0) {
+			throw new IllegalArgumentException("The clipmap resolution must be a multiple of 4 and at least 8!");
+		}
+		if (levels < 1 || levels > MAX_LEVELS) {
+			throw new IllegalArgumentException("The clipmap level count must be between 1 and " + MAX_LEVELS + "!");
+		}
+		this.resolution = resolution;
+		this.levels = levels;
+		this.spacing = spacing;
+		//The inner border is at most a quarter of the resolution plus one cell away from the camera
+		this.morph = new Vector2f(resolution / 2.0f, Math.max(Math.min(resolution / 10.0f, resolution / 4.0f - 3.0f), 0.0f));
+
+		int row = resolution + 1;
+		vertices = BufferUtilities.createFloatBuffer(row * row * levels * OceanGrid.VERTEX_COMPONENTS);
+		for (int level = 0; level < levels; level++) {
+			for (int z = 0; z <= resolution; z++) {
+				for (int x = 0; x <= resolution; x++) {
+					vertices.put(x);
+					vertices.put(z);
+					vertices.put(level);
+					vertices.put(0.0f);
+				}
+			}
+		}
+		vertices.flip();
+
+		int quarter = resolution / 4;
+		int half = resolution / 2;
+		blockCount = resolution * resolution * 6;
+		ringCount = (resolution * resolution - half * half) * 6;
+
+		indices = BufferUtilities.createIntBuffer(blockCount + 4 * ringCount);
+		putCells(0, 0, 0, 0);
+		for (int variant = 0; variant < 4; variant++) {
+			ringOffsets[variant] = (long) indices.position() * Integer.BYTES;
+			int holeX = quarter + (variant & 1);
+			int holeZ = quarter + (variant >> 1);
+			putCells(holeX, holeZ, holeX + half, holeZ + half);
+		}
+		indices.flip();
+
+		transforms = new Vector3f[levels];
+		for (int i = 0; i < levels; i++) {
+			transforms[i] = new Vector3f(0.0f, 0.0f, spacing * (1 << i));
+		}
+		variants = new int[levels];
+
+		drawCounts = BufferUtilities.createIntBuffer(levels);
+		drawBaseVertices = BufferUtilities.createIntBuffer(levels);
+		drawOffsets = PointerBuffer.allocateDirect(levels);
+	}
+
+	/**
+	 * Emits two triangles for every cell which lies outside of the given
+	 * hole.
+	 */
+	private void putCells(int holeMinX, int holeMinZ, int holeMaxX, int holeMaxZ) {
+		int row = resolution + 1;
+		for (int z = 0; z < resolution; z++) {
+			for (int x = 0; x < resolution; x++) {
+				if (x >= holeMinX && x < holeMaxX && z >= holeMinZ && z < holeMaxZ) {
+					continue;
+				}
+				int i0 = z * row + x;
+				int i1 = i0 + row;
+				int i2 = i1 + 1;
+				int i3 = i0 + 1;
+				indices.put(i0).put(i1).put(i2).put(i2).put(i3).put(i0);
+			}
+		}
+	}
+
+	/**
+	 * Uploads the vertex lattice and all index variants.
+	 */
+	void upload() {
+		vertexArray = GL30.glGenVertexArrays();
+		GL30.glBindVertexArray(vertexArray);
+
+		vertexBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBuffer);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices, GL15.GL_STATIC_DRAW);
+
+		GL20.glEnableVertexAttribArray(VertexArrayBuffer.ATTRIB_LOCATION_VERTEX);
+		GL20.glVertexAttribPointer(VertexArrayBuffer.ATTRIB_LOCATION_VERTEX, 2, GL11.GL_FLOAT, false, OceanGrid.VERTEX_STRIDE, 0L);
+		GL20.glEnableVertexAttribArray(VertexArrayBuffer.ATTRIB_LOCATION_TEXCOORD);
+		GL20.glVertexAttribPointer(VertexArrayBuffer.ATTRIB_LOCATION_TEXCOORD, 2, GL11.GL_FLOAT, false, OceanGrid.VERTEX_STRIDE, 2L * Float.BYTES);
+
+		indexBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+
+		GL30.glBindVertexArray(0);
+	}
+
+	/**
+	 * Snaps every level to its grid around the given centre and selects the
+	 * ring variant whose hole matches the next finer level.
+	 * <br>
+	 * The centre must be given in grid space, i.e. before the surface<br>
+	 * shaders scale the x-z plane.
+	 *
+	 * @param centerX Centre x coordinate.
+	 * @param centerZ Centre z coordinate.
+	 */
+	void update(float centerX, float centerZ) {
+		float half = resolution / 2.0f;
+		float previousX = 0.0f, previousZ = 0.0f;
+		for (int level = 0; level < levels; level++) {
+			float cell = spacing * (1 << level);
+			float snap = 2.0f * cell;
+			float snappedX = (float) Math.floor(centerX / snap) * snap;
+			float snappedZ = (float) Math.floor(centerZ / snap) * snap;
+
+			transforms[level].x = snappedX - half * cell;
+			transforms[level].y = snappedZ - half * cell;
+
+			if (level > 0) {
+				int offsetX = Math.round((previousX - snappedX) / cell);
+				int offsetZ = Math.round((previousZ - snappedZ) / cell);
+				variants[level] = offsetX + 2 * offsetZ;
+			}
+			previousX = snappedX;
+			previousZ = snappedZ;
+		}
+	}
+
+	/**
+	 * Draws all levels with a single multi draw call.
+	 */
+	void render() {
+		int row = resolution + 1;
+		drawCounts.clear();
+		drawBaseVertices.clear();
+		drawOffsets.clear();
+		for (int level = 0; level < levels; level++) {
+			drawCounts.put(level == 0 ? blockCount : ringCount);
+			drawOffsets.put(level == 0 ? 0L : ringOffsets[variants[level]]);
+			drawBaseVertices.put(level * row * row);
+		}
+		drawCounts.flip();
+		drawBaseVertices.flip();
+		drawOffsets.flip();
+
+		GL30.glBindVertexArray(vertexArray);
+		GL40.glPatchParameteri(GL40.GL_PATCH_VERTICES, 3);
+		GL32.glMultiDrawElementsBaseVertex(GL40.GL_PATCHES, drawCounts, GL11.GL_UNSIGNED_INT, drawOffsets, drawBaseVertices);
+		GL30.glBindVertexArray(0);
+	}
+
+	/**
+	 * Deletes all buffer objects.
+	 */
+	void dispose() {
+		if (vertexArray != 0) {
+			GL30.glDeleteVertexArrays(vertexArray);
+			GL15.glDeleteBuffers(vertexBuffer);
+			GL15.glDeleteBuffers(indexBuffer);
+			vertexArray = vertexBuffer = indexBuffer = 0;
+		}
+	}
+
+	/**
+	 * Returns the level transforms as (origin x, origin z, cell size).
+	 *
+	 * @return Level transforms.
+	 */
+	Vector3f[] getTransforms() {
+		return transforms;
+	}
+
+	/**
+	 * Returns the half extent of a level and the width of the morph region
+	 * at its outer border in cells, see <code>Water.vs</code>. A width of
+	 * 0 disables the morphing.
+	 *
+	 * @return Half extent and morph width.
+	 */
+	Vector2f getMorph() {
+		return morph;
+	}
+
+	/**
+	 * Returns the number of levels.
+	 *
+	 * @return Number of levels.
+	 */
+	int getLevels() {
+		return levels;
+	}
+
+	/**
+	 * Returns the half extent of the finest level, which is the region
+	 * where tessellation is still used for refinement.
+	 *
+	 * @return Near field distance.
+	 */
+	float getNearFieldDistance() {
+		return resolution / 2.0f * spacing;
+	}
+
+	/**
+	 * Returns the half extent of the coarsest level.
+	 *
+	 * @return Far field distance.
+	 */
+	float getFarFieldDistance() {
+		return resolution / 2.0f * spacing * (1 << (levels - 1));
+	}
+
+	/**
+	 * Returns the number of bytes held by the vertex and index buffers.
+	 *
+	 * @return Size in bytes.
+	 */
+	long getSizeInBytes() {
+		return (long) vertices.capacity() * Float.BYTES + (long) indices.capacity() * Integer.BYTES;
+	}
+
+	/**
+	 * Returns the number of vertices drawn per frame.
+	 *
+	 * @return Vertex count.
+	 */
+	int getVertexCount() {
+		return (resolution + 1) * (resolution + 1) * levels;
+	}
+}
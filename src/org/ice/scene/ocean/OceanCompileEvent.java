@@ -0,0 +1,37 @@
+package org.ice.scene.ocean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the creation of the ocean surface geometry in
+ * {@link Ocean#compile(org.ice.platform.VertexArrayBuffer)}.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@Name("org.ice.ocean.Compile")
+@Label("Ocean Compile")
+@Category({"Ice", "Ocean"})
+@Description("Creation and upload of the ocean surface geometry")
+@StackTrace(false)
+final class OceanCompileEvent extends jdk.jfr.Event {
+
+	@Label("Clipmap")
+	boolean clipmap;
+
+	@Label("Resolution")
+	@Description("Grid quads or clipmap cells per side")
+	int resolution;
+
+	@Label("Vertices")
+	int vertices;
+
+	@Label("Bytes Uploaded")
+	@DataAmount
+	long bytesUploaded;
+}
@@ -0,0 +1,201 @@
+package org.ice.scene.ocean;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.ice.platform.texture.Texture2D;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+
+/**
+ * Asynchronous CPU copy of the foam accumulation map.
+ * <br>
+ * Every frame copies the map into a pixel pack buffer and sets a fence.
+ * A copy is only mapped once its fence has been signaled, which usually
+ * happens a few frames later, so reading it never stalls the pipeline.
+ * If all buffers are still in flight, the current frame is simply not
+ * copied.
+ * <br>
+ * Only the newest signaled copy is mapped, into a new array which is
+ * published together with its size and texture coordinate scale in one
+ * immutable snapshot, which can be sampled from any thread. The array is
+ * never written again, so a reader may hold a snapshot as long as it
+ * wants, at the cost of one short lived array per publication.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanFoamReadback {
+
+	/**
+	 * Number of copies which may be in flight at the same time.
+	 */
+	private static final int FRAMES_IN_FLIGHT = 3;
+
+	/**
+	 * Pixel pack buffers, their fences (0 if free) and copied widths and
+	 * heights.
+	 */
+	private final int[] buffers = new int[FRAMES_IN_FLIGHT];
+	private final long[] fences = new long[FRAMES_IN_FLIGHT];
+	private final int[] widths = new int[FRAMES_IN_FLIGHT], heights = new int[FRAMES_IN_FLIGHT];
+	/**
+	 * Texture coordinate scales of the copies.
+	 */
+	private final float[] scalesX = new float[FRAMES_IN_FLIGHT], scalesY = new float[FRAMES_IN_FLIGHT];
+	/**
+	 * Next buffer to copy into and oldest buffer to read from.
+	 */
+	private int writeSlot, readSlot;
+
+	/**
+	 * Latest published copy, null if nothing has been copied yet.
+	 */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Immutable copy of the foam map.
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * Foam values as half floats, row major.
+		 */
+		private final short[] values;
+		private final int width, height;
+		private final float scaleX, scaleY;
+
+		private Snapshot(short[] values, int width, int height, float scaleX, float scaleY) {
+			this.values = values;
+			this.width = width;
+			this.height = height;
+			this.scaleX = scaleX;
+			this.scaleY = scaleY;
+		}
+	}
+
+	/**
+	 * Starts copying the given R16F foam map.
+	 *
+	 * @param map Foam map.
+	 * @param width Map width.
+	 * @param height Map height.
+	 * @param scaleX Texture coordinate scale along the x axis.
+	 * @param scaleY Texture coordinate scale along the z axis.
+	 */
+	void request(Texture2D map, int width, int height, float scaleX, float scaleY) {
+		if (fences[writeSlot] != 0) {
+			//All buffers are in flight, skip this frame instead of waiting
+			return;
+		}
+		int bytes = width * height * Short.BYTES;
+		if (buffers[writeSlot] == 0) {
+			buffers[writeSlot] = GL15.glGenBuffers();
+		}
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, buffers[writeSlot]);
+		if (widths[writeSlot] != width || heights[writeSlot] != height) {
+			GL15.glBufferData(GL21.GL_PIXEL_PACK_BUFFER, bytes, GL15.GL_STREAM_READ);
+			widths[writeSlot] = width;
+			heights[writeSlot] = height;
+		}
+		scalesX[writeSlot] = scaleX;
+		scalesY[writeSlot] = scaleY;
+		map.bind();
+		GL11.glGetTexImage(GL11.GL_TEXTURE_2D, 0, GL11.GL_RED, GL30.GL_HALF_FLOAT, 0L);
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+
+		fences[writeSlot] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		writeSlot = (writeSlot + 1) % FRAMES_IN_FLIGHT;
+	}
+
+	/**
+	 * Publishes the newest copy whose fence has been signaled. This never
+	 * waits for the GPU, older signaled copies are skipped.
+	 */
+	void collect() {
+		int latest = -1;
+		while (fences[readSlot] != 0) {
+			int status = GL32.glClientWaitSync(fences[readSlot], 0, 0L);
+			if (status != GL32.GL_ALREADY_SIGNALED && status != GL32.GL_CONDITION_SATISFIED) {
+				break;
+			}
+			GL32.glDeleteSync(fences[readSlot]);
+			fences[readSlot] = 0;
+			latest = readSlot;
+			readSlot = (readSlot + 1) % FRAMES_IN_FLIGHT;
+		}
+		if (latest < 0) {
+			return;
+		}
+		OceanQueryEvent event = new OceanQueryEvent();
+		event.begin();
+
+		//Always a new array, published snapshots are never written again
+		int length = widths[latest] * heights[latest];
+		short[] values = new short[length];
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, buffers[latest]);
+		ByteBuffer mapped = GL15.glMapBuffer(GL21.GL_PIXEL_PACK_BUFFER, GL15.GL_READ_ONLY);
+		if (mapped != null) {
+			mapped.order(ByteOrder.nativeOrder()).asShortBuffer().get(values);
+			GL15.glUnmapBuffer(GL21.GL_PIXEL_PACK_BUFFER);
+		}
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+		snapshot = new Snapshot(values, widths[latest], heights[latest], scalesX[latest], scalesY[latest]);
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = "foam readback";
+			event.dimension = widths[latest];
+			event.points = length;
+			event.bytes = (long) length * Short.BYTES;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Samples the latest copy bilinearly at the given surface coordinates,
+	 * which are scaled by the texture coordinate scale of the copy and
+	 * repeat like the map.
+	 *
+	 * @param x Surface x coordinate.
+	 * @param z Surface z coordinate.
+	 * @return Foam amount, 0 if nothing has been copied yet.
+	 */
+	float sample(float x, float z) {
+		Snapshot copy = snapshot;
+		if (copy == null) {
+			return 0.0f;
+		}
+		short[] values = copy.values;
+		int w = copy.width, h = copy.height;
+		//Texel centers like the sampler
+		float tu = x * copy.scaleX * w - 0.5f, tv = z * copy.scaleY * h - 0.5f;
+		int x0 = (int) Math.floor(tu), y0 = (int) Math.floor(tv);
+		float tx = tu - x0, ty = tv - y0;
+		int ax = Math.floorMod(x0, w), bx = Math.floorMod(x0 + 1, w);
+		int ay = Math.floorMod(y0, h) * w, by = Math.floorMod(y0 + 1, h) * w;
+		float f00 = HalfFloat.toFloat(values[ay + ax]), f10 = HalfFloat.toFloat(values[ay + bx]);
+		float f01 = HalfFloat.toFloat(values[by + ax]), f11 = HalfFloat.toFloat(values[by + bx]);
+		return (f00 * (1.0f - tx) + f10 * tx) * (1.0f - ty) + (f01 * (1.0f - tx) + f11 * tx) * ty;
+	}
+
+	/**
+	 * Deletes all buffers and fences and drops the latest copy.
+	 */
+	void dispose() {
+		for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+			if (fences[i] != 0) {
+				GL32.glDeleteSync(fences[i]);
+				fences[i] = 0;
+			}
+			if (buffers[i] != 0) {
+				GL15.glDeleteBuffers(buffers[i]);
+				buffers[i] = 0;
+			}
+			widths[i] = heights[i] = 0;
+		}
+		writeSlot = readSlot = 0;
+		snapshot = null;
+	}
+}
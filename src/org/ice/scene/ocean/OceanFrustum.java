@@ -0,0 +1,100 @@
+package org.ice.scene.ocean;
+
+import org.ice.math.Matrix4f;
+import org.ice.math.Vector3f;
+
+/**
+ * View frustum used for culling parts of the ocean surface on the CPU.
+ * <br>
+ * The six planes are extracted from a combined model view projection
+ * matrix, which means that boxes have to be given in model space.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanFrustum {
+
+	/**
+	 * Plane equations (a, b, c, d) for left, right, bottom, top, near and
+	 * far.
+	 */
+	private final float[] planes = new float[6 * 4];
+
+	/**
+	 * Extracts the frustum planes from the given model view projection
+	 * matrix.
+	 *
+	 * @param mvp Model view projection matrix.
+	 */
+	void set(Matrix4f mvp) {
+		plane(0, mvp.m30 + mvp.m00, mvp.m31 + mvp.m01, mvp.m32 + mvp.m02, mvp.m33 + mvp.m03);
+		plane(1, mvp.m30 - mvp.m00, mvp.m31 - mvp.m01, mvp.m32 - mvp.m02, mvp.m33 - mvp.m03);
+		plane(2, mvp.m30 + mvp.m10, mvp.m31 + mvp.m11, mvp.m32 + mvp.m12, mvp.m33 + mvp.m13);
+		plane(3, mvp.m30 - mvp.m10, mvp.m31 - mvp.m11, mvp.m32 - mvp.m12, mvp.m33 - mvp.m13);
+		plane(4, mvp.m30 + mvp.m20, mvp.m31 + mvp.m21, mvp.m32 + mvp.m22, mvp.m33 + mvp.m23);
+		plane(5, mvp.m30 - mvp.m20, mvp.m31 - mvp.m21, mvp.m32 - mvp.m22, mvp.m33 - mvp.m23);
+	}
+
+	/**
+	 * Computes the eye position in model space from the given perspective
+	 * model view projection matrix. The clip space x, y and w all vanish at
+	 * the eye, so it is the solution of the three row equations.
+	 *
+	 * @param mvp Model view projection matrix.
+	 * @param target Target of the eye position.
+	 * @return False if the matrix has no eye point, e.g. an orthographic
+	 * projection.
+	 */
+	static boolean eye(Matrix4f mvp, Vector3f target) {
+		float det = mvp.m00 * (mvp.m11 * mvp.m32 - mvp.m12 * mvp.m31) - mvp.m01 * (mvp.m10 * mvp.m32 - mvp.m12 * mvp.m30)
+			+ mvp.m02 * (mvp.m10 * mvp.m31 - mvp.m11 * mvp.m30);
+		if (Math.abs(det) < 1e-12f) {
+			return false;
+		}
+		float b0 = -mvp.m03, b1 = -mvp.m13, b3 = -mvp.m33;
+		//Cramer's rule
+		target.x = (b0 * (mvp.m11 * mvp.m32 - mvp.m12 * mvp.m31) - mvp.m01 * (b1 * mvp.m32 - mvp.m12 * b3)
+			+ mvp.m02 * (b1 * mvp.m31 - mvp.m11 * b3)) / det;
+		target.y = (mvp.m00 * (b1 * mvp.m32 - mvp.m12 * b3) - b0 * (mvp.m10 * mvp.m32 - mvp.m12 * mvp.m30)
+			+ mvp.m02 * (mvp.m10 * b3 - b1 * mvp.m30)) / det;
+		target.z = (mvp.m00 * (mvp.m11 * b3 - b1 * mvp.m31) - mvp.m01 * (mvp.m10 * b3 - b1 * mvp.m30)
+			+ b0 * (mvp.m10 * mvp.m31 - mvp.m11 * mvp.m30)) / det;
+		return true;
+	}
+
+	private void plane(int index, float a, float b, float c, float d) {
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		int i = index * 4;
+		planes[i] = a / length;
+		planes[i + 1] = b / length;
+		planes[i + 2] = c / length;
+		planes[i + 3] = d / length;
+	}
+
+	/**
+	 * Checks if the given axis aligned box is at least partially inside the
+	 * frustum.
+	 *
+	 * @param minX Minimum x.
+	 * @param minY Minimum y.
+	 * @param minZ Minimum z.
+	 * @param maxX Maximum x.
+	 * @param maxY Maximum y.
+	 * @param maxZ Maximum z.
+	 * @return True if the box is potentially visible.
+	 */
+	boolean intersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		for (int i = 0; i < planes.length; i += 4) {
+			float a = planes[i], b = planes[i + 1], c = planes[i + 2];
+
+			//Test the box corner which lies farthest along the plane normal
+			float x = a >= 0.0f ? maxX : minX;
+			float y = b >= 0.0f ? maxY : minY;
+			float z = c >= 0.0f ? maxZ : minZ;
+			if (a * x + b * y + c * z + planes[i + 3] < 0.0f) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,175 @@
+package org.ice.scene.ocean;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+
+/**
+ * Measures the GPU time of the ocean stages with timestamp queries.
+ * <br>
+ * Every frame records a start and an end timestamp per stage. Results are
+ * only read once the driver reports them as available, which usually
+ * happens a few frames later, so reading them never stalls the pipeline.
+ * If all frame slots are still in flight, the current frame is simply not
+ * measured.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanGpuTimer {
+
+	/**
+	 * Number of frames which may be in flight at the same time.
+	 */
+	private static final int FRAMES_IN_FLIGHT = 4;
+
+	/**
+	 * Recorded stages of a single frame.
+	 */
+	private static final class Frame {
+
+		private final List<String> stages = new ArrayList<>();
+		private final List<int[]> queries = new ArrayList<>();
+		private boolean pending;
+
+		private void reset() {
+			stages.clear();
+			queries.clear();
+			pending = false;
+		}
+	}
+
+	/**
+	 * Frame slots in submission order.
+	 */
+	private final Frame[] frames = new Frame[FRAMES_IN_FLIGHT];
+	/**
+	 * Unused query objects.
+	 */
+	private final ArrayDeque<Integer> freeQueries = new ArrayDeque<>();
+	/**
+	 * Frame which is currently being recorded or null.
+	 */
+	private Frame recording;
+	/**
+	 * Start query of the currently open stage.
+	 */
+	private int openQuery;
+	/**
+	 * Next slot to record into and oldest slot to read from.
+	 */
+	private int writeSlot, readSlot;
+
+	OceanGpuTimer() {
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = new Frame();
+		}
+	}
+
+	/**
+	 * Starts recording a new frame. An open frame will be submitted first.
+	 */
+	void beginFrame() {
+		if (recording != null) {
+			endFrame();
+		}
+		Frame frame = frames[writeSlot];
+		if (frame.pending) {
+			//All slots are in flight, skip this frame instead of waiting
+			return;
+		}
+		frame.reset();
+		recording = frame;
+	}
+
+	/**
+	 * Records the start timestamp of the given stage.
+	 *
+	 * @param stage Stage name.
+	 */
+	void begin(String stage) {
+		if (recording == null) {
+			return;
+		}
+		openQuery = query();
+		GL33.glQueryCounter(openQuery, GL33.GL_TIMESTAMP);
+		recording.stages.add(stage);
+	}
+
+	/**
+	 * Records the end timestamp of the stage started last.
+	 */
+	void end() {
+		if (recording == null) {
+			return;
+		}
+		int endQuery = query();
+		GL33.glQueryCounter(endQuery, GL33.GL_TIMESTAMP);
+		recording.queries.add(new int[]{openQuery, endQuery});
+	}
+
+	/**
+	 * Submits the frame which is currently being recorded.
+	 */
+	void endFrame() {
+		if (recording == null) {
+			return;
+		}
+		if (!recording.queries.isEmpty()) {
+			recording.pending = true;
+			writeSlot = (writeSlot + 1) % frames.length;
+		}
+		recording = null;
+	}
+
+	/**
+	 * Reads all frames whose results are available and adds them to the
+	 * given metrics. This never waits for the GPU.
+	 *
+	 * @param metrics Target metrics.
+	 */
+	void collect(OceanMetrics metrics) {
+		while (frames[readSlot].pending) {
+			Frame frame = frames[readSlot];
+			int[] last = frame.queries.get(frame.queries.size() - 1);
+			if (GL15.glGetQueryObjecti(last[1], GL15.GL_QUERY_RESULT_AVAILABLE) == 0) {
+				return;
+			}
+			for (int i = 0; i < frame.queries.size(); i++) {
+				int[] pair = frame.queries.get(i);
+				long start = GL33.glGetQueryObjecti64(pair[0], GL15.GL_QUERY_RESULT);
+				long end = GL33.glGetQueryObjecti64(pair[1], GL15.GL_QUERY_RESULT);
+				metrics.recordStage(frame.stages.get(i), (end - start) / 1_000_000.0);
+				freeQueries.push(pair[0]);
+				freeQueries.push(pair[1]);
+			}
+			metrics.commitFrame();
+			frame.reset();
+			readSlot = (readSlot + 1) % frames.length;
+		}
+	}
+
+	private int query() {
+		Integer q = freeQueries.poll();
+		return q != null ? q : GL15.glGenQueries();
+	}
+
+	/**
+	 * Deletes all query objects.
+	 */
+	void dispose() {
+		for (Frame frame : frames) {
+			for (int[] pair : frame.queries) {
+				GL15.glDeleteQueries(pair[0]);
+				GL15.glDeleteQueries(pair[1]);
+			}
+			frame.reset();
+		}
+		while (!freeQueries.isEmpty()) {
+			GL15.glDeleteQueries(freeQueries.poll());
+		}
+		recording = null;
+	}
+}
@@ -0,0 +1,385 @@
+package org.ice.scene.ocean;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import org.ice.platform.VertexArrayBuffer;
+import org.ice.util.BufferUtilities;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * Indexed patch grid used as the base geometry of the ocean surface.
+ * <br>
+ * Every vertex is shared between its neighbouring quads and is written
+ * straight into a direct buffer as interleaved <code>(x, z, u, v)</code>
+ * floats. The surface lies in the x-z plane, so the height component is
+ * not stored at all. Quads are emitted as two triangle patches through an
+ * index buffer which uses 16 bit indices whenever the vertex count allows
+ * it.
+ * <br>
+ * The indices are ordered tile by tile, so every tile is a contiguous range
+ * of the index buffer. This allows culling tiles on the CPU and drawing all
+ * visible tiles with a single multi draw call, or culling them on the GPU
+ * and drawing them indirectly, see {@link OceanPatchCulling}.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanGrid {
+
+	/**
+	 * Number of floats per vertex.
+	 */
+	static final int VERTEX_COMPONENTS = 4;
+	/**
+	 * Vertex stride in bytes.
+	 */
+	static final int VERTEX_STRIDE = VERTEX_COMPONENTS * Float.BYTES;
+
+	/**
+	 * Number of quads per side.
+	 */
+	private final int size;
+	/**
+	 * Number of quads per tile side.
+	 */
+	private final int tileSize;
+	/**
+	 * Number of tiles per side.
+	 */
+	private final int tiles;
+	/**
+	 * Grid space bounds (min x, min z, max x, max z) of every tile.
+	 */
+	private final float[] tileBounds;
+	/**
+	 * Index count of every tile.
+	 */
+	private final int[] tileCounts;
+	/**
+	 * Byte offset of every tile into the index buffer.
+	 */
+	private final long[] tileOffsets;
+	/**
+	 * Draw parameters of the visible tiles.
+	 */
+	private final IntBuffer drawCounts;
+	private final PointerBuffer drawOffsets;
+	/**
+	 * Interleaved vertex data.
+	 */
+	private final FloatBuffer vertices;
+	/**
+	 * Index data.
+	 */
+	private final ByteBuffer indices;
+	/**
+	 * Either <code>GL_UNSIGNED_SHORT</code> or <code>GL_UNSIGNED_INT</code>.
+	 */
+	private final int indexType;
+	/**
+	 * Number of indices.
+	 */
+	private final int indexCount;
+
+	/**
+	 * OpenGL object names.
+	 */
+	private int vertexArray, vertexBuffer, indexBuffer;
+
+	/**
+	 * Creates a new grid.
+	 *
+	 * @param size Number of quads per side.
+	 * @param tileSize Number of quads per tile side.
+	 * @param spacing Distance between two neighbouring vertices.
+	 * @param diviation Texture coordinate repetitions across the grid.
+	 */
+	OceanGrid(int size, int tileSize, float spacing, float diviation) {
+		if (size < 1) {
+			throw new IllegalArgumentException("The grid size must be at least 1!");
+		}
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("The tile size must be at least 1!");
+		}
+		this.size = size;
+		this.tileSize = Math.min(tileSize, size);
+		this.tiles = (size + this.tileSize - 1) / this.tileSize;
+
+		int row = size + 1;
+		int vertexCount = row * row;
+		float texScale = spacing * diviation / size;
+
+		vertices = BufferUtilities.createFloatBuffer(vertexCount * VERTEX_COMPONENTS);
+		for (int z = 0; z <= size; z++) {
+			for (int x = 0; x <= size; x++) {
+				vertices.put(x * spacing);
+				vertices.put(z * spacing);
+				vertices.put(x * texScale);
+				vertices.put(z * texScale);
+			}
+		}
+		vertices.flip();
+
+		boolean shortIndices = vertexCount <= 0x10000;
+		int indexSize = shortIndices ? Short.BYTES : Integer.BYTES;
+		indexType = shortIndices ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT;
+		indexCount = size * size * 6;
+		indices = ByteBuffer.allocateDirect(indexCount * indexSize).order(ByteOrder.nativeOrder());
+
+		int tileCount = tiles * tiles;
+		tileBounds = new float[tileCount * 4];
+		tileCounts = new int[tileCount];
+		tileOffsets = new long[tileCount];
+
+		for (int tz = 0; tz < tiles; tz++) {
+			for (int tx = 0; tx < tiles; tx++) {
+				int tile = tz * tiles + tx;
+				int minX = tx * this.tileSize, maxX = Math.min(minX + this.tileSize, size);
+				int minZ = tz * this.tileSize, maxZ = Math.min(minZ + this.tileSize, size);
+
+				tileOffsets[tile] = indices.position();
+				tileCounts[tile] = (maxX - minX) * (maxZ - minZ) * 6;
+				tileBounds[tile * 4] = minX * spacing;
+				tileBounds[tile * 4 + 1] = minZ * spacing;
+				tileBounds[tile * 4 + 2] = maxX * spacing;
+				tileBounds[tile * 4 + 3] = maxZ * spacing;
+
+				// Same winding as the former non-indexed grid: v0, v1, v2, v2, v3, v0
+				for (int z = minZ; z < maxZ; z++) {
+					for (int x = minX; x < maxX; x++) {
+						int i0 = z * row + x;
+						int i1 = i0 + row;
+						int i2 = i1 + 1;
+						int i3 = i0 + 1;
+						putIndex(shortIndices, i0);
+						putIndex(shortIndices, i1);
+						putIndex(shortIndices, i2);
+						putIndex(shortIndices, i2);
+						putIndex(shortIndices, i3);
+						putIndex(shortIndices, i0);
+					}
+				}
+			}
+		}
+		indices.flip();
+
+		drawCounts = BufferUtilities.createIntBuffer(tileCount);
+		drawOffsets = PointerBuffer.allocateDirect(tileCount);
+	}
+
+	private void putIndex(boolean shortIndices, int index) {
+		if (shortIndices) {
+			indices.putShort((short) index);
+		} else {
+			indices.putInt(index);
+		}
+	}
+
+	/**
+	 * Uploads the grid into vertex and index buffer objects.
+	 */
+	void upload() {
+		vertexArray = GL30.glGenVertexArrays();
+		GL30.glBindVertexArray(vertexArray);
+
+		vertexBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBuffer);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices, GL15.GL_STATIC_DRAW);
+
+		GL20.glEnableVertexAttribArray(VertexArrayBuffer.ATTRIB_LOCATION_VERTEX);
+		GL20.glVertexAttribPointer(VertexArrayBuffer.ATTRIB_LOCATION_VERTEX, 2, GL11.GL_FLOAT, false, VERTEX_STRIDE, 0L);
+		GL20.glEnableVertexAttribArray(VertexArrayBuffer.ATTRIB_LOCATION_TEXCOORD);
+		GL20.glVertexAttribPointer(VertexArrayBuffer.ATTRIB_LOCATION_TEXCOORD, 2, GL11.GL_FLOAT, false, VERTEX_STRIDE, 2L * Float.BYTES);
+
+		indexBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+
+		GL30.glBindVertexArray(0);
+	}
+
+	/**
+	 * Draws the whole grid as triangle patches.
+	 */
+	void render() {
+		GL30.glBindVertexArray(vertexArray);
+		GL40.glPatchParameteri(GL40.GL_PATCH_VERTICES, 3);
+		GL11.glDrawElements(GL40.GL_PATCHES, indexCount, indexType, 0L);
+		GL30.glBindVertexArray(0);
+	}
+
+	/**
+	 * Culls all tiles against the given frustum and remembers the visible
+	 * ones for {@link #renderVisible()}.
+	 * <br>
+	 * The surface shaders double the x-z plane of the grid and displace<br>
+	 * every vertex afterwards, so the tile bounds are transformed and grown<br>
+	 * by the given displacement bounds before testing them.
+	 *
+	 * @param frustum Model space view frustum.
+	 * @param horizontal Maximum horizontal displacement.
+	 * @param vertical Maximum vertical displacement.
+	 * @return Number of visible tiles.
+	 */
+	int cull(OceanFrustum frustum, float horizontal, float vertical) {
+		drawCounts.clear();
+		drawOffsets.clear();
+		for (int tile = 0; tile < tileCounts.length; tile++) {
+			int b = tile * 4;
+			if (frustum.intersects(2.0f * tileBounds[b] - horizontal, -vertical, 2.0f * tileBounds[b + 1] - horizontal,
+				2.0f * tileBounds[b + 2] + horizontal, vertical, 2.0f * tileBounds[b + 3] + horizontal)) {
+				drawCounts.put(tileCounts[tile]);
+				drawOffsets.put(tileOffsets[tile]);
+			}
+		}
+		drawCounts.flip();
+		drawOffsets.flip();
+		return drawCounts.remaining();
+	}
+
+	/**
+	 * Draws all tiles which passed the last {@link #cull} call with a single
+	 * multi draw call.
+	 */
+	void renderVisible() {
+		if (!drawCounts.hasRemaining()) {
+			return;
+		}
+		GL30.glBindVertexArray(vertexArray);
+		GL40.glPatchParameteri(GL40.GL_PATCH_VERTICES, 3);
+		GL14.glMultiDrawElements(GL40.GL_PATCHES, drawCounts, indexType, drawOffsets);
+		GL30.glBindVertexArray(0);
+	}
+
+	/**
+	 * Draws the tiles with one indirect command per tile, in tile order.
+	 * Commands with an instance count of 0 are skipped by the GPU.
+	 *
+	 * @param commandBuffer Buffer of <code>DrawElementsIndirectCommand</code>
+	 * structures.
+	 */
+	void renderIndirect(int commandBuffer) {
+		GL30.glBindVertexArray(vertexArray);
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+		GL40.glPatchParameteri(GL40.GL_PATCH_VERTICES, 3);
+		GL43.glMultiDrawElementsIndirect(GL40.GL_PATCHES, indexType, 0L, tileCounts.length, 0);
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, 0);
+		GL30.glBindVertexArray(0);
+	}
+
+	/**
+	 * Deletes all buffer objects.
+	 */
+	void dispose() {
+		if (vertexArray != 0) {
+			GL30.glDeleteVertexArrays(vertexArray);
+			GL15.glDeleteBuffers(vertexBuffer);
+			GL15.glDeleteBuffers(indexBuffer);
+			vertexArray = vertexBuffer = indexBuffer = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of quads per side.
+	 *
+	 * @return Grid size.
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of tiles.
+	 *
+	 * @return Tile count.
+	 */
+	int getTileCount() {
+		return tileCounts.length;
+	}
+
+	/**
+	 * Returns the number of tiles per side.
+	 *
+	 * @return Tiles per side.
+	 */
+	int getTilesPerSide() {
+		return tiles;
+	}
+
+	/**
+	 * Returns the number of quads per tile side.
+	 *
+	 * @return Tile size.
+	 */
+	int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Returns the grid space bounds (min x, min z, max x, max z) of the
+	 * given tile.
+	 *
+	 * @param tile Tile index.
+	 * @param component Bound component between 0 and 3.
+	 * @return Bound.
+	 */
+	float getTileBound(int tile, int component) {
+		return tileBounds[tile * 4 + component];
+	}
+
+	/**
+	 * Returns the index count of the given tile.
+	 *
+	 * @param tile Tile index.
+	 * @return Index count.
+	 */
+	int getTileIndexCount(int tile) {
+		return tileCounts[tile];
+	}
+
+	/**
+	 * Returns the first index of the given tile.
+	 *
+	 * @param tile Tile index.
+	 * @return First index, in indices rather than bytes.
+	 */
+	int getTileFirstIndex(int tile) {
+		return (int) (tileOffsets[tile] / (indexType == GL11.GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES));
+	}
+
+	/**
+	 * Returns the number of shared vertices.
+	 *
+	 * @return Vertex count.
+	 */
+	int getVertexCount() {
+		return (size + 1) * (size + 1);
+	}
+
+	/**
+	 * Returns the number of indices.
+	 *
+	 * @return Index count.
+	 */
+	int getIndexCount() {
+		return indexCount;
+	}
+
+	/**
+	 * Returns the number of bytes held by the vertex and index buffers.
+	 *
+	 * @return Size in bytes.
+	 */
+	long getSizeInBytes() {
+		return (long) vertices.capacity() * Float.BYTES + indices.capacity();
+	}
+}
@@ -0,0 +1,255 @@
+package org.ice.scene.ocean;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Rolling per-stage statistics of a single ocean.
+ * <br>
+ * GPU stage times are measured with timestamp queries and arrive a few
+ * frames after they were recorded. Whenever all stages of a frame are
+ * available, they are added to the statistics and all listeners are
+ * notified. Values are identified by name:
+ * <ul>
+ * <li>{@link #SPECTRUM}, {@link #NORMALS}, {@link #SURFACE} and
+ * <code>fft.N</code> for every fourier pass N, in milliseconds</li>
+ * <li>{@link #FFT} and {@link #TOTAL}, the sums of all fourier passes and of
+ * all stages of a frame, in milliseconds</li>
+ * <li>{@link #VISIBLE_TILES}, the number of tiles drawn per frame</li>
+ * <li>{@link #STAGING_POOLED} and {@link #STAGING_HIT_RATE}, the occupancy
+ * of the staging buffer pool after every table upload</li>
+ * <li>{@link #GPU_MEMORY}, the GPU memory of the ocean in bytes after every
+ * pipeline or geometry change</li>
+ * </ul>
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public class OceanMetrics {
+
+	/**
+	 * Spectrum displacement stage.
+	 */
+	public static final String SPECTRUM = "spectrum";
+	/**
+	 * Prefix of the fourier pass stages.
+	 */
+	public static final String FFT_PASS = "fft.";
+	/**
+	 * Sum of all fourier passes.
+	 */
+	public static final String FFT = "fft";
+	/**
+	 * Normals and folding stage.
+	 */
+	public static final String NORMALS = "normals";
+	/**
+	 * Surface draw stage.
+	 */
+	public static final String SURFACE = "surface";
+	/**
+	 * Sum of all GPU stages of a frame.
+	 */
+	public static final String TOTAL = "total";
+	/**
+	 * Number of visible tiles.
+	 */
+	public static final String VISIBLE_TILES = "tiles.visible";
+	/**
+	 * Bytes held by the staging buffer pool.
+	 */
+	public static final String STAGING_POOLED = "staging.pooled";
+	/**
+	 * Fraction of staging buffers served from the pool.
+	 */
+	public static final String STAGING_HIT_RATE = "staging.hitrate";
+	/**
+	 * GPU memory of the ocean in bytes.
+	 */
+	public static final String GPU_MEMORY = "memory.gpu";
+	/**
+	 * Number of allocated wake tiles.
+	 */
+	public static final String WAKE_TILES = "wake.tiles";
+	/**
+	 * Number of wake tiles uploaded in a frame.
+	 */
+	public static final String WAKE_UPLOADS = "wake.uploads";
+
+	/**
+	 * Stage names of the first fourier passes, built once so the passes
+	 * concatenate no strings per frame. 64 covers both directions of the
+	 * largest radix 2 spectrum.
+	 */
+	private static final String[] FFT_PASS_NAMES = new String[64];
+
+	static {
+		for (int i = 0; i < FFT_PASS_NAMES.length; i++) {
+			FFT_PASS_NAMES[i] = FFT_PASS + i;
+		}
+	}
+
+	/**
+	 * Listener which is notified whenever the measurements of a frame are
+	 * complete.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after the measurements of a frame have been added.
+		 *
+		 * @param ocean Measured ocean.
+		 * @param metrics Ocean metrics.
+		 */
+		void metricsUpdated(Ocean ocean, OceanMetrics metrics);
+	}
+
+	/**
+	 * Measured ocean.
+	 */
+	private final Ocean ocean;
+	/**
+	 * Number of samples kept per value.
+	 */
+	private final int window;
+	/**
+	 * Statistics by name, in insertion order.
+	 */
+	private final Map<String, RollingStatistics> statistics = Collections.synchronizedMap(new LinkedHashMap<>());
+	/**
+	 * Registered listeners.
+	 */
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Sums of the frame which is currently being committed.
+	 */
+	private double frameTotal, frameFFT;
+
+	/**
+	 * Creates new metrics.
+	 *
+	 * @param ocean Measured ocean.
+	 * @param window Number of samples kept per value.
+	 */
+	OceanMetrics(Ocean ocean, int window) {
+		this.ocean = ocean;
+		this.window = window;
+	}
+
+	/**
+	 * Records a single sample.
+	 *
+	 * @param name Value name.
+	 * @param value Sample.
+	 */
+	void record(String name, double value) {
+		RollingStatistics s = statistics.get(name);
+		if (s == null) {
+			s = new RollingStatistics(window);
+			statistics.put(name, s);
+		}
+		s.add(value);
+	}
+
+	/**
+	 * Records the duration of a GPU stage of the frame which is currently
+	 * being committed.
+	 *
+	 * @param stage Stage name.
+	 * @param millis Duration in milliseconds.
+	 */
+	void recordStage(String stage, double millis) {
+		record(stage, millis);
+		frameTotal += millis;
+		if (stage.startsWith(FFT_PASS)) {
+			frameFFT += millis;
+		}
+	}
+
+	/**
+	 * Returns the stage name of the given fourier pass.
+	 *
+	 * @param pass Pass index.
+	 * @return Stage name, {@link #FFT_PASS} followed by the index.
+	 */
+	static String fftPass(int pass) {
+		return pass < FFT_PASS_NAMES.length ? FFT_PASS_NAMES[pass] : FFT_PASS + pass;
+	}
+
+	/**
+	 * Records the sums of the current frame and notifies all listeners.
+	 */
+	void commitFrame() {
+		record(FFT, frameFFT);
+		record(TOTAL, frameTotal);
+		frameTotal = 0.0;
+		frameFFT = 0.0;
+
+		for (Listener listener : listeners) {
+			listener.metricsUpdated(ocean, this);
+		}
+	}
+
+	/**
+	 * Returns the statistics of the given value.
+	 *
+	 * @param name Value name.
+	 * @return Statistics or null if nothing has been recorded yet.
+	 */
+	public RollingStatistics getStatistics(String name) {
+		return statistics.get(name);
+	}
+
+	/**
+	 * Returns the names of all recorded values.
+	 *
+	 * @return Value names.
+	 */
+	public Set<String> getNames() {
+		synchronized (statistics) {
+			return Collections.unmodifiableSet(new LinkedHashSet<>(statistics.keySet()));
+		}
+	}
+
+	/**
+	 * Adds a listener.
+	 *
+	 * @param listener Listener.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param listener Listener.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void clear() {
+		statistics.clear();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("OceanMetrics[");
+		synchronized (statistics) {
+			for (Map.Entry<String, RollingStatistics> entry : statistics.entrySet()) {
+				sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+			}
+		}
+		return sb.append("\n]").toString();
+	}
+}
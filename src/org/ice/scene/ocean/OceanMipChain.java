@@ -0,0 +1,219 @@
+package org.ice.scene.ocean;
+
+import org.ice.platform.texture.Texture2D;
+import org.ice.shader.ComputeShader;
+import org.ice.shader.ShaderProgram;
+import org.ice.shader.parameter.IntParameter;
+import org.lwjgl.opengl.EXTTextureFilterAnisotropic;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * Mip chains of the displacement and the normals and folding map.
+ * <br>
+ * Both maps are rewritten every frame, so the levels are rebuilt right
+ * after the normals pass. The chains live in textures of their own with
+ * immutable storage, since the levels of the engine textures can not be
+ * redefined safely. The first level is copied from the maps, every
+ * further level averages 2x2 texels of the previous one by a compute
+ * downsample, the normals are renormalized. The chain
+ * stops once the shorter side reaches the size of a single work group,
+ * which is the level distant surfaces end up sampling. Odd sides of
+ * rectangular maps round down like the OpenGL level sizes.
+ * <br>
+ * The surface samples the chains trilinearly and, if the driver supports
+ * it, anisotropically, from the units {@link #DISPLACEMENT_UNIT} and
+ * {@link #NORMALS_FOLDING_UNIT} which {@link #bind()} sets.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanMipChain {
+
+	/**
+	 * Size of the smallest level.
+	 */
+	private static final int MIN_SIZE = 8;
+	/**
+	 * Texture units of the chains, above the units of the surface samplers
+	 * and below {@link OceanPatchCulling#LEVELS_UNIT}.
+	 */
+	static final int DISPLACEMENT_UNIT = 13, NORMALS_FOLDING_UNIT = 14;
+
+	/**
+	 * Maps the first level is copied from.
+	 */
+	private final Texture2D displacementMap, normalsFoldingMap;
+	/**
+	 * Texture names of the displacement and the normals and folding chain,
+	 * 0 once disposed.
+	 */
+	private int displacement, normalsFolding;
+	/**
+	 * Width and height of the first level and number of levels.
+	 */
+	private final int width, height, levels;
+	/**
+	 * Internal format of both maps.
+	 */
+	private final int format;
+	private final int channelBytes;
+
+	/**
+	 * Allocates the chains of both maps.
+	 *
+	 * @param displacement Displacement map.
+	 * @param normalsFolding Normals and folding map.
+	 * @param width Width of both maps.
+	 * @param height Height of both maps.
+	 * @param precision Storage precision of both maps.
+	 * @param anisotropy Largest anisotropy, 1 disables anisotropic
+	 * filtering.
+	 */
+	OceanMipChain(Texture2D displacement, Texture2D normalsFolding, int width, int height, OceanPrecision precision, float anisotropy) {
+		this.width = width;
+		this.height = height;
+		this.levels = levels(Math.min(width, height));
+		this.format = precision == OceanPrecision.HALF ? GL30.GL_RGBA16F : GL30.GL_RGBA32F;
+		this.channelBytes = precision.getChannelBytes();
+		this.displacementMap = displacement;
+		this.normalsFoldingMap = normalsFolding;
+		//Like the maps, the displacement is magnified by nearest and the normals by bilinear filtering
+		this.displacement = allocate(GL11.GL_NEAREST, anisotropy);
+		this.normalsFolding = allocate(GL11.GL_LINEAR, anisotropy);
+	}
+
+	/**
+	 * Returns the number of levels of a map of the given size, including
+	 * the first one.
+	 *
+	 * @param size Map size, the shorter side of rectangular maps.
+	 * @return Number of levels.
+	 */
+	static int levels(int size) {
+		int count = 1;
+		while (size > MIN_SIZE) {
+			size /= 2;
+			count++;
+		}
+		return count;
+	}
+
+	private int allocate(int magFilter, float anisotropy) {
+		int texture = GL11.glGenTextures();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+		GL42.glTexStorage2D(GL11.GL_TEXTURE_2D, levels, format, width, height);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_BASE_LEVEL, 0);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, levels - 1);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, magFilter);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
+		if (anisotropy > 1.0f && GL.getCapabilities().GL_EXT_texture_filter_anisotropic) {
+			float supported = GL11.glGetFloat(EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
+			GL11.glTexParameterf(GL11.GL_TEXTURE_2D, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Math.min(anisotropy, supported));
+		}
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		return texture;
+	}
+
+	/**
+	 * Copies both maps into the first levels and rebuilds all further
+	 * levels. Has to be called after the normals pass, the levels are ready
+	 * for sampling afterwards.
+	 *
+	 * @param shader Downsample program.
+	 */
+	void generate(ShaderProgram shader) {
+		//The maps are written as images, the copy reads them as textures
+		GL42.glMemoryBarrier(GL42.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT | GL42.GL_TEXTURE_UPDATE_BARRIER_BIT);
+		GL43.glCopyImageSubData(displacementMap.getTextureID(), GL11.GL_TEXTURE_2D, 0, 0, 0, 0, displacement, GL11.GL_TEXTURE_2D, 0, 0, 0, 0,
+			width, height, 1);
+		GL43.glCopyImageSubData(normalsFoldingMap.getTextureID(), GL11.GL_TEXTURE_2D, 0, 0, 0, 0, normalsFolding, GL11.GL_TEXTURE_2D, 0, 0, 0, 0,
+			width, height, 1);
+		for (int level = 1; level < levels; level++) {
+			int targetWidth = width >> level, targetHeight = height >> level;
+			for (ComputeShader compute : shader.getShadersOfType(ComputeShader.class)) {
+				compute.setWorkGroupsX((targetWidth + 7) / 8);
+				compute.setWorkGroupsY((targetHeight + 7) / 8);
+			}
+			shader.getParameters().clear();
+			shader.getParameters().add(new IntParameter("m_TargetWidth", targetWidth));
+			shader.getParameters().add(new IntParameter("m_TargetHeight", targetHeight));
+
+			//The units match the bindings of Downsample.comp
+			GL42.glBindImageTexture(0, displacement, level - 1, false, 0, GL15.GL_READ_ONLY, format);
+			GL42.glBindImageTexture(1, displacement, level, false, 0, GL15.GL_WRITE_ONLY, format);
+			GL42.glBindImageTexture(2, normalsFolding, level - 1, false, 0, GL15.GL_READ_ONLY, format);
+			GL42.glBindImageTexture(3, normalsFolding, level, false, 0, GL15.GL_WRITE_ONLY, format);
+
+			shader.use();
+			shader.unuse();
+			GL42.glMemoryBarrier(GL42.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+		}
+		GL42.glMemoryBarrier(GL42.GL_TEXTURE_FETCH_BARRIER_BIT);
+	}
+
+	/**
+	 * Binds the chains to {@link #DISPLACEMENT_UNIT} and
+	 * {@link #NORMALS_FOLDING_UNIT} for the draw.
+	 */
+	void bind() {
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + DISPLACEMENT_UNIT);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, displacement);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + NORMALS_FOLDING_UNIT);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, normalsFolding);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+	}
+
+	/**
+	 * Unbinds the chains after the draw.
+	 */
+	void unbind() {
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + DISPLACEMENT_UNIT);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + NORMALS_FOLDING_UNIT);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+	}
+
+	/**
+	 * Deletes both chains.
+	 */
+	void dispose() {
+		if (displacement != 0) {
+			GL11.glDeleteTextures(displacement);
+			GL11.glDeleteTextures(normalsFolding);
+			displacement = normalsFolding = 0;
+		}
+	}
+
+	/**
+	 * Returns the GPU memory of all levels of both chains, including the
+	 * copies of the first level.
+	 *
+	 * @return GPU memory in bytes.
+	 */
+	long getSizeInBytes() {
+		long bytes = 0;
+		for (int level = 0; level < levels; level++) {
+			bytes += (long) (width >> level) * (height >> level) * 4 * channelBytes;
+		}
+		return 2 * bytes;
+	}
+
+	/**
+	 * Returns the number of levels, including the first one.
+	 *
+	 * @return Number of levels.
+	 */
+	int getLevels() {
+		return levels;
+	}
+}
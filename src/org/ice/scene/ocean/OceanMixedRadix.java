@@ -0,0 +1,261 @@
+package org.ice.scene.ocean;
+
+/**
+ * Mixed radix plan of the fourier transformation along one axis, used for
+ * rectangular and non power of two tables.
+ * <br>
+ * The length is split into radix 4, 2, 3 and 5 passes of a Stockham auto
+ * sort transformation, so neither a bit reversal nor an index table is
+ * needed. Pass <code>p</code> has a radix <code>R</code> and a stride
+ * <code>Ns</code>, the product of all previous radices. Invocation
+ * <code>j &lt; N / R</code> reads the elements
+ * <code>j + r * N / R</code>, multiplies them by the twiddles
+ * <code>e^(-2 pi i r (j % Ns) / (Ns R))</code>, transforms them with a
+ * small DFT of size <code>R</code> and writes them to
+ * <code>(j / Ns) * Ns * R + j % Ns + r * Ns</code>. The small DFTs are
+ * written out per radix and share their sums and differences, so a radix 4
+ * pass needs no multiplications beyond the twiddles.
+ * <br>
+ * MixedRadixFFT.comp runs the same passes, {@link OceanReference} mirrors
+ * them on the CPU. A plan reuses its scratch values and must only be used
+ * by one thread at a time.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final strictfp class OceanMixedRadix {
+
+	/**
+	 * Largest radix of a single pass.
+	 */
+	static final int MAX_RADIX = 5;
+
+	/**
+	 * Transformation length.
+	 */
+	private final int length;
+	/**
+	 * Radix and stride per pass.
+	 */
+	private final int[] radices, strides;
+	/**
+	 * Per pass: interleaved twiddles, <code>R</code> per
+	 * <code>j % Ns</code>.
+	 */
+	private final double[][] twiddles;
+	/**
+	 * Cosines and sines of the radix 3 and 5 DFTs.
+	 */
+	private final double sin3, cos5a, cos5b, sin5a, sin5b;
+	/**
+	 * Twiddled inputs of the current invocation.
+	 */
+	private final double[] values = new double[2 * MAX_RADIX];
+
+	/**
+	 * Creates the plan for the given length.
+	 *
+	 * @param length Transformation length, see {@link #isSupported(int)}.
+	 * @param single If the twiddles are rounded to single precision like
+	 * the compute shader calculates them.
+	 */
+	OceanMixedRadix(int length, boolean single) {
+		if (!isSupported(length)) {
+			throw new IllegalArgumentException("The length must be a multiple of 8 with no prime factors other than 2, 3 and 5!");
+		}
+		this.length = length;
+
+		int count = 0;
+		int[] factors = new int[32];
+		int rest = length;
+		while (rest % 4 == 0) {
+			factors[count++] = 4;
+			rest /= 4;
+		}
+		for (int radix = 2; radix <= MAX_RADIX; radix++) {
+			while (rest % radix == 0) {
+				factors[count++] = radix;
+				rest /= radix;
+			}
+		}
+
+		radices = new int[count];
+		strides = new int[count];
+		twiddles = new double[count][];
+		int stride = 1;
+		for (int pass = 0; pass < count; pass++) {
+			int radix = factors[pass];
+			radices[pass] = radix;
+			strides[pass] = stride;
+
+			twiddles[pass] = new double[2 * stride * radix];
+			for (int k = 0; k < stride; k++) {
+				for (int r = 0; r < radix; r++) {
+					double angle = -2.0 * StrictMath.PI * r * k / (stride * radix);
+					twiddles[pass][2 * (k * radix + r)] = round(StrictMath.cos(angle), single);
+					twiddles[pass][2 * (k * radix + r) + 1] = round(StrictMath.sin(angle), single);
+				}
+			}
+			stride *= radix;
+		}
+		sin3 = round(StrictMath.sin(2.0 * StrictMath.PI / 3.0), single);
+		cos5a = round(StrictMath.cos(2.0 * StrictMath.PI / 5.0), single);
+		cos5b = round(StrictMath.cos(4.0 * StrictMath.PI / 5.0), single);
+		sin5a = round(StrictMath.sin(2.0 * StrictMath.PI / 5.0), single);
+		sin5b = round(StrictMath.sin(4.0 * StrictMath.PI / 5.0), single);
+	}
+
+	private static double round(double value, boolean single) {
+		return single ? (float) value : value;
+	}
+
+	/**
+	 * Returns if the given length can be transformed. Supported lengths are
+	 * multiples of 8, so they are tiled by the 8x8 work groups, with no
+	 * prime factors other than 2, 3 and 5.
+	 *
+	 * @param length Transformation length.
+	 * @return True if the length is supported.
+	 */
+	static boolean isSupported(int length) {
+		if (length < 8 || length % 8 != 0) {
+			return false;
+		}
+		for (int radix = 2; radix <= MAX_RADIX; radix++) {
+			while (length % radix == 0) {
+				length /= radix;
+			}
+		}
+		return length == 1;
+	}
+
+	/**
+	 * Transforms the elements of one invocation.
+	 *
+	 * @param pass Pass index.
+	 * @param j Invocation index, smaller than <code>N / R</code>.
+	 * @param source Interleaved complex source values.
+	 * @param offset Index of the first element of the line.
+	 * @param step Index distance between two elements of the line.
+	 * @param result Target of the <code>R</code> interleaved outputs, see
+	 * {@link #target(int, int, int)}.
+	 */
+	void butterfly(int pass, int j, double[] source, int offset, int step, double[] result) {
+		int radix = radices[pass];
+		int k = j % strides[pass];
+		double[] twiddle = twiddles[pass];
+		double[] v = values;
+		for (int r = 0; r < radix; r++) {
+			int index = 2 * (offset + (j + r * length / radix) * step);
+			double wr = twiddle[2 * (k * radix + r)], wi = twiddle[2 * (k * radix + r) + 1];
+			v[2 * r] = source[index] * wr - source[index + 1] * wi;
+			v[2 * r + 1] = source[index] * wi + source[index + 1] * wr;
+		}
+
+		//Forward DFTs, -i * (x + iy) = y - ix
+		switch (radix) {
+			case 2:
+				result[0] = v[0] + v[2];
+				result[1] = v[1] + v[3];
+				result[2] = v[0] - v[2];
+				result[3] = v[1] - v[3];
+				break;
+			case 3: {
+				double tr = v[2] + v[4], ti = v[3] + v[5];
+				double mr = v[0] - 0.5 * tr, mi = v[1] - 0.5 * ti;
+				double ur = sin3 * (v[3] - v[5]), ui = -sin3 * (v[2] - v[4]);
+				result[0] = v[0] + tr;
+				result[1] = v[1] + ti;
+				result[2] = mr + ur;
+				result[3] = mi + ui;
+				result[4] = mr - ur;
+				result[5] = mi - ui;
+				break;
+			}
+			case 4: {
+				double t0r = v[0] + v[4], t0i = v[1] + v[5], t1r = v[0] - v[4], t1i = v[1] - v[5];
+				double t2r = v[2] + v[6], t2i = v[3] + v[7], t3r = v[2] - v[6], t3i = v[3] - v[7];
+				result[0] = t0r + t2r;
+				result[1] = t0i + t2i;
+				result[2] = t1r + t3i;
+				result[3] = t1i - t3r;
+				result[4] = t0r - t2r;
+				result[5] = t0i - t2i;
+				result[6] = t1r - t3i;
+				result[7] = t1i + t3r;
+				break;
+			}
+			default: {
+				double t1r = v[2] + v[8], t1i = v[3] + v[9], t2r = v[4] + v[6], t2i = v[5] + v[7];
+				double t3r = v[2] - v[8], t3i = v[3] - v[9], t4r = v[4] - v[6], t4i = v[5] - v[7];
+				double b1r = v[0] + cos5a * t1r + cos5b * t2r, b1i = v[1] + cos5a * t1i + cos5b * t2i;
+				double b2r = v[0] + cos5b * t1r + cos5a * t2r, b2i = v[1] + cos5b * t1i + cos5a * t2i;
+				double c1r = sin5a * t3r + sin5b * t4r, c1i = sin5a * t3i + sin5b * t4i;
+				double c2r = sin5b * t3r - sin5a * t4r, c2i = sin5b * t3i - sin5a * t4i;
+				result[0] = v[0] + t1r + t2r;
+				result[1] = v[1] + t1i + t2i;
+				result[2] = b1r + c1i;
+				result[3] = b1i - c1r;
+				result[4] = b2r + c2i;
+				result[5] = b2i - c2r;
+				result[6] = b2r - c2i;
+				result[7] = b2i + c2r;
+				result[8] = b1r - c1i;
+				result[9] = b1i + c1r;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position along the line output <code>r</code> of
+	 * invocation <code>j</code> is written to.
+	 *
+	 * @param pass Pass index.
+	 * @param j Invocation index.
+	 * @param r Output index.
+	 * @return Target position.
+	 */
+	int target(int pass, int j, int r) {
+		int stride = strides[pass];
+		return (j / stride) * stride * radices[pass] + j % stride + r * stride;
+	}
+
+	/**
+	 * Returns the transformation length.
+	 *
+	 * @return Length.
+	 */
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of passes.
+	 *
+	 * @return Passes.
+	 */
+	int getPasses() {
+		return radices.length;
+	}
+
+	/**
+	 * Returns the radix of the given pass.
+	 *
+	 * @param pass Pass index.
+	 * @return Radix.
+	 */
+	int getRadix(int pass) {
+		return radices[pass];
+	}
+
+	/**
+	 * Returns the stride of the given pass.
+	 *
+	 * @param pass Pass index.
+	 * @return Stride.
+	 */
+	int getStride(int pass) {
+		return strides[pass];
+	}
+}
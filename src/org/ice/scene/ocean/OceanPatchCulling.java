@@ -0,0 +1,239 @@
+package org.ice.scene.ocean;
+
+import java.nio.IntBuffer;
+import org.ice.math.Matrix4f;
+import org.ice.math.Vector2f;
+import org.ice.math.Vector3f;
+import org.ice.shader.ComputeShader;
+import org.ice.shader.ShaderProgram;
+import org.ice.shader.parameter.FloatParameter;
+import org.ice.shader.parameter.IntParameter;
+import org.ice.shader.parameter.Mat4Parameter;
+import org.ice.shader.parameter.Vec2Parameter;
+import org.ice.shader.parameter.Vec3Parameter;
+import org.ice.util.BufferUtilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * GPU culling and screen space error level of detail of the grid tiles.
+ * <br>
+ * A compute pre-pass, PatchCulling.comp, tests every tile of the
+ * {@link OceanGrid} against the view frustum after growing its box by the
+ * displacement bounds, like {@link OceanGrid#cull}. A visible tile gets
+ * the lowest tessellation level whose screen space error stays below the
+ * pixel error. The error of a segment is its length, but never more than
+ * the vertical displacement bound, so calm or distant tiles stay at the
+ * minimum level. The pass writes one indirect draw command per tile, with
+ * an instance count of 0 for hidden tiles, and the level of every tile,
+ * which Water.tcs looks up by the tile an edge midpoint lies in. The
+ * surface reads the levels through a buffer texture, so Water.tcs stays a
+ * GL 4.0 shader without storage blocks and also serves the fragment FFT
+ * fallback. Both
+ * triangles of a shared edge pick the same tile, so the surface stays
+ * crack free across tile borders.
+ * <br>
+ * Nothing is read back, the surface is drawn with a single indirect multi
+ * draw call.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanPatchCulling {
+
+	/**
+	 * Invocations per work group, see PatchCulling.comp.
+	 */
+	private static final int LOCAL_SIZE = 64;
+	/**
+	 * Storage buffer bindings of the tiles, the commands and the levels,
+	 * see PatchCulling.comp.
+	 */
+	private static final int TILES_BINDING = 0, COMMANDS_BINDING = 1, LEVELS_BINDING = 2;
+	/**
+	 * Integers per tile, <code>(min x, min z, max x, max z)</code> as float
+	 * bits followed by the index count, the first index and two pads.
+	 */
+	private static final int TILE_INTS = 8;
+	/**
+	 * Integers per <code>DrawElementsIndirectCommand</code>.
+	 */
+	private static final int COMMAND_INTS = 5;
+	/**
+	 * Texture unit of the level buffer texture, above the units of the
+	 * surface samplers and within the 16 units every GL 4.0 stage has.
+	 */
+	static final int LEVELS_UNIT = 15;
+
+	/**
+	 * Number of tiles, tiles per side and grid space size of a full tile.
+	 */
+	private final int tiles, tilesPerSide;
+	private final float tileExtent;
+	/**
+	 * Grid space distance between two neighbouring vertices.
+	 */
+	private final float spacing;
+	/**
+	 * Viewport query target.
+	 */
+	private final int[] viewport = new int[4];
+
+	/**
+	 * OpenGL buffer names and the buffer texture over the levels.
+	 */
+	private int tileBuffer, commandBuffer, levelBuffer;
+	private int levelTexture;
+
+	/**
+	 * Uploads the tiles of the given grid and allocates the command and
+	 * level buffers.
+	 *
+	 * @param grid Uploaded grid.
+	 * @param spacing Distance between two neighbouring vertices.
+	 */
+	OceanPatchCulling(OceanGrid grid, float spacing) {
+		this.tiles = grid.getTileCount();
+		this.tilesPerSide = grid.getTilesPerSide();
+		this.tileExtent = grid.getTileSize() * spacing;
+		this.spacing = spacing;
+
+		IntBuffer data = BufferUtilities.createIntBuffer(tiles * TILE_INTS);
+		for (int tile = 0; tile < tiles; tile++) {
+			for (int component = 0; component < 4; component++) {
+				data.put(Float.floatToRawIntBits(grid.getTileBound(tile, component)));
+			}
+			data.put(grid.getTileIndexCount(tile));
+			data.put(grid.getTileFirstIndex(tile));
+			data.put(0);
+			data.put(0);
+		}
+		data.flip();
+
+		tileBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, tileBuffer);
+		GL15.glBufferData(GL43.GL_SHADER_STORAGE_BUFFER, data, GL15.GL_STATIC_DRAW);
+
+		commandBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, commandBuffer);
+		GL15.glBufferData(GL43.GL_SHADER_STORAGE_BUFFER, (long) tiles * COMMAND_INTS * Integer.BYTES, GL15.GL_DYNAMIC_DRAW);
+
+		levelBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, levelBuffer);
+		GL15.glBufferData(GL43.GL_SHADER_STORAGE_BUFFER, (long) tiles * Float.BYTES, GL15.GL_DYNAMIC_DRAW);
+		GL15.glBindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, 0);
+
+		levelTexture = GL11.glGenTextures();
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, levelTexture);
+		GL31.glTexBuffer(GL31.GL_TEXTURE_BUFFER, GL30.GL_R32F, levelBuffer);
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, 0);
+	}
+
+	/**
+	 * Culls the tiles and selects their levels. The commands and levels
+	 * are ready for {@link #render} afterwards.
+	 *
+	 * @param shader Patch culling program.
+	 * @param mvp Model view projection matrix.
+	 * @param cameraPosition Eye position in model space, like the tiles.
+	 * @param horizontal Maximum horizontal displacement.
+	 * @param vertical Maximum vertical displacement.
+	 * @param pixelError Largest screen space error in pixels.
+	 * @param minLevel Smallest tessellation level.
+	 * @param maxLevel Largest tessellation level.
+	 */
+	void cull(ShaderProgram shader, Matrix4f mvp, Vector3f cameraPosition, float horizontal, float vertical, float pixelError,
+		float minLevel, float maxLevel) {
+		GL11.glGetIntegerv(GL11.GL_VIEWPORT, viewport);
+
+		for (ComputeShader compute : shader.getShadersOfType(ComputeShader.class)) {
+			compute.setWorkGroupsX((tiles + LOCAL_SIZE - 1) / LOCAL_SIZE);
+			compute.setWorkGroupsY(1);
+		}
+		shader.getParameters().clear();
+		shader.getParameters().add(new Mat4Parameter("m_ModelViewProjectionMatrix", mvp));
+		shader.getParameters().add(new Vec3Parameter("m_CameraPosition", cameraPosition));
+		shader.getParameters().add(new Vec2Parameter("m_DisplacementBounds", new Vector2f(horizontal, vertical)));
+		shader.getParameters().add(new IntParameter("m_TileCount", tiles));
+		//The surface shaders double the x-z plane, see Water.tes
+		shader.getParameters().add(new FloatParameter("m_CellSize", 2.0f * spacing));
+		shader.getParameters().add(new FloatParameter("m_ViewportHeight", viewport[3]));
+		shader.getParameters().add(new FloatParameter("m_PixelError", pixelError));
+		shader.getParameters().add(new FloatParameter("m_MinLevel", minLevel));
+		shader.getParameters().add(new FloatParameter("m_MaxLevel", maxLevel));
+
+		GL30.glBindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, TILES_BINDING, tileBuffer);
+		GL30.glBindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, COMMANDS_BINDING, commandBuffer);
+		GL30.glBindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, LEVELS_BINDING, levelBuffer);
+
+		shader.use();
+		shader.unuse();
+		GL42.glMemoryBarrier(GL42.GL_COMMAND_BARRIER_BIT | GL42.GL_TEXTURE_FETCH_BARRIER_BIT);
+	}
+
+	/**
+	 * Draws the visible tiles of the given grid with the surface program,
+	 * which has to be in use. The levels are bound to
+	 * {@link #LEVELS_UNIT} for the draw.
+	 *
+	 * @param grid Grid the tiles were created from.
+	 */
+	void render(OceanGrid grid) {
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + LEVELS_UNIT);
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, levelTexture);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+
+		grid.renderIndirect(commandBuffer);
+
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + LEVELS_UNIT);
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, 0);
+		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+	}
+
+	/**
+	 * Deletes all buffer objects and the level texture.
+	 */
+	void dispose() {
+		if (tileBuffer != 0) {
+			GL11.glDeleteTextures(levelTexture);
+			levelTexture = 0;
+			GL15.glDeleteBuffers(tileBuffer);
+			GL15.glDeleteBuffers(commandBuffer);
+			GL15.glDeleteBuffers(levelBuffer);
+			tileBuffer = commandBuffer = levelBuffer = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of tiles per side.
+	 *
+	 * @return Tiles per side.
+	 */
+	int getTilesPerSide() {
+		return tilesPerSide;
+	}
+
+	/**
+	 * Returns the grid space size of a full tile.
+	 *
+	 * @return Tile extent.
+	 */
+	float getTileExtent() {
+		return tileExtent;
+	}
+
+	/**
+	 * Returns the number of bytes held by the tile, command and level
+	 * buffers.
+	 *
+	 * @return Size in bytes.
+	 */
+	long getSizeInBytes() {
+		return (long) tiles * (TILE_INTS + COMMAND_INTS + 1) * Integer.BYTES;
+	}
+}
@@ -0,0 +1,131 @@
+package org.ice.scene.ocean;
+
+import java.util.regex.Pattern;
+import org.ice.platform.texture.ImageData;
+
+/**
+ * Storage precision of the spectrum table and all intermediate textures of
+ * the ocean simulation.
+ * <br>
+ * The GPU always computes with 32 bit floats, the precision only decides
+ * how the values are stored between the stages. All numbers below are
+ * CPU emulation: the errors were measured with the CPU backends of
+ * {@link OceanAccuracy}, which emulate the storage rounding, against the
+ * double precision
+ * {@link OceanReference} for the default ocean at a dimension of 512,
+ * with the finite differences wrapping around the periodic field.
+ * Displacement errors are relative to the largest reference displacement.
+ * <br>
+ * <table summary="Precision modes">
+ * <tr><th>Mode</th><th>Displacement (max / RMS)</th><th>Normals (p99 / max)</th><th>Folding (max)</th><th>Memory</th></tr>
+ * <tr><td>HALF</td><td>1.5e-3 / 2.5e-4</td><td>11.6&deg; / 179&deg;</td><td>6.5e-3</td><td>1x</td></tr>
+ * <tr><td>FULL</td><td>2.2e-7 / 3.4e-8</td><td>0.0015&deg; / 0.076&deg;</td><td>7.2e-7</td><td>2x</td></tr>
+ * </table>
+ * The normals are finite differences over a single texel, so their half
+ * float error grows with the dimension, from a p99 of 1.3&deg; at 64 to
+ * the value above at 512. The largest errors are in steep, nearly folded
+ * texels.
+ * <br>
+ * The GPU stages are bound by texture bandwidth, which full precision
+ * doubles. Bytes moved per texel on the compact memory path:
+ * <br>
+ * <table summary="Traffic per stage">
+ * <tr><th>Stage</th><th>HALF</th><th>FULL</th></tr>
+ * <tr><td>Spectrum (writes)</td><td>12</td><td>24</td></tr>
+ * <tr><td>FFT, per pass (2 log2 N passes)</td><td>36</td><td>72</td></tr>
+ * <tr><td>Normals (reads and writes)</td><td>16</td><td>32</td></tr>
+ * </table>
+ * The CPU backends took per update at 512 (best of 8, one core):
+ * <br>
+ * <table summary="CPU stage timings">
+ * <tr><th>Backend</th><th>Spectrum</th><th>FFT</th><th>Normals</th></tr>
+ * <tr><td>Exact</td><td>37 ms</td><td>74 ms</td><td>8 ms</td></tr>
+ * <tr><td>FULL</td><td>43 ms</td><td>112 ms</td><td>11 ms</td></tr>
+ * <tr><td>HALF</td><td>59 ms</td><td>310 ms</td><td>20 ms</td></tr>
+ * </table>
+ * The CPU backends round in software after every stage, so half floats
+ * are slower there, unlike on the GPU where the rounding is free.
+ * <br>
+ * Not measured yet: the errors and stage times of the GPU fragment and
+ * compute paths themselves. The GPU can round differently than the
+ * emulation, e.g. flush half float subnormals. Measure them on the target
+ * hardware with {@link OceanAccuracy#measure(Ocean)} and the per stage
+ * timers of {@link OceanMetrics}.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public enum OceanPrecision {
+
+	/**
+	 * Half floats (RG16F and RGBA16F), the default.
+	 */
+	HALF(ImageData.Format.RG16F, ImageData.Format.RGBA16F, 2),
+	/**
+	 * Full floats (RG32F and RGBA32F).
+	 */
+	FULL(ImageData.Format.RG32F, ImageData.Format.RGBA32F, 4);
+
+	/**
+	 * Image format qualifiers of the shaders, which are written for half
+	 * floats.
+	 */
+	private static final Pattern HALF_QUALIFIER = Pattern.compile("\\b(rg|rgba)16f\\b");
+
+	private final ImageData.Format twoChannelFormat, fourChannelFormat;
+	private final int channelBytes;
+
+	private OceanPrecision(ImageData.Format twoChannelFormat, ImageData.Format fourChannelFormat, int channelBytes) {
+		this.twoChannelFormat = twoChannelFormat;
+		this.fourChannelFormat = fourChannelFormat;
+		this.channelBytes = channelBytes;
+	}
+
+	/**
+	 * Returns the format of complex textures.
+	 *
+	 * @return Two channel format.
+	 */
+	public ImageData.Format getTwoChannelFormat() {
+		return twoChannelFormat;
+	}
+
+	/**
+	 * Returns the format of packed and displacement textures.
+	 *
+	 * @return Four channel format.
+	 */
+	public ImageData.Format getFourChannelFormat() {
+		return fourChannelFormat;
+	}
+
+	/**
+	 * Returns the number of bytes per channel.
+	 *
+	 * @return Bytes per channel.
+	 */
+	public int getChannelBytes() {
+		return channelBytes;
+	}
+
+	/**
+	 * Rounds the given value the way a texture of this precision stores it.
+	 *
+	 * @param value Value.
+	 * @return Stored value.
+	 */
+	public double store(double value) {
+		return this == HALF ? HalfFloat.toFloat(HalfFloat.toHalf((float) value)) : (float) value;
+	}
+
+	/**
+	 * Rewrites the image format qualifiers of the given compute shader
+	 * source for this precision.
+	 *
+	 * @param source Shader source written for half floats.
+	 * @return Shader source.
+	 */
+	String qualify(String source) {
+		return this == HALF ? source : HALF_QUALIFIER.matcher(source).replaceAll("$132f");
+	}
+}
@@ -0,0 +1,332 @@
+package org.ice.scene.ocean;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ice.scene.lod.TessellationLevelOfDetail;
+import org.ice.util.LoggerFactory;
+
+/**
+ * Adapts the spectrum quality and the tessellation level of detail of an
+ * ocean to a GPU time budget.
+ * <br>
+ * The governor listens to the GPU measurements of the ocean and walks up
+ * or down a ladder of quality steps. Every step consists of a spectrum
+ * dimension and a tessellation factor which scales the maximum detail
+ * level and the change distance the ocean had when the governor was
+ * created.
+ * <br>
+ * Transitions use hysteresis: a step down happens after the frame time
+ * exceeded the budget for a number of consecutive frames, a step up only
+ * after it stayed clearly below the budget for a longer time. After every
+ * transition the governor waits until the new configuration has been
+ * measured. If a step up has to be reverted soon after, the time required
+ * to try that step again is doubled, so the governor never thrashes
+ * between two steps. Resources are only reallocated on a transition.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public class OceanQualityGovernor implements OceanMetrics.Listener {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(OceanQualityGovernor.class);
+	/**
+	 * Default spectrum dimensions of the quality ladder, lowest first.
+	 */
+	private static final int[] DEFAULT_DIMENSIONS = {64, 128, 256, 512, 1024};
+	/**
+	 * Default tessellation factors of the quality ladder, lowest first.
+	 */
+	private static final float[] DEFAULT_TESSELLATION = {0.25f, 0.5f, 0.75f, 1.0f, 1.0f};
+
+	/**
+	 * Governed ocean.
+	 */
+	private final Ocean ocean;
+	/**
+	 * Spectrum dimension per step.
+	 */
+	private final int[] dimensions;
+	/**
+	 * Tessellation factor per step.
+	 */
+	private final float[] tessellation;
+	/**
+	 * Number of frames an upgrade of a step has to wait, doubled whenever
+	 * an upgrade to the next step had to be reverted.
+	 */
+	private final int[] upgradeFrames;
+	/**
+	 * Level of detail values at creation time.
+	 */
+	private final float baseMinDetail, baseMaxDetail, baseChangeDistance;
+
+	/**
+	 * GPU time budget in milliseconds.
+	 */
+	private float budget;
+	/**
+	 * Fraction of the budget the frame time has to stay below for an
+	 * upgrade.
+	 */
+	private float upgradeThreshold = 0.7f;
+	/**
+	 * Consecutive over-budget frames which trigger a downgrade.
+	 */
+	private int downgradeFrames = 30;
+	/**
+	 * Frames ignored after a transition.
+	 */
+	private int settleFrames = 30;
+
+	/**
+	 * Current step.
+	 */
+	private int step;
+	/**
+	 * Consecutive frames above the budget and below the upgrade threshold.
+	 */
+	private int overBudget, underBudget;
+	/**
+	 * Remaining frames to ignore.
+	 */
+	private int settling;
+	/**
+	 * Frames since the last upgrade, or -1 if the last transition was not
+	 * an upgrade.
+	 */
+	private int sinceUpgrade = -1;
+	/**
+	 * Number of transitions.
+	 */
+	private int transitions;
+
+	/**
+	 * Creates a new governor with the default quality ladder from 64 to
+	 * 1024.
+	 *
+	 * @param ocean Governed ocean.
+	 * @param budget GPU time budget in milliseconds.
+	 */
+	public OceanQualityGovernor(Ocean ocean, float budget) {
+		this(ocean, budget, DEFAULT_DIMENSIONS, DEFAULT_TESSELLATION);
+	}
+
+	/**
+	 * Creates a new governor.
+	 *
+	 * @param ocean Governed ocean.
+	 * @param budget GPU time budget in milliseconds.
+	 * @param dimensions Spectrum dimension per step, lowest first.
+	 * @param tessellation Tessellation factor per step, lowest first.
+	 */
+	public OceanQualityGovernor(Ocean ocean, float budget, int[] dimensions, float[] tessellation) {
+		if (dimensions.length == 0 || dimensions.length != tessellation.length) {
+			throw new IllegalArgumentException("Every quality step needs a dimension and a tessellation factor!");
+		}
+		for (int i = 1; i < dimensions.length; i++) {
+			if (dimensions[i] < dimensions[i - 1] || tessellation[i] < tessellation[i - 1]) {
+				throw new IllegalArgumentException("The quality steps must be ordered from lowest to highest!");
+			}
+		}
+		this.ocean = ocean;
+		this.dimensions = dimensions.clone();
+		this.tessellation = tessellation.clone();
+		this.upgradeFrames = new int[dimensions.length];
+		Arrays.fill(upgradeFrames, 120);
+		setBudget(budget);
+
+		TessellationLevelOfDetail lod = ocean.getLevelOfDetail();
+		baseMinDetail = lod.getMinDetailLevel();
+		baseMaxDetail = lod.getMaxDetailLevel();
+		baseChangeDistance = lod.getFarthestChangeDistance();
+
+		step = dimensions.length - 1;
+		for (int i = 0; i < dimensions.length; i++) {
+			if (dimensions[i] >= ocean.getSpectrumQuality()) {
+				step = i;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Starts governing the ocean and applies the current step.
+	 */
+	public void attach() {
+		apply();
+		ocean.getMetrics().addListener(this);
+	}
+
+	/**
+	 * Stops governing the ocean. The current quality is kept.
+	 */
+	public void detach() {
+		ocean.getMetrics().removeListener(this);
+	}
+
+	@Override
+	public void metricsUpdated(Ocean ocean, OceanMetrics metrics) {
+		RollingStatistics total = metrics.getStatistics(OceanMetrics.TOTAL);
+		if (total == null) {
+			return;
+		}
+		update(total.getLast());
+	}
+
+	/**
+	 * Feeds the GPU time of a single frame into the governor.
+	 *
+	 * @param frameTime GPU time in milliseconds.
+	 */
+	void update(double frameTime) {
+		if (sinceUpgrade >= 0) {
+			sinceUpgrade++;
+		}
+		if (settling > 0) {
+			settling--;
+			return;
+		}
+
+		if (frameTime > budget) {
+			overBudget++;
+			underBudget = 0;
+		} else if (frameTime < budget * upgradeThreshold) {
+			underBudget++;
+			overBudget = 0;
+		} else {
+			overBudget = 0;
+			underBudget = 0;
+		}
+
+		if (overBudget >= downgradeFrames && step > 0) {
+			//Reverting a recent upgrade makes the next attempt more expensive
+			if (sinceUpgrade >= 0 && sinceUpgrade < 4 * upgradeFrames[step - 1]) {
+				upgradeFrames[step - 1] = Math.min(upgradeFrames[step - 1] * 2, 1 << 16);
+			}
+			transition(step - 1);
+			sinceUpgrade = -1;
+		} else if (underBudget >= upgradeFrames[step] && step < dimensions.length - 1) {
+			transition(step + 1);
+			sinceUpgrade = 0;
+		}
+	}
+
+	private void transition(int next) {
+		LOG.log(Level.INFO, "Ocean quality {0} -> {1} (dimension {2})", new Object[]{step, next, dimensions[next]});
+		step = next;
+		overBudget = 0;
+		underBudget = 0;
+		settling = settleFrames;
+		transitions++;
+		apply();
+	}
+
+	/**
+	 * Applies the current step. The spectrum is only rebuilt if the
+	 * dimension differs.
+	 */
+	private void apply() {
+		ocean.setSpectrumQuality(dimensions[step]);
+
+		TessellationLevelOfDetail lod = new TessellationLevelOfDetail();
+		lod.setMinDetailLevel(baseMinDetail);
+		lod.setMaxDetailLevel(Math.max(baseMinDetail, baseMaxDetail * tessellation[step]));
+		lod.setFarthestChangeDistance(baseChangeDistance * tessellation[step]);
+		ocean.setLevelOfDetail(lod);
+	}
+
+	/**
+	 * Sets the GPU time budget.
+	 *
+	 * @param budget Budget in milliseconds.
+	 */
+	public void setBudget(float budget) {
+		if (budget <= 0.0f) {
+			throw new IllegalArgumentException("The budget must be positive!");
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the GPU time budget.
+	 *
+	 * @return Budget in milliseconds.
+	 */
+	public float getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the fraction of the budget the frame time has to stay below
+	 * before the quality is raised. The default value is float(0.7).
+	 *
+	 * @param upgradeThreshold Upgrade threshold between 0.0 and 1.0.
+	 */
+	public void setUpgradeThreshold(float upgradeThreshold) {
+		if (upgradeThreshold <= 0.0f || upgradeThreshold >= 1.0f) {
+			throw new IllegalArgumentException("The upgrade threshold must be between 0.0 and 1.0!");
+		}
+		this.upgradeThreshold = upgradeThreshold;
+	}
+
+	/**
+	 * Returns the upgrade threshold.
+	 *
+	 * @return Upgrade threshold.
+	 */
+	public float getUpgradeThreshold() {
+		return upgradeThreshold;
+	}
+
+	/**
+	 * Sets the number of consecutive over-budget frames which lower the
+	 * quality. The default value is int(30).
+	 *
+	 * @param downgradeFrames Number of frames.
+	 */
+	public void setDowngradeFrames(int downgradeFrames) {
+		this.downgradeFrames = Math.max(downgradeFrames, 1);
+	}
+
+	/**
+	 * Sets the number of consecutive frames below the upgrade threshold
+	 * which raise the quality. The default value is int(120).
+	 *
+	 * @param frames Number of frames.
+	 */
+	public void setUpgradeFrames(int frames) {
+		Arrays.fill(upgradeFrames, Math.max(frames, 1));
+	}
+
+	/**
+	 * Sets the number of frames which are ignored after a transition. The
+	 * default value is int(30).
+	 *
+	 * @param settleFrames Number of frames.
+	 */
+	public void setSettleFrames(int settleFrames) {
+		this.settleFrames = Math.max(settleFrames, 0);
+	}
+
+	/**
+	 * Returns the current quality step, 0 being the lowest.
+	 *
+	 * @return Quality step.
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * Returns the number of transitions so far.
+	 *
+	 * @return Transitions.
+	 */
+	public int getTransitions() {
+		return transitions;
+	}
+}
@@ -0,0 +1,38 @@
+package org.ice.scene.ocean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for CPU side ocean queries and bake operations:
+ * wave queries, foam readbacks and the reconstruction of a sea state
+ * displacement field. Single point foam samples are too frequent and have
+ * no event.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@Name("org.ice.ocean.Query")
+@Label("Ocean Query")
+@Category({"Ice", "Ocean"})
+@Description("CPU side ocean query or bake operation")
+@StackTrace(false)
+final class OceanQueryEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Dimension")
+	int dimension;
+
+	@Label("Points")
+	int points;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
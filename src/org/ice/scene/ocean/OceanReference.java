@@ -0,0 +1,603 @@
+package org.ice.scene.ocean;
+
+import java.util.Arrays;
+import org.ice.math.Vector2f;
+
+/**
+ * CPU implementation of the whole ocean pipeline: the spectrum
+ * displacement, the inverse fourier transformation and the normals and
+ * folding calculation.
+ * <br>
+ * Without a precision every stage is computed in double precision with
+ * exact butterfly weights, which is the reference all other backends are
+ * measured against. With a precision the values are rounded wherever the
+ * GPU pipeline stores them in a texture of that precision and the
+ * butterfly table is read exactly as it is uploaded, which emulates the
+ * storage error of the GPU backends.
+ * <br>
+ * The stages mirror the compute shaders pass by pass, including the sign
+ * flip of every second texel and the <code>patchSize</code> scaling of the
+ * last pass and the wrapped lookups of the normals. Texel (x, y) is stored
+ * at index <code>y * width + x</code>.
+ * <br>
+ * Mixed radix tables are transformed like MixedRadixFFT.comp, see
+ * {@link OceanMixedRadix}. The transformation of square power of two
+ * tables can be pruned, see {@link #setPruneThreshold(double)}.
+ * <br>
+ * All stages use strict floating point semantics and {@link StrictMath}
+ * and run in a fixed order, so the same tables and time produce a bit
+ * identical field on every thread, process and platform.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final strictfp class OceanReference {
+
+	/**
+	 * Ocean tables.
+	 */
+	private final OceanTables tables;
+	/**
+	 * Storage precision, null for the exact reference.
+	 */
+	private final OceanPrecision precision;
+	private final int width, height, butterflies;
+	private final float patchSize;
+	private final double choppyX, choppyZ;
+	/**
+	 * Butterfly indices (a, b) and weights (re, im), one row per pass.
+	 */
+	private final int[] indices;
+	private final double[] weights;
+	/**
+	 * Plans of the columns and the rows, null for the butterfly table.
+	 */
+	private final OceanMixedRadix columnPlan, rowPlan;
+
+	/**
+	 * Complex X, Y and Z fields and their ping-pong buffers.
+	 */
+	private double[][] fields = new double[3][], buffers = new double[3][];
+	/**
+	 * Displacement (x, y, z) and normals and folding (nx, ny, nz, fold).
+	 */
+	private final double[] displacement, normalsFolding;
+
+	/**
+	 * Magnitude relative to the largest spectrum value below which texels
+	 * are pruned, negative if the transformation is not pruned.
+	 */
+	private double pruneThreshold = -1.0;
+	/**
+	 * Per texel: if the texel takes part in the pruned transformation.
+	 */
+	private boolean[] occupied;
+	/**
+	 * Columns of the first half of the passes and rows of the second half
+	 * which have to be transformed.
+	 */
+	private boolean[] columns, rows;
+	/**
+	 * Per pass: positions along the transformed axis which can be non-zero
+	 * after the pass. Every mask includes the ones of the previous passes,
+	 * so a skipped texel never holds an older value.
+	 */
+	private boolean[][] lines;
+	/**
+	 * Fraction of the butterflies the pruned transformation skips.
+	 */
+	private double skippedFraction;
+
+	/**
+	 * Creates a new exact double precision reference.
+	 *
+	 * @param tables Ocean tables.
+	 * @param patchSize Patch size the tables were built with.
+	 * @param choppyScale Choppy scale.
+	 */
+	public OceanReference(OceanTables tables, float patchSize, Vector2f choppyScale) {
+		this(tables, patchSize, choppyScale, null);
+	}
+
+	/**
+	 * Creates a new CPU pipeline which stores its values with the given
+	 * precision.
+	 *
+	 * @param tables Ocean tables.
+	 * @param patchSize Patch size the tables were built with.
+	 * @param choppyScale Choppy scale.
+	 * @param precision Storage precision, null for the exact reference.
+	 */
+	public OceanReference(OceanTables tables, float patchSize, Vector2f choppyScale, OceanPrecision precision) {
+		this.tables = tables;
+		this.precision = precision;
+		this.width = tables.getWidth();
+		this.height = tables.getHeight();
+		this.butterflies = tables.getButterflies();
+		this.patchSize = patchSize;
+		this.choppyX = choppyScale.x;
+		this.choppyZ = choppyScale.y;
+
+		int texels = width * height;
+		for (int i = 0; i < 3; i++) {
+			fields[i] = new double[texels * 2];
+			buffers[i] = new double[texels * 2];
+		}
+		displacement = new double[texels * 3];
+		normalsFolding = new double[texels * 4];
+
+		if (tables.isMixedRadix()) {
+			columnPlan = new OceanMixedRadix(height, precision != null);
+			rowPlan = new OceanMixedRadix(width, precision != null);
+		} else {
+			columnPlan = rowPlan = null;
+		}
+
+		int dimension = width;
+		indices = new int[butterflies * dimension * 2];
+		weights = new double[butterflies * dimension * 2];
+		if (columnPlan != null) {
+			return;
+		}
+		if (precision == null) {
+			float[][] exactIndices = OceanTables.indices(butterflies, 2 * dimension);
+			double[][] exactWeights = weights(butterflies, 2 * dimension, dimension);
+			for (int row = 0; row < butterflies; row++) {
+				for (int i = 0; i < 2 * dimension; i++) {
+					indices[row * 2 * dimension + i] = (int) exactIndices[row][i];
+					weights[row * 2 * dimension + i] = exactWeights[row][i];
+				}
+			}
+		} else {
+			//Same lookup as the compute shader, the table is always RGBA32F
+			float[] butterfly = tables.getButterfly();
+			for (int i = 0; i < butterflies * dimension; i++) {
+				indices[2 * i] = (int) (butterfly[4 * i] * dimension + 0.5f);
+				indices[2 * i + 1] = (int) (butterfly[4 * i + 1] * dimension + 0.5f);
+				weights[2 * i] = butterfly[4 * i + 2];
+				weights[2 * i + 1] = butterfly[4 * i + 3];
+			}
+		}
+	}
+
+	/**
+	 * Double precision variant of {@link OceanTables#weights}.
+	 */
+	private static double[][] weights(int numButterflies, int weights, int dimension) {
+		double[][] res = new double[numButterflies][weights];
+
+		int iterations = weights / 4;
+		int numk = 1;
+		for (int i = 0; i < numButterflies; i++) {
+			int start = 0;
+			int end = 2 * numk;
+			for (int j = 0; j < iterations; j++) {
+				int kk = 0;
+				for (int k = start; k < end; k += 2) {
+					double v = 2.0 * Math.PI * kk * iterations / dimension;
+
+					res[i][k] = StrictMath.cos(v);
+					res[i][k + 1] = -StrictMath.sin(v);
+					res[i][k + 2 * numk] = -StrictMath.cos(v);
+					res[i][k + 2 * numk + 1] = StrictMath.sin(v);
+
+					kk++;
+				}
+				start += 4 * numk;
+				end = start + 2 * numk;
+			}
+			iterations >>= 1;
+			numk <<= 1;
+		}
+		return res;
+	}
+
+	/**
+	 * Runs the whole pipeline for the given spectrum time.
+	 *
+	 * @param time Spectrum time, see {@link Ocean#getSpectrumTime()}.
+	 */
+	public void update(double time) {
+		displace(time);
+		transform();
+		computeNormalsFolding();
+	}
+
+	private double store(double value) {
+		return precision == null ? value : precision.store(value);
+	}
+
+	/**
+	 * Spectrum displacement, see SpectrumDisplacement.comp.
+	 */
+	private void displace(double time) {
+		float[] spectrum = tables.getSpectrum();
+		float[] omega = tables.getOmega();
+		double amplitude = Ocean.DISPLACEMENT_AMPLITUDE;
+		double[] x = fields[0], y = fields[1], z = fields[2];
+
+		for (int py = 0; py < height; py++) {
+			for (int px = 0; px < width; px++) {
+				int index = py * width + px;
+				if (occupied != null && !occupied[index]) {
+					x[2 * index] = x[2 * index + 1] = 0.0;
+					y[2 * index] = y[2 * index + 1] = 0.0;
+					z[2 * index] = z[2 * index + 1] = 0.0;
+					continue;
+				}
+				//The conjugate is sampled at 1 - texcoord, which wraps to the texel at -k
+				int conjugate = ((height - py) % height) * width + (width - px) % width;
+
+				double h0r = store(spectrum[2 * index]) * amplitude;
+				double h0i = store(spectrum[2 * index + 1]) * amplitude;
+				double cr = store(spectrum[2 * conjugate]) * amplitude;
+				double ci = store(spectrum[2 * conjugate + 1]) * amplitude;
+				double stepsize = omega[index] * time;
+				double sin = StrictMath.sin(stepsize);
+				double cos = StrictMath.cos(stepsize);
+
+				double htr = (h0r + cr) * cos - (h0i + ci) * sin;
+				double hti = (h0r - cr) * sin + (h0i - ci) * cos;
+
+				double kx = px / (double) width - 0.5;
+				double kz = py / (double) height - 0.5;
+				double squared = kx * kx + kz * kz;
+				double r = squared > 1e-12 ? 1.0 / StrictMath.sqrt(squared) : 0.0;
+				kx *= r;
+				kz *= r;
+
+				y[2 * index] = store(htr);
+				y[2 * index + 1] = store(hti);
+				x[2 * index] = store(hti * kx);
+				x[2 * index + 1] = store(-htr * kx);
+				z[2 * index] = store(hti * kz);
+				z[2 * index + 1] = store(-htr * kz);
+			}
+		}
+	}
+
+	/**
+	 * Inverse fourier transformation, see TwoDimensionalFFT.comp. The
+	 * columns are transformed first, then the rows.
+	 * <br>
+	 * When pruned, only the columns and rows which can hold non-zero<br>
+	 * values are transformed and every pass skips the butterflies whose<br>
+	 * inputs are both zero.
+	 */
+	private void transform() {
+		if (columnPlan != null) {
+			transformMixedRadix();
+			return;
+		}
+		int dimension = width;
+		int passes = butterflies * 2;
+		double d = 1.0 / (patchSize * (patchSize * 0.01));
+		boolean pruned = lines != null;
+		if (pruned) {
+			//Skipped texels are read as zero, so older values must not survive
+			for (double[] buffer : buffers) {
+				Arrays.fill(buffer, 0.0);
+			}
+		}
+		for (int pass = 0; pass < passes; pass++) {
+			int row = (pass % butterflies) * dimension;
+			boolean vertical = pass >= butterflies;
+			boolean lastPass = pass == passes - 1;
+			boolean[] line = pruned ? lines[pass] : null;
+
+			for (int py = 0; py < dimension; py++) {
+				if (pruned && !(vertical ? rows[py] : line[py])) {
+					if (lastPass) {
+						Arrays.fill(displacement, 3 * py * dimension, 3 * (py + 1) * dimension, 0.0);
+					}
+					continue;
+				}
+				for (int px = 0; px < dimension; px++) {
+					if (pruned && !(vertical ? line[px] : columns[px])) {
+						if (lastPass) {
+							int index = 3 * (py * dimension + px);
+							displacement[index] = displacement[index + 1] = displacement[index + 2] = 0.0;
+						}
+						continue;
+					}
+					int lookup = 2 * (row + (vertical ? px : py));
+					int a, b;
+					if (vertical) {
+						a = py * dimension + indices[lookup];
+						b = py * dimension + indices[lookup + 1];
+					} else {
+						a = indices[lookup] * dimension + px;
+						b = indices[lookup + 1] * dimension + px;
+					}
+					double wr = weights[lookup];
+					double wi = weights[lookup + 1];
+					int index = py * dimension + px;
+
+					for (int f = 0; f < 3; f++) {
+						double[] source = fields[f];
+						double re = source[2 * a] + wr * source[2 * b] - wi * source[2 * b + 1];
+						double im = source[2 * a + 1] + wi * source[2 * b] + wr * source[2 * b + 1];
+						if (lastPass) {
+							if ((px + py) % 2 == 1) {
+								re = -re;
+							}
+							displacement[3 * index + f] = store(re * d);
+						} else {
+							buffers[f][2 * index] = store(re);
+							buffers[f][2 * index + 1] = store(im);
+						}
+					}
+				}
+			}
+
+			if (!lastPass) {
+				double[][] swap = fields;
+				fields = buffers;
+				buffers = swap;
+			}
+		}
+	}
+
+	/**
+	 * Mixed radix inverse fourier transformation, see MixedRadixFFT.comp.
+	 * The columns are transformed first, then the rows.
+	 */
+	private void transformMixedRadix() {
+		int columnPasses = columnPlan.getPasses();
+		int passes = columnPasses + rowPlan.getPasses();
+		double d = 1.0 / (patchSize * (patchSize * 0.01));
+		double[] result = new double[2 * OceanMixedRadix.MAX_RADIX];
+
+		for (int pass = 0; pass < passes; pass++) {
+			boolean rowPass = pass >= columnPasses;
+			boolean lastPass = pass == passes - 1;
+			OceanMixedRadix plan = rowPass ? rowPlan : columnPlan;
+			int planPass = rowPass ? pass - columnPasses : pass;
+			int radix = plan.getRadix(planPass);
+			int invocations = plan.getLength() / radix;
+			int lines = rowPass ? height : width;
+			int step = rowPass ? 1 : width;
+
+			//Neighbouring columns are adjacent in memory, so the column passes run over the lines innermost
+			int outer = rowPass ? lines : invocations, inner = rowPass ? invocations : lines;
+			for (int o = 0; o < outer; o++) {
+				for (int i = 0; i < inner; i++) {
+					int line = rowPass ? o : i, j = rowPass ? i : o;
+					int offset = rowPass ? line * width : line;
+					for (int f = 0; f < 3; f++) {
+						plan.butterfly(planPass, j, fields[f], offset, step, result);
+						for (int r = 0; r < radix; r++) {
+							int position = plan.target(planPass, j, r);
+							int index = offset + position * step;
+							if (lastPass) {
+								//Rows are transformed last, the position is the x coordinate
+								double re = (position + line) % 2 == 1 ? -result[2 * r] : result[2 * r];
+								displacement[3 * index + f] = store(re * d);
+							} else {
+								buffers[f][2 * index] = store(result[2 * r]);
+								buffers[f][2 * index + 1] = store(result[2 * r + 1]);
+							}
+						}
+					}
+				}
+			}
+
+			if (!lastPass) {
+				double[][] swap = fields;
+				fields = buffers;
+				buffers = swap;
+			}
+		}
+	}
+
+	/**
+	 * Prunes the inverse fourier transformation.
+	 * <br>
+	 * Spectrum texels whose magnitude, and the one of their conjugate, is<br>
+	 * below <code>threshold</code> times the largest magnitude are treated<br>
+	 * as zero. Only the occupied columns are transformed, followed by the<br>
+	 * rows they reach, and within every pass the butterflies are tracked<br>
+	 * along the transformed axis, so work on all-zero regions is skipped.<br>
+	 * A threshold of 0 only prunes exact zeros and keeps the result<br>
+	 * identical, larger thresholds drop the texels from the field.<br>
+	 * Only square power of two tables can be pruned.
+	 *
+	 * @param threshold Relative threshold, negative to disable pruning.
+	 */
+	public void setPruneThreshold(double threshold) {
+		if (Double.isNaN(threshold)) {
+			throw new IllegalArgumentException("The threshold must be a number!");
+		}
+		if (columnPlan != null && threshold >= 0.0) {
+			throw new IllegalArgumentException("Mixed radix tables cannot be pruned!");
+		}
+		pruneThreshold = threshold;
+		if (threshold < 0.0) {
+			occupied = null;
+			columns = rows = null;
+			lines = null;
+			skippedFraction = 0.0;
+			return;
+		}
+
+		float[] spectrum = tables.getSpectrum();
+		int dimension = width;
+		int texels = dimension * dimension;
+		double max = 0.0;
+		for (int i = 0; i < texels; i++) {
+			max = Math.max(max, Math.hypot(spectrum[2 * i], spectrum[2 * i + 1]));
+		}
+		boolean[] significant = new boolean[texels];
+		for (int i = 0; i < texels; i++) {
+			double magnitude = Math.hypot(spectrum[2 * i], spectrum[2 * i + 1]);
+			significant[i] = magnitude > 0.0 && magnitude >= threshold * max;
+		}
+
+		//The displacement combines every texel with its conjugate
+		occupied = new boolean[texels];
+		columns = new boolean[dimension];
+		boolean[] line = new boolean[dimension];
+		for (int py = 0; py < dimension; py++) {
+			for (int px = 0; px < dimension; px++) {
+				int index = py * dimension + px;
+				int conjugate = ((dimension - py) % dimension) * dimension + (dimension - px) % dimension;
+				if (significant[index] || significant[conjugate]) {
+					occupied[index] = true;
+					columns[px] = true;
+					line[py] = true;
+				}
+			}
+		}
+
+		int passes = butterflies * 2;
+		lines = new boolean[passes][];
+		long work = 0;
+		for (int pass = 0; pass < passes; pass++) {
+			if (pass == butterflies) {
+				//The rows reached by the column passes, then along the occupied columns
+				rows = line;
+				line = columns;
+			}
+			int row = (pass % butterflies) * dimension;
+			boolean[] next = line.clone();
+			for (int i = 0; i < dimension; i++) {
+				int lookup = 2 * (row + i);
+				next[i] |= line[indices[lookup]] || line[indices[lookup + 1]];
+			}
+			lines[pass] = line = next;
+			work += (long) count(next) * count(pass < butterflies ? columns : rows);
+		}
+		skippedFraction = 1.0 - work / ((double) passes * texels);
+	}
+
+	private static int count(boolean[] mask) {
+		int count = 0;
+		for (boolean value : mask) {
+			if (value) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the relative prune threshold, negative if the transformation
+	 * is not pruned.
+	 *
+	 * @return Relative threshold.
+	 */
+	public double getPruneThreshold() {
+		return pruneThreshold;
+	}
+
+	/**
+	 * Returns the fraction of the butterflies the pruned transformation
+	 * skips, 0 if it is not pruned.
+	 *
+	 * @return Skipped fraction between 0 and 1.
+	 */
+	public double getSkippedFraction() {
+		return skippedFraction;
+	}
+
+	/**
+	 * Normals and folding, see Normals.comp. Loads outside of the map wrap
+	 * around like the periodic field.
+	 */
+	private void computeNormalsFolding() {
+		double distance = 40.0 / (width * 2.0);
+		double[] d0 = new double[3], dl = new double[3], dr = new double[3], db = new double[3], df = new double[3];
+
+		for (int py = 0; py < height; py++) {
+			for (int px = 0; px < width; px++) {
+				load(px, py, d0);
+				load(px - 1, py, dl);
+				load(px + 1, py, dr);
+				load(px, py - 1, db);
+				load(px, py + 1, df);
+
+				double s00x = d0[0] * choppyX, s00y = d0[1], s00z = d0[2] * choppyZ;
+				double ax = dr[0] * choppyX + distance - s00x, ay = dr[1] - s00y, az = dr[2] * choppyZ - s00z;
+				double bx = df[0] * choppyX - s00x, by = df[1] - s00y, bz = df[2] * choppyZ + distance - s00z;
+
+				//cross(s01 - s00, s10 - s00)
+				double nx = by * az - bz * ay;
+				double ny = bz * ax - bx * az;
+				double nz = bx * ay - by * ax;
+				double length = StrictMath.sqrt(nx * nx + ny * ny + nz * nz);
+
+				double dxx = (dr[0] - dl[0]) * choppyX, dxy = (dr[2] - dl[2]) * choppyZ;
+				double dyx = (df[0] - db[0]) * choppyX, dyy = (df[2] - db[2]) * choppyZ;
+				double j = (1.0 + dxx) * (1.0 + dyy) - dxy * dyx;
+				double fold = Math.max(1.0 - j, 0.0);
+
+				int index = 4 * (py * width + px);
+				normalsFolding[index] = store(nx / length);
+				normalsFolding[index + 1] = store(ny / length);
+				normalsFolding[index + 2] = store(nz / length);
+				normalsFolding[index + 3] = store(fold);
+			}
+		}
+	}
+
+	private void load(int px, int py, double[] target) {
+		int index = 3 * (Math.floorMod(py, height) * width + Math.floorMod(px, width));
+		target[0] = displacement[index];
+		target[1] = displacement[index + 1];
+		target[2] = displacement[index + 2];
+	}
+
+	/**
+	 * Returns the displacement map as (x, y, z) triples.
+	 *
+	 * @return Displacement.
+	 */
+	public double[] getDisplacement() {
+		return displacement;
+	}
+
+	/**
+	 * Returns the normals and folding map as (nx, ny, nz, fold) quadruples.
+	 *
+	 * @return Normals and folding.
+	 */
+	public double[] getNormalsFolding() {
+		return normalsFolding;
+	}
+
+	/**
+	 * Returns the table dimension, which is the width of rectangular tables.
+	 *
+	 * @return Dimension.
+	 */
+	public int getDimension() {
+		return width;
+	}
+
+	/**
+	 * Returns the table width.
+	 *
+	 * @return Width.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the table height.
+	 *
+	 * @return Height.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the storage precision.
+	 *
+	 * @return Precision, null for the exact reference.
+	 */
+	public OceanPrecision getPrecision() {
+		return precision;
+	}
+}
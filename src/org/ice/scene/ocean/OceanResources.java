@@ -0,0 +1,316 @@
+package org.ice.scene.ocean;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ice.platform.texture.Texture;
+import org.ice.platform.texture.Texture2D;
+import org.ice.platform.texture.TextureCubeMap;
+import org.ice.shader.ComputeShader;
+import org.ice.shader.FragmentShader;
+import org.ice.shader.ShaderProgram;
+import org.ice.shader.TessellationControlShader;
+import org.ice.shader.TessellationEvaluationShader;
+import org.ice.shader.VertexShader;
+import org.ice.util.AssetManager;
+import org.ice.util.LoggerFactory;
+
+/**
+ * Reference counted registry of the shader programs and maps which are
+ * shared by all oceans.
+ * <br>
+ * Every ocean acquires the registry on creation and releases it on
+ * disposal. Programs and maps are loaded lazily on first use, so an asset
+ * which is never requested is never decoded and creating further oceans
+ * does not load or compile anything. When the last ocean releases the
+ * registry, all loaded resources are freed and the next ocean starts from
+ * scratch.
+ * <br>
+ * Shared programs only keep the parameters of the ocean which used them
+ * last. Every ocean therefore sets all of its parameters right before
+ * using a program, which is what the render methods of {@link Ocean} do.
+ * <br>
+ * The registry must only be used on the render thread.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class OceanResources {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(OceanResources.class);
+	/**
+	 * Shared instance, null while no ocean exists.
+	 */
+	private static OceanResources instance;
+
+	/**
+	 * Number of oceans holding the registry.
+	 */
+	private int references;
+
+	private ShaderProgram surfaceShader, fftShader, patchCullingShader;
+	/**
+	 * Compute programs, one variant per storage precision.
+	 */
+	private final ShaderProgram[] spectrumShaders = new ShaderProgram[OceanPrecision.values().length];
+	private final ShaderProgram[] compactFFTShaders = new ShaderProgram[OceanPrecision.values().length];
+	private final ShaderProgram[] mixedRadixFFTShaders = new ShaderProgram[OceanPrecision.values().length];
+	private final ShaderProgram[] normalsShaders = new ShaderProgram[OceanPrecision.values().length];
+	private final ShaderProgram[] downsampleShaders = new ShaderProgram[OceanPrecision.values().length];
+	private Texture2D foamMap, fresnelMap, skyTexture;
+	private TextureCubeMap sky;
+
+	private OceanResources() {
+	}
+
+	/**
+	 * Acquires the shared registry.
+	 *
+	 * @return Shared registry.
+	 */
+	static synchronized OceanResources acquire() {
+		if (instance == null) {
+			instance = new OceanResources();
+		}
+		instance.references++;
+		return instance;
+	}
+
+	/**
+	 * Releases the shared registry. The last release frees all resources.
+	 */
+	void release() {
+		synchronized (OceanResources.class) {
+			if (references <= 0 || --references > 0) {
+				return;
+			}
+			dispose();
+			if (instance == this) {
+				instance = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of oceans holding the registry.
+	 *
+	 * @return Reference count.
+	 */
+	int getReferences() {
+		synchronized (OceanResources.class) {
+			return references;
+		}
+	}
+
+	/**
+	 * Returns the surface program.
+	 *
+	 * @return Surface program.
+	 */
+	synchronized ShaderProgram getSurfaceShader() {
+		if (surfaceShader == null) {
+			surfaceShader = new CachedShaderProgram("Surface Shader");
+			surfaceShader.getShaders().add(new VertexShader(loadText("/org/ice/assets/shaders/ocean/Water.vs")));
+			surfaceShader.getShaders().add(new TessellationControlShader(loadText("/org/ice/assets/shaders/ocean/Water.tcs")));
+			surfaceShader.getShaders().add(new TessellationEvaluationShader(loadText("/org/ice/assets/shaders/ocean/Water.tes")));
+			surfaceShader.getShaders().add(new FragmentShader(loadText("/org/ice/assets/shaders/ocean/Water.fs")));
+			surfaceShader.setAutomaticUniformMatrices(false);
+			surfaceShader.compile();
+		}
+		return surfaceShader;
+	}
+
+	/**
+	 * Returns the spectrum displacement program.
+	 *
+	 * @param precision Storage precision.
+	 * @return Spectrum program.
+	 */
+	synchronized ShaderProgram getSpectrumShader(OceanPrecision precision) {
+		int i = precision.ordinal();
+		if (spectrumShaders[i] == null) {
+			spectrumShaders[i] = createComputeShader("Spectrum Shader", "/org/ice/assets/shaders/ocean/SpectrumDisplacement.comp", precision);
+		}
+		return spectrumShaders[i];
+	}
+
+	/**
+	 * Returns the fragment shader fourier transformation program.
+	 *
+	 * @return Fourier transformation program.
+	 */
+	synchronized ShaderProgram getFFTShader() {
+		if (fftShader == null) {
+			fftShader = new CachedShaderProgram("Fast Fourier Transformation Shader");
+			fftShader.getShaders().add(new VertexShader(loadText("/org/ice/assets/shaders/Processing.vs")));
+			fftShader.getShaders().add(new FragmentShader(loadText("/org/ice/assets/shaders/ocean/TwoDimensionalFFT.fs")));
+			fftShader.compile();
+		}
+		return fftShader;
+	}
+
+	/**
+	 * Returns the compute shader fourier transformation program of the
+	 * compact memory mode.
+	 *
+	 * @param precision Storage precision.
+	 * @return Compact fourier transformation program.
+	 */
+	synchronized ShaderProgram getCompactFFTShader(OceanPrecision precision) {
+		int i = precision.ordinal();
+		if (compactFFTShaders[i] == null) {
+			compactFFTShaders[i] = createComputeShader("Compact Fast Fourier Transformation Shader", "/org/ice/assets/shaders/ocean/TwoDimensionalFFT.comp", precision);
+		}
+		return compactFFTShaders[i];
+	}
+
+	/**
+	 * Returns the compute shader mixed radix fourier transformation program
+	 * of rectangular and non power of two spectra.
+	 *
+	 * @param precision Storage precision.
+	 * @return Mixed radix fourier transformation program.
+	 */
+	synchronized ShaderProgram getMixedRadixFFTShader(OceanPrecision precision) {
+		int i = precision.ordinal();
+		if (mixedRadixFFTShaders[i] == null) {
+			mixedRadixFFTShaders[i] = createComputeShader("Mixed Radix Fast Fourier Transformation Shader", "/org/ice/assets/shaders/ocean/MixedRadixFFT.comp", precision);
+		}
+		return mixedRadixFFTShaders[i];
+	}
+
+	/**
+	 * Returns the normals and folding program.
+	 *
+	 * @param precision Storage precision.
+	 * @return Normals program.
+	 */
+	synchronized ShaderProgram getNormalsShader(OceanPrecision precision) {
+		int i = precision.ordinal();
+		if (normalsShaders[i] == null) {
+			normalsShaders[i] = createComputeShader("Normals Shader", "/org/ice/assets/shaders/ocean/Normals.comp", precision);
+		}
+		return normalsShaders[i];
+	}
+
+	/**
+	 * Returns the mip level downsample program.
+	 *
+	 * @param precision Storage precision.
+	 * @return Downsample program.
+	 */
+	synchronized ShaderProgram getDownsampleShader(OceanPrecision precision) {
+		int i = precision.ordinal();
+		if (downsampleShaders[i] == null) {
+			downsampleShaders[i] = createComputeShader("Downsample Shader", "/org/ice/assets/shaders/ocean/Downsample.comp", precision);
+		}
+		return downsampleShaders[i];
+	}
+
+	/**
+	 * Returns the grid tile culling program of the screen space error
+	 * tessellation.
+	 *
+	 * @return Patch culling program.
+	 */
+	synchronized ShaderProgram getPatchCullingShader() {
+		if (patchCullingShader == null) {
+			patchCullingShader = new CachedShaderProgram("Patch Culling Shader");
+			patchCullingShader.getShaders().add(new ComputeShader(loadText("/org/ice/assets/shaders/ocean/PatchCulling.comp")));
+			patchCullingShader.setAutomaticUniformMatrices(false);
+			patchCullingShader.compile();
+		}
+		return patchCullingShader;
+	}
+
+	/**
+	 * Returns the default foam map.
+	 *
+	 * @return Foam map.
+	 */
+	synchronized Texture2D getFoamMap() {
+		if (foamMap == null) {
+			foamMap = loadMap("/org/ice/assets/materials/water/Foam.jpg");
+		}
+		return foamMap;
+	}
+
+	/**
+	 * Returns the default fresnel normals map.
+	 *
+	 * @return Fresnel normals map.
+	 */
+	synchronized Texture2D getFresnelMap() {
+		if (fresnelMap == null) {
+			fresnelMap = loadMap("/org/ice/assets/materials/water/Normalmap.jpg");
+		}
+		return fresnelMap;
+	}
+
+	/**
+	 * Returns the default sky, a cube map which uses the same texture on
+	 * all six sides.
+	 *
+	 * @return Sky cube map.
+	 */
+	synchronized TextureCubeMap getSky() {
+		if (sky == null) {
+			skyTexture = AssetManager.loadTextureSuppressed(OceanResources.class.getResourceAsStream("/org/ice/assets/materials/water/ClearSky.jpg"));
+			sky = new TextureCubeMap(skyTexture, skyTexture, skyTexture, skyTexture, skyTexture, skyTexture);
+		}
+		return sky;
+	}
+
+	private static ShaderProgram createComputeShader(String name, String path, OceanPrecision precision) {
+		ShaderProgram program = new CachedShaderProgram(name);
+		//Image formats are part of the source, so every precision is a program of its own
+		program.getShaders().add(new ComputeShader(precision.qualify(loadText(path))));
+		program.setAutomaticUniformMatrices(false);
+		program.compile();
+		return program;
+	}
+
+	private static String loadText(String path) {
+		return AssetManager.loadTextSuppressed(OceanResources.class.getResourceAsStream(path));
+	}
+
+	private static Texture2D loadMap(String path) {
+		Texture2D map = AssetManager.loadTextureSuppressed(OceanResources.class.getResourceAsStream(path));
+		map.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
+		map.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+		return map;
+	}
+
+	/**
+	 * Frees all loaded programs and maps.
+	 */
+	private void dispose() {
+		int textures = 0;
+		for (Texture texture : new Texture[]{foamMap, fresnelMap, skyTexture, sky}) {
+			if (texture != null) {
+				texture.dispose();
+				textures++;
+			}
+		}
+		for (ShaderProgram program : new ShaderProgram[]{surfaceShader, fftShader, patchCullingShader}) {
+			if (program != null) {
+				program.dispose();
+			}
+		}
+		for (ShaderProgram[] programs : new ShaderProgram[][]{spectrumShaders, compactFFTShaders, mixedRadixFFTShaders, normalsShaders, downsampleShaders}) {
+			for (ShaderProgram program : programs) {
+				if (program != null) {
+					program.dispose();
+				}
+			}
+			Arrays.fill(programs, null);
+		}
+		foamMap = fresnelMap = skyTexture = null;
+		sky = null;
+		surfaceShader = fftShader = patchCullingShader = null;
+		LOG.log(Level.FINE, "Shared ocean resources freed ({0} textures)", textures);
+	}
+}
@@ -0,0 +1,329 @@
+package org.ice.scene.ocean;
+
+import org.ice.math.Vector2f;
+
+/**
+ * Pierson-Moskowitz, JONSWAP and TMA spectra with a directional spreading.
+ * <br>
+ * All three share the frequency spectrum
+ * <code>S(w) = alpha g^2 / w^5 exp(-5/4 (wp / w)^4) gamma^r phi(w, h)</code>
+ * with the peak enhancement
+ * <code>r = exp(-(w - wp)^2 / (2 sigma^2 wp^2))</code> and the Kitaigorodskii
+ * depth attenuation <code>phi</code>. Pierson-Moskowitz is the fully
+ * developed sea (<code>gamma = 1</code>, no depth), JONSWAP the fetch
+ * limited sea (<code>gamma = 3.3</code>, alpha and wp from the fetch) and
+ * TMA the JONSWAP sea attenuated for the given water depth. The spreading
+ * is the Mitsuyasu <code>Q(s) cos(theta / 2)^(2s)</code>, whose exponent
+ * <code>s</code> peaks at the spectrum peak.
+ * <br>
+ * Everything but the angle only depends on <code>|k|</code>, so the peak
+ * enhancement, the depth attenuation, the spreading exponent and its gamma
+ * function normalization are tabulated once per parameter set. The radial
+ * table is indexed by the bits of <code>|k|^2 / kp^2</code>, 64 entries per
+ * octave, so a lookup needs neither a square root nor a logarithm. The
+ * angular term <code>((1 + cos theta) / 2)^s</code> takes its logarithm
+ * from the float exponent and a small mantissa table, which leaves one
+ * square root and one exponential per texel, less than
+ * {@link Ocean#PHILLIPS} needs. Both tables are linearly interpolated, the
+ * values stay within 2e-4 (0.02%) of the direct evaluation above a
+ * thousandth of the peak.
+ * <br>
+ * The wave numbers are in the units of {@link OceanTables}, the wind speed
+ * in m/s, the fetch and the depth in m. The spectra use the deep water
+ * dispersion of the simulation, the depth only shapes the spectrum. They
+ * are scaled like {@link Ocean#PHILLIPS}, so the same amplitude gives
+ * about the same wave heights on the default patch. Instances are
+ * immutable and strict, so the spectrum tables are bit identical on every
+ * platform.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final strictfp class OceanSpectrum implements SpectrumAlgorithm {
+
+	/**
+	 * Default fetch in meters.
+	 */
+	public static final float DEFAULT_FETCH = 100_000.0f;
+	/**
+	 * Default water depth in meters.
+	 */
+	public static final float DEFAULT_DEPTH = 20.0f;
+
+	/**
+	 * Spectrum shapes.
+	 */
+	public enum Shape {
+
+		/**
+		 * Fully developed sea, the fetch and the depth are ignored.
+		 */
+		PIERSON_MOSKOWITZ,
+		/**
+		 * Fetch limited sea, the depth is ignored.
+		 */
+		JONSWAP,
+		/**
+		 * Fetch limited sea in finite depth water.
+		 */
+		TMA
+	}
+
+	/**
+	 * Scale of the spectra relative to the variance density in
+	 * <code>cm^4</code>, which matches the heights of the phillips spectrum
+	 * on the default patch.
+	 */
+	private static final double SCALE = 400.0;
+	/**
+	 * Mantissa bits of <code>|k|^2 / kp^2</code> per radial table entry.
+	 */
+	private static final int RADIAL_BITS = 6;
+	private static final int RADIAL_SHIFT = 23 - RADIAL_BITS;
+	private static final int RADIAL_MASK = (1 << RADIAL_SHIFT) - 1;
+	/**
+	 * Bits of the first and the last radial entry, <code>|k| / kp</code>
+	 * runs from 1/16 to 65536.
+	 */
+	private static final int RADIAL_FIRST = Float.floatToRawIntBits(1.0f / 256.0f) >> RADIAL_SHIFT;
+	private static final int RADIAL_LAST = Float.floatToRawIntBits(4294967296.0f) >> RADIAL_SHIFT;
+	private static final float LN_2 = (float) StrictMath.log(2.0);
+	/**
+	 * Base 2 logarithm of <code>1 + m</code> per <code>RADIAL_BITS</code>
+	 * mantissa <code>m</code>, the angular term takes its logarithm from the
+	 * float bits.
+	 */
+	private static final float[] MANTISSA_LOG = new float[(1 << RADIAL_BITS) + 1];
+
+	static {
+		for (int i = 0; i < MANTISSA_LOG.length; i++) {
+			MANTISSA_LOG[i] = (float) (StrictMath.log(1.0 + (double) i / (1 << RADIAL_BITS)) / StrictMath.log(2.0));
+		}
+	}
+
+	private final Shape shape;
+	private final float windSpeed;
+	private final float windDirectionX, windDirectionY;
+	private final float fetch, depth;
+	private final float amplitude;
+	private final float gravity;
+
+	/**
+	 * Inverse squared peak wave number, in OceanTables units.
+	 */
+	private final float inverseSqrPeak;
+	/**
+	 * Radial term including the spreading normalization, and the spreading
+	 * exponent, per radial entry.
+	 */
+	private final float[] radial, spread;
+
+	private OceanSpectrum(Shape shape, float windSpeed, Vector2f windDirection, float fetch, float depth, float amplitude, float gravity) {
+		if (shape == null) {
+			throw new IllegalArgumentException("The spectrum shape must not be null!");
+		}
+		if (windSpeed <= 0.0f || gravity <= 0.0f) {
+			throw new IllegalArgumentException("The wind speed and the gravity must be positive!");
+		}
+		if (shape != Shape.PIERSON_MOSKOWITZ && fetch <= 0.0f) {
+			throw new IllegalArgumentException("The fetch must be positive!");
+		}
+		if (shape == Shape.TMA && depth <= 0.0f) {
+			throw new IllegalArgumentException("The depth must be positive!");
+		}
+		this.shape = shape;
+		this.windSpeed = windSpeed;
+		this.windDirectionX = windDirection.x;
+		this.windDirectionY = windDirection.y;
+		this.fetch = fetch;
+		this.depth = depth;
+		this.amplitude = amplitude;
+		this.gravity = gravity;
+
+		//Fully developed values, JONSWAP never goes below them
+		double g = gravity, u = windSpeed;
+		double alpha = 0.0081;
+		double peak = 0.855 * g / u;
+		double gamma = 1.0;
+		if (shape != Shape.PIERSON_MOSKOWITZ) {
+			double dimensionless = g * fetch / (u * u);
+			alpha = StrictMath.max(alpha, 0.076 * StrictMath.pow(dimensionless, -0.22));
+			peak = StrictMath.max(peak, 22.0 * g / u * StrictMath.cbrt(1.0 / dimensionless));
+			gamma = 3.3;
+		}
+		double peakSpread = 11.5 * StrictMath.pow(g / (peak * u), 2.5);
+		double depthScale = shape == Shape.TMA ? StrictMath.sqrt(depth / g) : 0.0;
+
+		//Deep water peak wave number in 1/m, OceanTables lengths are in cm
+		double peakK = peak * peak / g;
+		inverseSqrPeak = (float) (1.0 / (peakK * peakK * 1.0E-4));
+
+		int count = RADIAL_LAST - RADIAL_FIRST + 1;
+		radial = new float[count];
+		spread = new float[count];
+		for (int i = 0; i < count; i++) {
+			double ratio = Float.intBitsToFloat((RADIAL_FIRST + i) << RADIAL_SHIFT);
+			double k = peakK * StrictMath.sqrt(ratio);
+			double w = StrictMath.sqrt(g * k);
+
+			double frequency = alpha * g * g / StrictMath.pow(w, 5.0) * StrictMath.exp(-1.25 * StrictMath.pow(peak / w, 4.0));
+			if (gamma != 1.0) {
+				double sigma = w <= peak ? 0.07 : 0.09;
+				double offset = (w - peak) / (sigma * peak);
+				frequency *= StrictMath.pow(gamma, StrictMath.exp(-0.5 * offset * offset));
+			}
+			if (depthScale > 0.0) {
+				frequency *= attenuation(w * depthScale);
+			}
+
+			double s = peakSpread * (w <= peak ? StrictMath.pow(w / peak, 5.0) : StrictMath.pow(w / peak, -2.5));
+			//S(w) dw/dk / k turns the frequency spectrum into a wave number density
+			double density = frequency * (g / (2.0 * w)) / k * normalization(s);
+			radial[i] = (float) (amplitude * SCALE * density * 1.0E8);
+			spread[i] = (float) s;
+		}
+	}
+
+	/**
+	 * Creates a spectrum for explicit parameters.
+	 *
+	 * @param shape Spectrum shape.
+	 * @param windSpeed Wind speed in m/s.
+	 * @param windDirection Normalized wind direction.
+	 * @param fetch Fetch in m, ignored by {@link Shape#PIERSON_MOSKOWITZ}.
+	 * @param depth Water depth in m, only used by {@link Shape#TMA}.
+	 * @param amplitude Wave amplitude.
+	 * @param gravity Gravity.
+	 * @return Spectrum.
+	 */
+	public static OceanSpectrum create(Shape shape, float windSpeed, Vector2f windDirection, float fetch, float depth, float amplitude, float gravity) {
+		return new OceanSpectrum(shape, windSpeed, windDirection, fetch, depth, amplitude, gravity);
+	}
+
+	/**
+	 * Spectrum algorithm which uses the parameters of the ocean it is
+	 * evaluated for, see {@link Ocean#JONSWAP}.
+	 * <br>
+	 * It is only a marker, table builds resolve it once to an immutable<br>
+	 * {@link OceanSpectrum} for the captured parameters, see<br>
+	 * {@link Ocean#resolveSpectrumAlgorithm}. Evaluating it directly builds<br>
+	 * the radial tables on every call.
+	 */
+	static final class OceanDriven implements SpectrumAlgorithm {
+
+		private final Shape shape;
+
+		OceanDriven(Shape shape) {
+			this.shape = shape;
+		}
+
+		Shape getShape() {
+			return shape;
+		}
+
+		@Override
+		public float spectrum(Ocean water, Vector2f k) {
+			return create(shape, water.getWindSpeed(), water.getWindDirection(), water.getFetch(), water.getDepth(), water.getAmplitude(),
+				water.getGravity()).spectrum(water, k);
+		}
+
+		@Override
+		public String toString() {
+			return shape.name();
+		}
+	}
+
+	/**
+	 * Kitaigorodskii depth attenuation of the given dimensionless
+	 * frequency <code>w sqrt(h / g)</code>.
+	 */
+	private static double attenuation(double w) {
+		if (w <= 1.0) {
+			return 0.5 * w * w;
+		}
+		if (w < 2.0) {
+			return 1.0 - 0.5 * (2.0 - w) * (2.0 - w);
+		}
+		return 1.0;
+	}
+
+	/**
+	 * Normalization of the spreading, so it integrates to 1 over all
+	 * angles.
+	 */
+	private static double normalization(double s) {
+		return StrictMath.exp((2.0 * s - 1.0) * StrictMath.log(2.0) + 2.0 * logGamma(s + 1.0) - logGamma(2.0 * s + 1.0)) / StrictMath.PI;
+	}
+
+	/**
+	 * Lanczos approximation of the logarithm of the gamma function for
+	 * positive arguments.
+	 */
+	private static double logGamma(double x) {
+		double[] c = {76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155, 0.1208650973866179E-2, -0.5395239384953E-5};
+		double y = x;
+		double t = x + 5.5;
+		t -= (x + 0.5) * StrictMath.log(t);
+		double sum = 1.000000000190015;
+		for (double value : c) {
+			sum += value / ++y;
+		}
+		return -t + StrictMath.log(2.5066282746310005 * sum / x);
+	}
+
+	@Override
+	public float spectrum(Ocean water, Vector2f k) {
+		float sqrK = k.x * k.x + k.y * k.y;
+		int bits = Float.floatToRawIntBits(sqrK * inverseSqrPeak);
+		int index = (bits >> RADIAL_SHIFT) - RADIAL_FIRST;
+		if (index < 0 || index >= radial.length - 1) {
+			return 0.0f;
+		}
+		float f = (bits & RADIAL_MASK) * (1.0f / (RADIAL_MASK + 1));
+		float value = radial[index] + (radial[index + 1] - radial[index]) * f;
+		float s = spread[index] + (spread[index + 1] - spread[index]) * f;
+
+		//log2((1 + cos theta) / 2) from the exponent and the interpolated mantissa
+		float cosK = (k.x * windDirectionX + k.y * windDirectionY) / (float) StrictMath.sqrt(sqrK);
+		int half = Float.floatToRawIntBits(Math.min(Math.max(0.5f + 0.5f * cosK, 0.0f), 1.0f));
+		int mantissa = (half >> RADIAL_SHIFT) & ((1 << RADIAL_BITS) - 1);
+		float m = (half & RADIAL_MASK) * (1.0f / (RADIAL_MASK + 1));
+		float halfLog = ((half >>> 23) - 127) + MANTISSA_LOG[mantissa] + (MANTISSA_LOG[mantissa + 1] - MANTISSA_LOG[mantissa]) * m;
+
+		return value * (float) StrictMath.exp(s * halfLog * LN_2);
+	}
+
+	public Shape getShape() {
+		return shape;
+	}
+
+	public float getWindSpeed() {
+		return windSpeed;
+	}
+
+	public Vector2f getWindDirection() {
+		return new Vector2f(windDirectionX, windDirectionY);
+	}
+
+	public float getFetch() {
+		return fetch;
+	}
+
+	public float getDepth() {
+		return depth;
+	}
+
+	public float getAmplitude() {
+		return amplitude;
+	}
+
+	public float getGravity() {
+		return gravity;
+	}
+
+	@Override
+	public String toString() {
+		return "OceanSpectrum[" + shape + ", windSpeed=" + windSpeed + ", windDirection=(" + windDirectionX + ", " + windDirectionY
+			+ "), fetch=" + fetch + ", depth=" + depth + ", amplitude=" + amplitude + ", gravity=" + gravity + "]";
+	}
+}
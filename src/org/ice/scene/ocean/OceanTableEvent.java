@@ -0,0 +1,55 @@
+package org.ice.scene.ocean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single step of an ocean table rebuild, like
+ * the spectrum, omega or butterfly generation or the texture allocation.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@Name("org.ice.ocean.Table")
+@Label("Ocean Table")
+@Category({"Ice", "Ocean"})
+@Description("Single step of an ocean table rebuild")
+@StackTrace(false)
+final class OceanTableEvent extends jdk.jfr.Event {
+
+	/**
+	 * Spectrum table step.
+	 */
+	static final String SPECTRUM = "spectrum";
+	/**
+	 * Omega table step.
+	 */
+	static final String OMEGA = "omega";
+	/**
+	 * Butterfly table step.
+	 */
+	static final String BUTTERFLY = "butterfly";
+	/**
+	 * FFT texture allocation step.
+	 */
+	static final String TEXTURES = "textures";
+
+	@Label("Step")
+	String step;
+
+	@Label("Dimension")
+	int dimension;
+
+	/**
+	 * Size of the generated table, or the GPU memory of the working
+	 * textures allocated by the {@link #TEXTURES} step.
+	 */
+	@Label("Bytes")
+	@Description("Size of the generated table or of the allocated textures")
+	@DataAmount
+	long bytes;
+}
@@ -0,0 +1,523 @@
+package org.ice.scene.ocean;
+
+import org.ice.math.FastMath;
+import org.ice.math.Vector2f;
+
+/**
+ * Pre-calculated CPU tables of the ocean simulation for a single
+ * dimension: the initial spectrum, the dispersion (omega) and the
+ * butterfly indices and weights.
+ * <br>
+ * Tables may be rectangular, the width spans the patch size along the x
+ * axis and the height spans the z axis with the same wave vector spacing.
+ * Square power of two tables come with the radix 2 butterfly table, all
+ * other sizes are transformed by {@link OceanMixedRadix} instead.
+ * <br>
+ * The tables do not depend on any graphics resources and can therefore be
+ * built on any thread.
+ * <br>
+ * The random amplitudes of the spectrum are not drawn from a sequential
+ * random number generator. Every wave vector hashes its own integer
+ * coordinates together with the seed instead. Because the wave vector
+ * spacing only depends on the patch size, the spectrum of a lower
+ * dimension is an exact subset of the spectrum of a higher dimension with
+ * the same seed, and both produce the same large scale wave field.
+ * <br>
+ * All tables are computed with strict floating point semantics and
+ * {@link StrictMath}, so the same parameters produce bit identical tables
+ * on every platform and JVM, see {@link SeaState}.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final strictfp class OceanTables {
+
+	/**
+	 * Default spectrum seed.
+	 */
+	public static final long DEFAULT_SEED = 4893555064671L;
+
+	/**
+	 * Table width and height.
+	 */
+	private final int width, height;
+	/**
+	 * Number of butterfly passes, 0 for mixed radix tables.
+	 */
+	private final int butterflies;
+	/**
+	 * Interleaved real and imaginary spectrum values, row major.
+	 */
+	private final float[] spectrum;
+	/**
+	 * Dispersion values, row major.
+	 */
+	private final float[] omega;
+	/**
+	 * Butterfly indices and weights, one row of (a, b, re, im) per pass.
+	 */
+	private final float[] butterfly;
+	/**
+	 * Sum of all spectrum magnitudes.
+	 */
+	private final float spectrumMagnitude;
+
+	private OceanTables(int width, int height, float[] spectrum, float spectrumMagnitude, float[] omega, float[] butterfly) {
+		this.width = width;
+		this.height = height;
+		this.butterflies = isRadix2(width, height) ? Integer.numberOfTrailingZeros(width) : 0;
+		this.spectrum = spectrum;
+		this.spectrumMagnitude = spectrumMagnitude;
+		this.omega = omega;
+		this.butterfly = butterfly;
+	}
+
+	/**
+	 * Builds all tables for the given ocean parameters.
+	 *
+	 * @param ocean Ocean whose parameters should be used.
+	 * @param dimension Table dimension, a power of two.
+	 * @param seed Spectrum seed.
+	 * @return New tables.
+	 */
+	public static OceanTables build(Ocean ocean, int dimension, long seed) {
+		return build(ocean, dimension, dimension, seed);
+	}
+
+	/**
+	 * Builds rectangular tables for the given ocean parameters.
+	 *
+	 * @param ocean Ocean whose parameters should be used.
+	 * @param width Table width along the x axis.
+	 * @param height Table height along the z axis.
+	 * @param seed Spectrum seed.
+	 * @return New tables.
+	 */
+	public static OceanTables build(Ocean ocean, int width, int height, long seed) {
+		return build(ocean, ocean.getSpectrumAlgorithm(), width, height, ocean.getPatchSize(), ocean.getGravity(), seed);
+	}
+
+	/**
+	 * Builds all tables for explicit parameters.
+	 * <br>
+	 * The ocean is only passed on to the spectrum algorithm and may be<br>
+	 * null if the algorithm does not use it.
+	 *
+	 * @param ocean Ocean passed to the spectrum algorithm.
+	 * @param algorithm Spectrum algorithm.
+	 * @param dimension Table dimension, a power of two.
+	 * @param patchSize Patch size.
+	 * @param gravity Gravity.
+	 * @param seed Spectrum seed.
+	 * @return New tables.
+	 */
+	public static OceanTables build(Ocean ocean, SpectrumAlgorithm algorithm, int dimension, float patchSize, float gravity, long seed) {
+		return build(ocean, algorithm, dimension, dimension, patchSize, gravity, seed);
+	}
+
+	/**
+	 * Builds rectangular tables for explicit parameters. Both sizes have<br>
+	 * to be supported by {@link OceanMixedRadix#isSupported(int)}.
+	 * <br>
+	 * The patch size is the length along the x axis, the length along the<br>
+	 * z axis is scaled by <code>height / width</code>. If an ocean is<br>
+	 * given, the built-in spectra are resolved once for its parameters.
+	 *
+	 * @param ocean Ocean passed to the spectrum algorithm.
+	 * @param algorithm Spectrum algorithm.
+	 * @param width Table width along the x axis.
+	 * @param height Table height along the z axis.
+	 * @param patchSize Patch size along the x axis.
+	 * @param gravity Gravity.
+	 * @param seed Spectrum seed.
+	 * @return New tables.
+	 */
+	public static OceanTables build(Ocean ocean, SpectrumAlgorithm algorithm, int width, int height, float patchSize, float gravity, long seed) {
+		if (!OceanMixedRadix.isSupported(width) || !OceanMixedRadix.isSupported(height)) {
+			throw new IllegalArgumentException("Table sizes have to be multiples of 8 with no prime factors other than 2, 3 and 5!");
+		}
+		if (ocean != null) {
+			//Resolve the built-in spectra once instead of per texel
+			algorithm = Ocean.resolveSpectrumAlgorithm(algorithm, ocean.getWindSpeed(), ocean.getWindDirection(), ocean.getFetch(),
+				ocean.getDepth(), ocean.getAmplitude(), ocean.getGravity());
+		}
+		OceanTableEvent event = new OceanTableEvent();
+		event.begin();
+		float[] omega = omega(width, height, patchSize, gravity);
+		commit(event, OceanTableEvent.OMEGA, width, (long) omega.length * Float.BYTES);
+
+		event = new OceanTableEvent();
+		event.begin();
+		float[] spectrum = spectrum(ocean, algorithm, width, height, patchSize, seed);
+		commit(event, OceanTableEvent.SPECTRUM, width, (long) spectrum.length * Float.BYTES);
+
+		event = new OceanTableEvent();
+		event.begin();
+		float[] butterfly = isRadix2(width, height) ? butterfly(width) : new float[0];
+		commit(event, OceanTableEvent.BUTTERFLY, width, (long) butterfly.length * Float.BYTES);
+
+		double magnitude = 0.0;
+		for (int i = 0; i < spectrum.length; i += 2) {
+			magnitude += Math.sqrt(spectrum[i] * spectrum[i] + spectrum[i + 1] * spectrum[i + 1]);
+		}
+		return new OceanTables(width, height, spectrum, (float) magnitude, omega, butterfly);
+	}
+
+	/**
+	 * Returns the patch length along the z axis, exactly the patch size for
+	 * square tables.
+	 */
+	private static float rowsLength(int width, int height, float patchSize) {
+		return width == height ? patchSize : patchSize * height / width;
+	}
+
+	private static boolean isRadix2(int width, int height) {
+		return width == height && Integer.bitCount(width) == 1;
+	}
+
+	private static void commit(OceanTableEvent event, String step, int dimension, long bytes) {
+		if (event.shouldCommit()) {
+			event.step = step;
+			event.dimension = dimension;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Creates the initial spectrum as interleaved real and imaginary values.
+	 * <br>
+	 * The Nyquist row and column are left empty, because their conjugate<br>
+	 * wave vectors are not part of the table.
+	 *
+	 * @param ocean Ocean passed to the spectrum algorithm.
+	 * @param algorithm Spectrum algorithm.
+	 * @param dimension Table dimension.
+	 * @param patchSize Patch size.
+	 * @param seed Spectrum seed.
+	 * @return Spectrum values.
+	 */
+	public static float[] spectrum(Ocean ocean, SpectrumAlgorithm algorithm, int dimension, float patchSize, long seed) {
+		return spectrum(ocean, algorithm, dimension, dimension, patchSize, seed);
+	}
+
+	/**
+	 * Creates a rectangular initial spectrum, rows run along the z axis.
+	 *
+	 * @param ocean Ocean passed to the spectrum algorithm.
+	 * @param algorithm Spectrum algorithm.
+	 * @param width Table width.
+	 * @param height Table height.
+	 * @param patchSize Patch size along the x axis.
+	 * @param seed Spectrum seed.
+	 * @return Spectrum values.
+	 */
+	public static float[] spectrum(Ocean ocean, SpectrumAlgorithm algorithm, int width, int height, float patchSize, long seed) {
+		float[] buffer = new float[width * height * 2];
+		int halfWidth = width / 2, halfHeight = height / 2;
+		float fa = 2.0f * FastMath.PI_FLOAT / patchSize;
+		float faRows = 2.0f * FastMath.PI_FLOAT / rowsLength(width, height, patchSize);
+		double[] gaussian = new double[2];
+		Vector2f k = new Vector2f(0.0f, 0.0f);
+
+		int index = 0;
+		for (int i = 0; i < height; i++) {
+			int n = i - halfHeight;
+			for (int j = 0; j < width; j++, index += 2) {
+				int m = j - halfWidth;
+				if ((n == 0 && m == 0) || i == 0 || j == 0) {
+					continue;
+				}
+				k.x = n * faRows;
+				k.y = m * fa;
+
+				float phillips = (float) StrictMath.sqrt(algorithm.spectrum(ocean, k));
+				gaussian(seed, n, m, gaussian);
+
+				buffer[index] = phillips * (float) gaussian[0] * FastMath.INV_SQRT_2_FLOAT;
+				buffer[index + 1] = phillips * (float) gaussian[1] * FastMath.INV_SQRT_2_FLOAT;
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Draws two independent standard normal values for the wave vector with
+	 * the given integer coordinates.
+	 *
+	 * @param seed Spectrum seed.
+	 * @param n First wave vector coordinate.
+	 * @param m Second wave vector coordinate.
+	 * @param result Target array of length 2.
+	 */
+	static void gaussian(long seed, int n, int m, double[] result) {
+		long state = seed ^ (((long) n << 32) | (m & 0xFFFFFFFFL));
+		long a = mix(state);
+		long b = mix(state + 0x9E3779B97F4A7C15L);
+
+		//Box-Muller transformation, u1 must not be zero
+		double u1 = ((a >>> 11) + 1) * 0x1.0p-53;
+		double u2 = (b >>> 11) * 0x1.0p-53;
+		double r = StrictMath.sqrt(-2.0 * StrictMath.log(u1));
+		double theta = 2.0 * StrictMath.PI * u2;
+		result[0] = r * StrictMath.cos(theta);
+		result[1] = r * StrictMath.sin(theta);
+	}
+
+	/**
+	 * SplitMix64 finalizer.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Creates the dispersion table.
+	 *
+	 * @param dimension Table dimension.
+	 * @param patchSize Patch size.
+	 * @param gravity Gravity.
+	 * @return Omega values.
+	 */
+	public static float[] omega(int dimension, float patchSize, float gravity) {
+		return omega(dimension, dimension, patchSize, gravity);
+	}
+
+	/**
+	 * Creates a rectangular dispersion table, rows run along the z axis.
+	 *
+	 * @param width Table width.
+	 * @param height Table height.
+	 * @param patchSize Patch size along the x axis.
+	 * @param gravity Gravity.
+	 * @return Omega values.
+	 */
+	public static float[] omega(int width, int height, float patchSize, float gravity) {
+		float[] buffer = new float[width * height];
+
+		float x, y;
+		float nd = -width / 2.0f, ndRows = -height / 2.0f;
+		float fa = 2.0f * FastMath.PI_FLOAT / patchSize;
+		float faRows = 2.0f * FastMath.PI_FLOAT / rowsLength(width, height, patchSize);
+		int index = 0;
+		for (int i = 0; i < height; i++) {
+			x = (ndRows + i) * faRows;
+			for (int j = 0; j < width; j++) {
+				y = (nd + j) * fa;
+
+				buffer[index++] = (float) StrictMath.sqrt((gravity * 100.0f) * (float) StrictMath.sqrt(x * x + y * y));
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Creates the butterfly table.
+	 *
+	 * @param dimension Table dimension.
+	 * @return Butterfly table with <code>log2(dimension)</code> rows.
+	 */
+	public static float[] butterfly(int dimension) {
+		int butterflies = Integer.numberOfTrailingZeros(dimension);
+		float[][] indices = indices(butterflies, 2 * dimension);
+		float[][] weights = weights(butterflies, 2 * dimension, dimension);
+
+		float[] butterflyArray = new float[dimension * butterflies * 4];
+		for (int y = 0; y < butterflies; y++) {
+			int rowAdd = 4 * y * dimension;
+			for (int x = 0; x < dimension; x++) {
+				int colAdd = 4 * x;
+				butterflyArray[rowAdd + colAdd + 0] = indices[y][2 * x] / dimension;
+				butterflyArray[rowAdd + colAdd + 1] = indices[y][2 * x + 1] / dimension;
+				butterflyArray[rowAdd + colAdd + 2] = weights[y][2 * x];
+				butterflyArray[rowAdd + colAdd + 3] = weights[y][2 * x + 1];
+			}
+		}
+		return butterflyArray;
+	}
+
+	/**
+	 * Creates all indices for the butterfly transformation in the FFT.
+	 *
+	 * @param numButterflies Number of butterflies.
+	 * @param indices Number of indices.
+	 * @return Indices.
+	 */
+	public static float[][] indices(int numButterflies, int indices) {
+		float[][] res = new float[numButterflies][indices];
+
+		int iterations = indices / 2;
+		int offset = 1;
+		int start, end;
+		int step, ip;
+
+		for (int i = 0; i < numButterflies; i++) {
+			iterations >>= 1;
+			step = 2 * offset;
+			end = step;
+			start = 0;
+			ip = 0;
+			for (int j = 0; j < iterations; j++) {
+				for (int k = start, l = 0, v = ip; k < end; k += 2, l += 2, v++) {
+					res[i][k] = v;
+					res[i][k + 1] = v + offset;
+					res[i][l + end] = v;
+					res[i][l + end + 1] = v + offset;
+				}
+				start += 2 * step;
+				end += 2 * step;
+				ip += step;
+			}
+			offset <<= 1;
+		}
+
+		reverse(res[0], numButterflies);
+
+		return res;
+	}
+
+	/**
+	 * Creates all weights for the butterfly transformation in the FFT.
+	 *
+	 * @param numButterflies Number of butterflies.
+	 * @param weights Number of weights.
+	 * @param dimension Transformation size.
+	 * @return Weights.
+	 */
+	public static float[][] weights(int numButterflies, int weights, int dimension) {
+		float[][] res = new float[numButterflies][weights];
+
+		int iterations = weights / 4;
+		int numk = 1;
+		int start, end;
+
+		for (int i = 0; i < numButterflies; i++) {
+			start = 0;
+			end = 2 * numk;
+			for (int j = 0; j < iterations; j++) {
+				int kk = 0;
+				for (int k = start; k < end; k += 2) {
+					double v = 2.0 * FastMath.PI * kk * iterations / dimension;
+
+					res[i][k] = (float) StrictMath.cos(v);
+					res[i][k + 1] = (float) -StrictMath.sin(v);
+					res[i][k + 2 * numk] = (float) -StrictMath.cos(v);
+					res[i][k + 2 * numk + 1] = (float) StrictMath.sin(v);
+
+					kk++;
+				}
+				start += 4 * numk;
+				end = start + 2 * numk;
+			}
+			iterations >>= 1;
+			numk <<= 1;
+		}
+
+		return res;
+	}
+
+	/**
+	 * Reverses the bit order.
+	 *
+	 * @param indices Indices.
+	 * @param numButterflies Number of butterflies.
+	 */
+	private static void reverse(float[] indices, int numButterflies) {
+		int mask = 0x1;
+		for (int j = 0; j < indices.length; j++) {
+			int val = 0x0;
+			int temp = (int) indices[j];
+			for (int i = 0; i < numButterflies; i++) {
+				int t = (mask & temp);
+				val = (val << 1) | t;
+				temp >>= 1;
+			}
+			indices[j] = val;
+		}
+	}
+
+	/**
+	 * Returns the table dimension, which is the width of rectangular tables.
+	 *
+	 * @return Dimension.
+	 */
+	public int getDimension() {
+		return width;
+	}
+
+	/**
+	 * Returns the table width along the x axis.
+	 *
+	 * @return Width.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the table height along the z axis.
+	 *
+	 * @return Height.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns if the tables have to be transformed by
+	 * {@link OceanMixedRadix}, which is the case for rectangular and non
+	 * power of two tables. Those have no butterfly table.
+	 *
+	 * @return True for mixed radix tables.
+	 */
+	public boolean isMixedRadix() {
+		return butterflies == 0;
+	}
+
+	/**
+	 * Returns the number of butterfly passes.
+	 *
+	 * @return Butterflies.
+	 */
+	public int getButterflies() {
+		return butterflies;
+	}
+
+	/**
+	 * Returns the interleaved spectrum values.
+	 *
+	 * @return Spectrum values.
+	 */
+	public float[] getSpectrum() {
+		return spectrum;
+	}
+
+	/**
+	 * Returns the dispersion values.
+	 *
+	 * @return Omega values.
+	 */
+	public float[] getOmega() {
+		return omega;
+	}
+
+	/**
+	 * Returns the butterfly table.
+	 *
+	 * @return Butterfly table.
+	 */
+	public float[] getButterfly() {
+		return butterfly;
+	}
+
+	/**
+	 * Returns the sum of all spectrum magnitudes.
+	 *
+	 * @return Spectrum magnitude.
+	 */
+	public float getSpectrumMagnitude() {
+		return spectrumMagnitude;
+	}
+}
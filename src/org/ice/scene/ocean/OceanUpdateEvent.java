@@ -0,0 +1,45 @@
+package org.ice.scene.ocean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a rebuild of the pre-calculated ocean tables in
+ * {@link Ocean#performUpdates()}.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+@Name("org.ice.ocean.Update")
+@Label("Ocean Update")
+@Category({"Ice", "Ocean"})
+@Description("Rebuild of the spectrum, omega and butterfly tables and the FFT textures")
+@StackTrace(false)
+final class OceanUpdateEvent extends jdk.jfr.Event {
+
+	@Label("Dimension")
+	int dimension;
+
+	@Label("Patch Size")
+	float patchSize;
+
+	@Label("Wind Speed")
+	float windSpeed;
+
+	@Label("Amplitude")
+	float amplitude;
+
+	@Label("Gravity")
+	float gravity;
+
+	@Label("Spectrum Algorithm")
+	String algorithm;
+
+	@Label("Bytes Uploaded")
+	@DataAmount
+	long bytesUploaded;
+}
@@ -0,0 +1,577 @@
+package org.ice.scene.ocean;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.ice.platform.texture.ImageData;
+import org.ice.platform.texture.ImageTexture2D;
+import org.ice.platform.texture.Texture;
+import org.ice.util.BufferUtilities;
+import org.lwjgl.opengl.GL11;
+
+/**
+ * Local dynamic waves, e.g. ship wakes or explosions, which the periodic
+ * spectrum can not express.
+ * <br>
+ * The layer solves the height based wave equation on a grid of square
+ * tiles. Tiles are only allocated where disturbances exist, grow into
+ * their neighbours as the waves travel and are retired once they have
+ * decayed to zero, so the cost scales with the disturbed area and not with
+ * the ocean. All tiles are stepped in parallel with a fixed time step.
+ * <br>
+ * The heights are uploaded into a toroidal texture which covers a window
+ * of tiles around the camera. Every tile owns a fixed slot of that
+ * texture, so only tiles which changed are uploaded and moving the window
+ * only uploads the tiles which enter it. {@link Ocean#setWake(OceanWake)}
+ * composites the layer with the displacement map in the surface shader.
+ * <br>
+ * Positions are world positions on the x-z plane. The layer is not thread
+ * safe, disturb and query it from the render thread.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final class OceanWake {
+
+	/**
+	 * Cells along a tile edge.
+	 */
+	public static final int TILE_SIZE = 32;
+	/**
+	 * Simulation time step in seconds.
+	 */
+	private static final float TIME_STEP = 1.0f / 60.0f;
+	/**
+	 * Largest Courant number of a sub step, the scheme is stable up to
+	 * <code>1 / sqrt(2)</code>.
+	 */
+	private static final float MAX_COURANT = 0.5f;
+	/**
+	 * Steps which are dropped if the layer falls behind, e.g. after a
+	 * pause.
+	 */
+	private static final int MAX_STEPS = 8;
+	/**
+	 * Height below which a tile counts as calm.
+	 */
+	private static final float EPSILON = 1e-4f;
+	/**
+	 * Steps a tile has to stay calm before it is retired.
+	 */
+	private static final int RETIRE_STEPS = 30;
+	/**
+	 * Key of an empty texture slot.
+	 */
+	private static final long EMPTY = Long.MIN_VALUE;
+	/**
+	 * Heights of a calm tile.
+	 */
+	private static final float[] ZERO_TILE = new float[TILE_SIZE * TILE_SIZE];
+
+	/**
+	 * A square tile of the layer.
+	 */
+	private static final class Tile {
+
+		private final int x, z;
+		/**
+		 * Current and previous heights, row major.
+		 */
+		private float[] height = new float[TILE_SIZE * TILE_SIZE], previous = new float[TILE_SIZE * TILE_SIZE];
+		/**
+		 * Left, right, back and front neighbours, null if not allocated.
+		 */
+		private Tile left, right, back, front;
+		/**
+		 * If the tile changed since its last upload.
+		 */
+		private boolean dirty = true;
+		/**
+		 * Largest height near each edge (left, right, back, front) after
+		 * the last step.
+		 */
+		private final float[] edges = new float[4];
+		/**
+		 * Number of consecutive steps without any height or change above
+		 * the threshold.
+		 */
+		private int calmSteps;
+
+		private Tile(int x, int z) {
+			this.x = x;
+			this.z = z;
+		}
+
+		private float at(int cx, int cz) {
+			if (cx < 0) {
+				return left != null ? left.height[cz * TILE_SIZE + TILE_SIZE - 1] : 0.0f;
+			}
+			if (cx >= TILE_SIZE) {
+				return right != null ? right.height[cz * TILE_SIZE] : 0.0f;
+			}
+			if (cz < 0) {
+				return back != null ? back.height[(TILE_SIZE - 1) * TILE_SIZE + cx] : 0.0f;
+			}
+			if (cz >= TILE_SIZE) {
+				return front != null ? front.height[cx] : 0.0f;
+			}
+			return height[cz * TILE_SIZE + cx];
+		}
+
+		/**
+		 * Writes the next heights into the previous array, which only reads
+		 * the neighbours' current heights and can therefore run for all
+		 * tiles in parallel.
+		 */
+		private void step(float courant2, float damping) {
+			float[] h = height, p = previous;
+			float peak = 0.0f;
+			Arrays.fill(edges, 0.0f);
+			for (int cz = 0; cz < TILE_SIZE; cz++) {
+				boolean inner = cz > 0 && cz < TILE_SIZE - 1;
+				for (int cx = 0; cx < TILE_SIZE; cx++) {
+					int i = cz * TILE_SIZE + cx;
+					float laplacian = inner && cx > 0 && cx < TILE_SIZE - 1
+						? h[i - 1] + h[i + 1] + h[i - TILE_SIZE] + h[i + TILE_SIZE] - 4.0f * h[i]
+						: at(cx - 1, cz) + at(cx + 1, cz) + at(cx, cz - 1) + at(cx, cz + 1) - 4.0f * h[i];
+					//Damping the whole height also removes the volume a disturbance adds
+					float next = (2.0f * h[i] - p[i] + courant2 * laplacian) * damping;
+					float magnitude = Math.abs(next);
+					peak = Math.max(peak, Math.max(magnitude, Math.abs(next - h[i])));
+					p[i] = next;
+
+					if (cx < 2) {
+						edges[0] = Math.max(edges[0], magnitude);
+					} else if (cx >= TILE_SIZE - 2) {
+						edges[1] = Math.max(edges[1], magnitude);
+					}
+					if (cz < 2) {
+						edges[2] = Math.max(edges[2], magnitude);
+					} else if (cz >= TILE_SIZE - 2) {
+						edges[3] = Math.max(edges[3], magnitude);
+					}
+				}
+			}
+			calmSteps = peak > EPSILON ? 0 : calmSteps + 1;
+		}
+
+		private void swap() {
+			float[] t = height;
+			height = previous;
+			previous = t;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Cell size in world units.
+	 */
+	private final float cellSize;
+	/**
+	 * Tiles along an edge of the texture window.
+	 */
+	private final int windowTiles;
+	/**
+	 * Allocated tiles by packed tile coordinates.
+	 */
+	private final Map<Long, Tile> tiles = new HashMap<>();
+	/**
+	 * Tiles which are stepped in parallel, rebuilt when tiles are allocated
+	 * or retired.
+	 */
+	private final List<Tile> stepList = new ArrayList<>();
+	private boolean stepListValid;
+
+	/**
+	 * Wave speed in world units per second and damping per second.
+	 */
+	private float waveSpeed = 8.0f, damping = 0.5f;
+	/**
+	 * Simulation time which has not been stepped yet.
+	 */
+	private float accumulator;
+	private double lastTime = Double.NaN;
+
+	//Texture window
+	private ImageTexture2D texture;
+	private FloatBuffer uploadBuffer;
+	/**
+	 * Tile key owning every texture slot.
+	 */
+	private final long[] slots;
+	/**
+	 * First tile of the current window.
+	 */
+	private int windowX = Integer.MIN_VALUE, windowZ = Integer.MIN_VALUE;
+
+	/**
+	 * Creates a new layer with a window of 16 by 16 tiles.
+	 *
+	 * @param cellSize Cell size in world units.
+	 */
+	public OceanWake(float cellSize) {
+		this(cellSize, 16);
+	}
+
+	/**
+	 * Creates a new layer.
+	 *
+	 * @param cellSize Cell size in world units.
+	 * @param windowTiles Tiles along an edge of the window around the
+	 * camera which is rendered.
+	 */
+	public OceanWake(float cellSize, int windowTiles) {
+		if (cellSize <= 0.0f) {
+			throw new IllegalArgumentException("The cell size must be positive!");
+		}
+		if (windowTiles < 2) {
+			throw new IllegalArgumentException("The window must be at least 2 tiles wide!");
+		}
+		this.cellSize = cellSize;
+		this.windowTiles = windowTiles;
+		this.slots = new long[windowTiles * windowTiles];
+		Arrays.fill(slots, EMPTY);
+	}
+
+	private static long key(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	private Tile tile(int x, int z, boolean allocate) {
+		long key = key(x, z);
+		Tile tile = tiles.get(key);
+		if (tile == null && allocate) {
+			tile = new Tile(x, z);
+			tile.left = tiles.get(key(x - 1, z));
+			tile.right = tiles.get(key(x + 1, z));
+			tile.back = tiles.get(key(x, z - 1));
+			tile.front = tiles.get(key(x, z + 1));
+			if (tile.left != null) {
+				tile.left.right = tile;
+			}
+			if (tile.right != null) {
+				tile.right.left = tile;
+			}
+			if (tile.back != null) {
+				tile.back.front = tile;
+			}
+			if (tile.front != null) {
+				tile.front.back = tile;
+			}
+			tiles.put(key, tile);
+			stepListValid = false;
+		}
+		return tile;
+	}
+
+	/**
+	 * Raises (or lowers) the surface around the given position with a
+	 * smooth bump, e.g. once per frame along the path of a ship or once for
+	 * an explosion.
+	 *
+	 * @param x World x coordinate.
+	 * @param z World z coordinate.
+	 * @param radius Radius in world units.
+	 * @param height Height added at the center.
+	 */
+	public void disturb(float x, float z, float radius, float height) {
+		int x0 = (int) Math.floor((x - radius) / cellSize), x1 = (int) Math.ceil((x + radius) / cellSize);
+		int z0 = (int) Math.floor((z - radius) / cellSize), z1 = (int) Math.ceil((z + radius) / cellSize);
+		for (int cz = z0; cz <= z1; cz++) {
+			for (int cx = x0; cx <= x1; cx++) {
+				float dx = cx * cellSize - x, dz = cz * cellSize - z;
+				float distance = (float) Math.sqrt(dx * dx + dz * dz) / radius;
+				if (distance >= 1.0f) {
+					continue;
+				}
+				//Cosine falloff, smooth at the border
+				float amount = height * 0.5f * (1.0f + (float) Math.cos(Math.PI * distance));
+				Tile tile = tile(Math.floorDiv(cx, TILE_SIZE), Math.floorDiv(cz, TILE_SIZE), true);
+				tile.height[Math.floorMod(cz, TILE_SIZE) * TILE_SIZE + Math.floorMod(cx, TILE_SIZE)] += amount;
+				tile.calmSteps = 0;
+				tile.dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Advances the layer to the given simulation time in fixed steps.
+	 *
+	 * @param time Simulation time in seconds.
+	 */
+	public void update(double time) {
+		if (!Double.isNaN(lastTime) && time > lastTime) {
+			accumulator += (float) (time - lastTime);
+		}
+		lastTime = time;
+
+		int steps = 0;
+		while (accumulator >= TIME_STEP && steps < MAX_STEPS) {
+			step(TIME_STEP);
+			accumulator -= TIME_STEP;
+			steps++;
+		}
+		if (steps == MAX_STEPS) {
+			accumulator = 0.0f;
+		}
+	}
+
+	/**
+	 * Advances the layer by the given time, with as many sub steps as the
+	 * wave speed requires.
+	 *
+	 * @param dt Time step in seconds.
+	 */
+	public void step(float dt) {
+		if (tiles.isEmpty()) {
+			return;
+		}
+		int substeps = Math.max(1, (int) Math.ceil(waveSpeed * dt / (cellSize * MAX_COURANT)));
+		float h = dt / substeps;
+		float courant = waveSpeed * h / cellSize;
+		float courant2 = courant * courant;
+		float factor = (float) Math.exp(-damping * h);
+
+		for (int s = 0; s < substeps; s++) {
+			if (!stepListValid) {
+				stepList.clear();
+				stepList.addAll(tiles.values());
+				stepListValid = true;
+			}
+			stepList.parallelStream().forEach(tile -> tile.step(courant2, factor));
+			for (Tile tile : stepList) {
+				tile.swap();
+			}
+			grow();
+		}
+		retire();
+	}
+
+	/**
+	 * Allocates the missing neighbours of tiles whose waves reach an edge.
+	 */
+	private void grow() {
+		for (int i = 0, n = stepList.size(); i < n; i++) {
+			Tile tile = stepList.get(i);
+			if (tile.left == null && tile.edges[0] > EPSILON) {
+				tile(tile.x - 1, tile.z, true);
+			}
+			if (tile.right == null && tile.edges[1] > EPSILON) {
+				tile(tile.x + 1, tile.z, true);
+			}
+			if (tile.back == null && tile.edges[2] > EPSILON) {
+				tile(tile.x, tile.z - 1, true);
+			}
+			if (tile.front == null && tile.edges[3] > EPSILON) {
+				tile(tile.x, tile.z + 1, true);
+			}
+		}
+	}
+
+	/**
+	 * Retires all tiles which have been calm for a while. New tiles start
+	 * calm, the delay keeps them alive until the waves arrive.
+	 */
+	private void retire() {
+		for (Iterator<Tile> it = tiles.values().iterator(); it.hasNext();) {
+			Tile tile = it.next();
+			if (tile.calmSteps < RETIRE_STEPS) {
+				continue;
+			}
+			it.remove();
+			if (tile.left != null) {
+				tile.left.right = null;
+			}
+			if (tile.right != null) {
+				tile.right.left = null;
+			}
+			if (tile.back != null) {
+				tile.back.front = null;
+			}
+			if (tile.front != null) {
+				tile.front.back = null;
+			}
+			stepListValid = false;
+		}
+	}
+
+	/**
+	 * Returns the wake height at the given position, bilinearly filtered
+	 * like in the surface shader.
+	 *
+	 * @param x World x coordinate.
+	 * @param z World z coordinate.
+	 * @return Height.
+	 */
+	public float getHeight(float x, float z) {
+		float fx = x / cellSize, fz = z / cellSize;
+		int cx = (int) Math.floor(fx), cz = (int) Math.floor(fz);
+		float tx = fx - cx, tz = fz - cz;
+		float h00 = cell(cx, cz), h10 = cell(cx + 1, cz);
+		float h01 = cell(cx, cz + 1), h11 = cell(cx + 1, cz + 1);
+		return (h00 * (1.0f - tx) + h10 * tx) * (1.0f - tz) + (h01 * (1.0f - tx) + h11 * tx) * tz;
+	}
+
+	private float cell(int cx, int cz) {
+		Tile tile = tile(Math.floorDiv(cx, TILE_SIZE), Math.floorDiv(cz, TILE_SIZE), false);
+		return tile != null ? tile.height[Math.floorMod(cz, TILE_SIZE) * TILE_SIZE + Math.floorMod(cx, TILE_SIZE)] : 0.0f;
+	}
+
+	/**
+	 * Moves the texture window to the given position and uploads every
+	 * tile of the window which changed or entered it.
+	 *
+	 * @param x World x coordinate of the window center.
+	 * @param z World z coordinate of the window center.
+	 * @return Number of uploaded tiles.
+	 */
+	int upload(float x, float z) {
+		int size = windowTiles * TILE_SIZE;
+		if (texture == null) {
+			texture = new ImageTexture2D(ImageData.Format.R32F, size, size);
+			texture.setMagFilter(Texture.MagFilter.BILINEAR);
+			texture.setMinFilter(Texture.MinFilter.BILINEAR);
+			texture.setWrapMode(Texture.WrapAxis.S, Texture.WrapMode.REPEAT);
+			texture.setWrapMode(Texture.WrapAxis.T, Texture.WrapMode.REPEAT);
+			texture.setDepthTexture(false);
+			uploadBuffer = BufferUtilities.createFloatBuffer(TILE_SIZE * TILE_SIZE);
+			//The new texture is undefined, so every slot has to be written once
+			Arrays.fill(slots, key(Integer.MAX_VALUE, Integer.MAX_VALUE));
+		}
+		windowX = (int) Math.floor(x / (cellSize * TILE_SIZE)) - windowTiles / 2;
+		windowZ = (int) Math.floor(z / (cellSize * TILE_SIZE)) - windowTiles / 2;
+
+		int uploaded = 0;
+		texture.bind();
+		for (int tz = windowZ; tz < windowZ + windowTiles; tz++) {
+			for (int tx = windowX; tx < windowX + windowTiles; tx++) {
+				int sx = Math.floorMod(tx, windowTiles), sz = Math.floorMod(tz, windowTiles);
+				int slot = sz * windowTiles + sx;
+				Tile tile = tile(tx, tz, false);
+				long owner = tile != null ? key(tx, tz) : EMPTY;
+				if (owner == slots[slot] && (tile == null || !tile.dirty)) {
+					continue;
+				}
+
+				uploadBuffer.clear();
+				if (tile != null) {
+					uploadBuffer.put(tile.height);
+					tile.dirty = false;
+				} else {
+					uploadBuffer.put(ZERO_TILE);
+				}
+				uploadBuffer.flip();
+				GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, sx * TILE_SIZE, sz * TILE_SIZE, TILE_SIZE, TILE_SIZE, GL11.GL_RED, GL11.GL_FLOAT, uploadBuffer);
+				slots[slot] = owner;
+				uploaded++;
+			}
+		}
+		return uploaded;
+	}
+
+	/**
+	 * Returns the texture window, null before the first upload.
+	 *
+	 * @return Wake texture.
+	 */
+	ImageTexture2D getTexture() {
+		return texture;
+	}
+
+	/**
+	 * Returns the world x coordinate of the first window texel.
+	 *
+	 * @return Window origin x.
+	 */
+	float getWindowOriginX() {
+		return windowX * TILE_SIZE * cellSize;
+	}
+
+	/**
+	 * Returns the world z coordinate of the first window texel.
+	 *
+	 * @return Window origin z.
+	 */
+	float getWindowOriginZ() {
+		return windowZ * TILE_SIZE * cellSize;
+	}
+
+	/**
+	 * Returns the window size in world units, which is also the period of
+	 * the toroidal texture.
+	 *
+	 * @return Window size.
+	 */
+	float getWindowSize() {
+		return windowTiles * TILE_SIZE * cellSize;
+	}
+
+	/**
+	 * Removes all waves.
+	 */
+	public void clear() {
+		tiles.clear();
+		stepListValid = false;
+	}
+
+	/**
+	 * Frees the texture window.
+	 */
+	public void dispose() {
+		if (texture != null) {
+			texture.dispose();
+			texture = null;
+		}
+		Arrays.fill(slots, EMPTY);
+	}
+
+	/**
+	 * Returns the number of allocated tiles.
+	 *
+	 * @return Active tiles.
+	 */
+	public int getActiveTiles() {
+		return tiles.size();
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Sets the wave speed in world units per second.
+	 *
+	 * @param waveSpeed Wave speed.
+	 */
+	public void setWaveSpeed(float waveSpeed) {
+		if (waveSpeed <= 0.0f) {
+			throw new IllegalArgumentException("The wave speed must be positive!");
+		}
+		this.waveSpeed = waveSpeed;
+	}
+
+	public float getWaveSpeed() {
+		return waveSpeed;
+	}
+
+	/**
+	 * Sets the damping per second, the waves decay by
+	 * <code>exp(-damping)</code> every second.
+	 *
+	 * @param damping Damping.
+	 */
+	public void setDamping(float damping) {
+		if (damping < 0.0f) {
+			throw new IllegalArgumentException("The damping must not be negative!");
+		}
+		this.damping = damping;
+	}
+
+	public float getDamping() {
+		return damping;
+	}
+}
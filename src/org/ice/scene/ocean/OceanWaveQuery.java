@@ -0,0 +1,353 @@
+package org.ice.scene.ocean;
+
+/**
+ * Analytic point queries of the ocean displacement without a grid and
+ * without the GPU.
+ * <br>
+ * Every texel of the spectrum table is one travelling wave of the FFT
+ * field. The query keeps the <code>K</code> waves with the largest
+ * amplitude and evaluates them as a sum of choppy (Gerstner) waves at
+ * arbitrary points and times, so a query costs <code>O(K * points)</code>
+ * regardless of the dimension. With all waves the result equals the
+ * displacement map of {@link OceanReference} at the texel centers and
+ * interpolates it exactly in between.
+ * <br>
+ * Points are given in patch coordinates: texel (x, y) of the displacement
+ * map lies at <code>(x, y) * patchSize / dimension</code> and the field
+ * repeats every <code>patchSize</code>, along the z axis of rectangular
+ * tables every <code>patchSize * height / width</code>. Like the
+ * displacement map the
+ * horizontal components are not multiplied with the choppy scale.
+ * <br>
+ * Dropping waves can never change a displacement component by more than
+ * {@link #getErrorBound()}, which is the sum of the dropped amplitudes.
+ * The bound is conservative, the typical error follows from
+ * {@link #getEnergyFraction()}.
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final class OceanWaveQuery {
+
+	/**
+	 * Table dimension and height, which equals the dimension for square
+	 * tables.
+	 */
+	private final int dimension, dimensionZ;
+	/**
+	 * Points evaluated together, which bounds the size of the rotation
+	 * tables.
+	 */
+	private static final int BLOCK = 64;
+
+	/**
+	 * Base wave numbers along the x and z axis in patch coordinates.
+	 */
+	private final double fundamental, fundamentalZ;
+	/**
+	 * Per wave: integer wave numbers, the wave vector is
+	 * <code>(m * fundamental, n * fundamentalZ)</code>.
+	 */
+	private final int[] m, n;
+	/**
+	 * Largest absolute wave numbers of all waves.
+	 */
+	private final int maxM, maxN;
+	/**
+	 * Per wave: dispersion, phase at time zero, amplitude and horizontal
+	 * direction.
+	 */
+	private final double[] omega, phase, amplitude, directionX, directionZ;
+	/**
+	 * Largest possible error of a displacement component.
+	 */
+	private final double errorBound;
+	/**
+	 * Fraction of the spectrum energy the selected waves carry.
+	 */
+	private final double energyFraction;
+
+	/**
+	 * Creates a new query of the most energetic waves of the given tables.
+	 *
+	 * @param tables Ocean tables.
+	 * @param patchSize Patch size the tables were built with.
+	 * @param components Number of waves, at most the number of spectrum
+	 * texels.
+	 */
+	public OceanWaveQuery(OceanTables tables, float patchSize, int components) {
+		dimension = tables.getWidth();
+		dimensionZ = tables.getHeight();
+		int texels = dimension * dimensionZ;
+		if (components < 1 || components > texels) {
+			throw new IllegalArgumentException("The number of components must be between 1 and " + texels + "!");
+		}
+
+		float[] spectrum = tables.getSpectrum();
+		float[] omegas = tables.getOmega();
+		double scale = 2.0 * Ocean.DISPLACEMENT_AMPLITUDE / (patchSize * (patchSize * 0.01));
+		double[] magnitudes = new double[texels];
+		double total = 0.0, totalEnergy = 0.0;
+		for (int i = 0; i < texels; i++) {
+			magnitudes[i] = scale * Math.hypot(spectrum[2 * i], spectrum[2 * i + 1]);
+			total += magnitudes[i];
+			totalEnergy += magnitudes[i] * magnitudes[i];
+		}
+
+		int[] selected = largest(magnitudes, components);
+		m = new int[components];
+		n = new int[components];
+		omega = new double[components];
+		phase = new double[components];
+		amplitude = new double[components];
+		directionX = new double[components];
+		directionZ = new double[components];
+
+		fundamental = 2.0 * Math.PI / patchSize;
+		fundamentalZ = fundamental * dimension / dimensionZ;
+		double kept = 0.0, keptEnergy = 0.0;
+		int mm = 0, mn = 0;
+		for (int c = 0; c < components; c++) {
+			int index = selected[c];
+			//Same wave vector and direction as the spectrum displacement and the FFT
+			m[c] = index % dimension - dimension / 2;
+			n[c] = index / dimension - dimensionZ / 2;
+			mm = Math.max(mm, Math.abs(m[c]));
+			mn = Math.max(mn, Math.abs(n[c]));
+			//The direction follows the texture coordinates (m / width, n / height)
+			double kx = (double) m[c] * dimensionZ, kz = (double) n[c] * dimension;
+			double length = Math.hypot(kx, kz);
+			directionX[c] = length > 0.0 ? kx / length : 0.0;
+			directionZ[c] = length > 0.0 ? kz / length : 0.0;
+			omega[c] = omegas[index];
+			phase[c] = Math.atan2(spectrum[2 * index + 1], spectrum[2 * index]);
+			amplitude[c] = magnitudes[index];
+			kept += magnitudes[index];
+			keptEnergy += magnitudes[index] * magnitudes[index];
+		}
+		maxM = mm;
+		maxN = mn;
+		errorBound = Math.max(total - kept, 0.0);
+		energyFraction = totalEnergy > 0.0 ? keptEnergy / totalEnergy : 1.0;
+	}
+
+	/**
+	 * Returns the indices of the <code>count</code> largest values, using a
+	 * min-heap of the current candidates.
+	 */
+	private static int[] largest(double[] values, int count) {
+		int[] heap = new int[count];
+		int size = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (size < count) {
+				heap[size] = i;
+				siftUp(heap, size++, values);
+			} else if (values[i] > values[heap[0]]) {
+				heap[0] = i;
+				siftDown(heap, size, values);
+			}
+		}
+		return heap;
+	}
+
+	private static void siftUp(int[] heap, int child, double[] values) {
+		while (child > 0) {
+			int parent = (child - 1) / 2;
+			if (values[heap[parent]] <= values[heap[child]]) {
+				return;
+			}
+			int swap = heap[parent];
+			heap[parent] = heap[child];
+			heap[child] = swap;
+			child = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, double[] values) {
+		int parent = 0;
+		while (true) {
+			int child = 2 * parent + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && values[heap[child + 1]] < values[heap[child]]) {
+				child++;
+			}
+			if (values[heap[parent]] <= values[heap[child]]) {
+				return;
+			}
+			int swap = heap[parent];
+			heap[parent] = heap[child];
+			heap[child] = swap;
+			parent = child;
+		}
+	}
+
+	/**
+	 * Evaluates the displacement at the given points.
+	 * <br>
+	 * The wave vectors are integer multiples of the fundamental wave<br>
+	 * number, so every point only needs one sine and cosine per axis. The<br>
+	 * rotations of all wave numbers follow by complex multiplication and<br>
+	 * each wave costs two complex products per point. The points are<br>
+	 * processed in blocks, the innermost loops run over the points of a<br>
+	 * block and can be vectorized.
+	 *
+	 * @param x Point x coordinates in patch coordinates.
+	 * @param z Point z coordinates in patch coordinates.
+	 * @param count Number of points.
+	 * @param time Spectrum time, see {@link Ocean#getSpectrumTime()}.
+	 * @param dx Target of the x displacements.
+	 * @param dy Target of the heights.
+	 * @param dz Target of the z displacements.
+	 */
+	public void query(float[] x, float[] z, int count, double time, float[] dx, float[] dy, float[] dz) {
+		OceanQueryEvent event = new OceanQueryEvent();
+		event.begin();
+
+		//Rotations exp(-i * m * fundamental * x) for m in [0, maxM], one row per wave number
+		int block = Math.max(Math.min(BLOCK, count), 1);
+		double[] rxr = new double[(maxM + 1) * block], rxi = new double[(maxM + 1) * block];
+		double[] rzr = new double[(maxN + 1) * block], rzi = new double[(maxN + 1) * block];
+		double[] sx = new double[block], sy = new double[block], sz = new double[block];
+		double[] offsetRe = new double[m.length], offsetIm = new double[m.length];
+		for (int c = 0; c < m.length; c++) {
+			double offset = (phase[c] + omega[c] * time) % (2.0 * Math.PI);
+			offsetRe[c] = amplitude[c] * Math.cos(offset);
+			offsetIm[c] = amplitude[c] * Math.sin(offset);
+		}
+
+		for (int start = 0; start < count; start += block) {
+			int size = Math.min(block, count - start);
+			rotations(x, start, size, block, maxM, fundamental, rxr, rxi);
+			rotations(z, start, size, block, maxN, fundamentalZ, rzr, rzi);
+			for (int i = 0; i < size; i++) {
+				sx[i] = sy[i] = sz[i] = 0.0;
+			}
+
+			for (int c = 0; c < m.length; c++) {
+				//Negative wave numbers use the conjugate rotation
+				int rowX = Math.abs(m[c]) * block, rowZ = Math.abs(n[c]) * block;
+				double signX = m[c] < 0 ? -1.0 : 1.0, signZ = n[c] < 0 ? -1.0 : 1.0;
+				double ar = offsetRe[c], ai = offsetIm[c];
+				double ux = directionX[c], uz = directionZ[c];
+				for (int i = 0; i < size; i++) {
+					double xr = rxr[rowX + i], xi = signX * rxi[rowX + i];
+					double zr = rzr[rowZ + i], zi = signZ * rzi[rowZ + i];
+					double pr = xr * zr - xi * zi, pi = xr * zi + xi * zr;
+					//amplitude * exp(i * (offset - k * p)) = amplitude * (cos + i * sin)
+					double cos = ar * pr - ai * pi, sin = ar * pi + ai * pr;
+					sx[i] += ux * sin;
+					sy[i] += cos;
+					sz[i] += uz * sin;
+				}
+			}
+
+			for (int i = 0; i < size; i++) {
+				dx[start + i] = (float) sx[i];
+				dy[start + i] = (float) sy[i];
+				dz[start + i] = (float) sz[i];
+			}
+		}
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = "wave query";
+			event.dimension = dimension;
+			event.points = count;
+			event.bytes = 3L * count * Float.BYTES;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Fills the rotation rows 0 to <code>max</code> of a block of points.
+	 */
+	private static void rotations(float[] coordinates, int start, int size, int block, int max, double base, double[] re, double[] im) {
+		for (int i = 0; i < size; i++) {
+			double angle = base * coordinates[start + i];
+			re[i] = 1.0;
+			im[i] = 0.0;
+			if (max > 0) {
+				re[block + i] = Math.cos(angle);
+				im[block + i] = -Math.sin(angle);
+			}
+		}
+		for (int row = 2; row <= max; row++) {
+			int current = row * block, previous = current - block;
+			for (int i = 0; i < size; i++) {
+				double br = re[block + i], bi = im[block + i];
+				double pr = re[previous + i], pi = im[previous + i];
+				re[current + i] = pr * br - pi * bi;
+				im[current + i] = pr * bi + pi * br;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the height at a single point. Use
+	 * {@link #query(float[], float[], int, double, float[], float[], float[])}
+	 * for many points.
+	 *
+	 * @param x Point x coordinate in patch coordinates.
+	 * @param z Point z coordinate in patch coordinates.
+	 * @param time Spectrum time, see {@link Ocean#getSpectrumTime()}.
+	 * @return Height.
+	 */
+	public float height(float x, float z, double time) {
+		double height = 0.0;
+		for (int c = 0; c < m.length; c++) {
+			height += amplitude[c] * Math.cos(phase[c] + omega[c] * time - (fundamental * m[c] * x + fundamentalZ * n[c] * z));
+		}
+		return (float) height;
+	}
+
+	/**
+	 * Returns the number of evaluated waves.
+	 *
+	 * @return Number of waves.
+	 */
+	public int getComponents() {
+		return m.length;
+	}
+
+	/**
+	 * Returns the largest possible difference of any displacement component
+	 * to the full FFT field, at any point and time.
+	 *
+	 * @return Error bound.
+	 */
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * Returns the fraction of the spectrum energy the evaluated waves carry.
+	 * The RMS error of the heights is roughly
+	 * <code>sqrt(1 - fraction)</code> times the RMS height.
+	 *
+	 * @return Energy fraction between 0 and 1.
+	 */
+	public double getEnergyFraction() {
+		return energyFraction;
+	}
+
+	/**
+	 * Returns the table dimension, which is the width of rectangular tables.
+	 *
+	 * @return Dimension.
+	 */
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * Returns the table height.
+	 *
+	 * @return Height.
+	 */
+	public int getDimensionZ() {
+		return dimensionZ;
+	}
+}
@@ -0,0 +1,337 @@
+package org.ice.scene.ocean;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.ice.shader.Shader;
+import org.ice.shader.ShaderProgram;
+import org.ice.util.AssetManager;
+import org.ice.util.BufferUtilities;
+import org.ice.util.LoggerFactory;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL41;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * On-disk cache of linked program binaries, shared by all oceans.
+ * <br>
+ * Binaries are keyed by a SHA-256 hash over the driver vendor, renderer
+ * and version string and the type and source of every shader, with all
+ * <code>#include</code> directives expanded. Changing a shader, one of its
+ * libraries or the driver therefore always misses the cache. Binaries the
+ * driver rejects are deleted, so the program is compiled from source again
+ * and the cache entry is replaced.
+ * <br>
+ * The cache directory can be set with the system property
+ * <code>ice.ocean.shaderCache</code> and defaults to a directory in the
+ * temporary folder. The value <code>off</code> disables the cache.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class ProgramBinaryCache {
+
+	/**
+	 * Class logger.
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(ProgramBinaryCache.class);
+	/**
+	 * File header of every cache entry.
+	 */
+	private static final int MAGIC = 0x4F504243;
+	/**
+	 * Value of the cache directory property which disables the cache.
+	 */
+	private static final String OFF = "off";
+	/**
+	 * Include directive of the engine shader preprocessor.
+	 */
+	private static final Pattern INCLUDE = Pattern.compile("^\\s*#include\\s+\"([^\"]+)\"", Pattern.MULTILINE);
+	/**
+	 * Shared cache instance.
+	 */
+	private static final ProgramBinaryCache SHARED = new ProgramBinaryCache(Paths.get(System.getProperty("ice.ocean.shaderCache",
+		Paths.get(System.getProperty("java.io.tmpdir"), "ice-ocean-shaders").toString())));
+
+	/**
+	 * Cache directory.
+	 */
+	private final Path directory;
+	/**
+	 * Binaries loaded or stored during this run, by key.
+	 */
+	private final Map<String, byte[]> binaries = new ConcurrentHashMap<>();
+	/**
+	 * Expanded library sources, by include path.
+	 */
+	private final Map<String, String> libraries = new ConcurrentHashMap<>();
+	/**
+	 * Driver identification, resolved on first use.
+	 */
+	private String driver;
+	/**
+	 * If the driver supports program binaries at all.
+	 */
+	private boolean supported;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param directory Cache directory.
+	 */
+	ProgramBinaryCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the cache shared by all oceans.
+	 *
+	 * @return Shared cache.
+	 */
+	static ProgramBinaryCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Resolves the driver identification. Must be called on the render
+	 * thread.
+	 *
+	 * @return If program binaries are supported.
+	 */
+	private synchronized boolean initialize() {
+		if (driver == null) {
+			driver = GL11.glGetString(GL11.GL_VENDOR) + '\n' + GL11.glGetString(GL11.GL_RENDERER) + '\n' + GL11.glGetString(GL11.GL_VERSION);
+			supported = GL11.glGetInteger(GL41.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+			if (!supported) {
+				LOG.log(Level.INFO, "The driver does not support program binaries, ocean shaders are always compiled from source");
+			}
+		}
+		return supported;
+	}
+
+	/**
+	 * Computes the cache key of the given program.
+	 *
+	 * @param program Shader program.
+	 * @return Cache key or null if binaries are not supported or the cache
+	 * is off.
+	 */
+	String key(ShaderProgram program) {
+		if (directory.toString().equals(OFF) || !initialize()) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(driver.getBytes(StandardCharsets.UTF_8));
+			for (Shader shader : program.getShaders()) {
+				digest.update(shader.getClass().getName().getBytes(StandardCharsets.UTF_8));
+				digest.update(expand(shader.getSource(), new HashSet<>()).getBytes(StandardCharsets.UTF_8));
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not available!", ex);
+		}
+	}
+
+	/**
+	 * Appends the sources of all included libraries to the given source.
+	 */
+	private String expand(String source, Set<String> visited) {
+		StringBuilder sb = new StringBuilder(source);
+		Matcher matcher = INCLUDE.matcher(source);
+		while (matcher.find()) {
+			String path = matcher.group(1);
+			if (!visited.add(path)) {
+				continue;
+			}
+			String library = libraries.computeIfAbsent(path, p -> {
+				InputStream in = ProgramBinaryCache.class.getResourceAsStream("/" + p);
+				return in == null ? "" : AssetManager.loadTextSuppressed(in);
+			});
+			sb.append('\n').append(expand(library, visited));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a program from the cached binary of the given key.
+	 *
+	 * @param key Cache key.
+	 * @return Linked program or 0 if there is no valid binary.
+	 */
+	int load(String key) {
+		byte[] entry = binaries.get(key);
+		Path file = directory.resolve(key + ".bin");
+		if (entry == null) {
+			if (!Files.isRegularFile(file)) {
+				return 0;
+			}
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Invalid header");
+				}
+				entry = new byte[in.readInt() + Integer.BYTES];
+				in.readFully(entry);
+			} catch (IOException ex) {
+				LOG.log(Level.WARNING, "Unable to read program binary " + file, ex);
+				delete(file);
+				return 0;
+			}
+		}
+
+		ByteBuffer buffer = BufferUtilities.createByteBuffer(entry.length - Integer.BYTES);
+		buffer.put(entry, Integer.BYTES, entry.length - Integer.BYTES).flip();
+		int format = ByteBuffer.wrap(entry, 0, Integer.BYTES).getInt();
+
+		int program = GL20.glCreateProgram();
+		GL41.glProgramParameteri(program, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+		GL41.glProgramBinary(program, format, buffer);
+		if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) != GL11.GL_TRUE) {
+			//The driver changed in a way the key does not capture
+			LOG.log(Level.FINE, "Program binary {0} rejected by the driver", key);
+			GL20.glDeleteProgram(program);
+			binaries.remove(key);
+			delete(file);
+			return 0;
+		}
+		binaries.put(key, entry);
+		return program;
+	}
+
+	/**
+	 * Stores the binary of the given linked program.
+	 * <br>
+	 * Some drivers only return a binary if the retrievable hint was set<br>
+	 * before the first link. {@link ShaderProgram#compile()} links without<br>
+	 * a hook in between, so the binary is taken from a second program,<br>
+	 * see {@link #linkRetrievable(int)}. The given program is not touched.
+	 *
+	 * @param key Cache key.
+	 * @param program Linked program.
+	 */
+	void store(String key, int program) {
+		int retrievable = linkRetrievable(program);
+		try {
+			write(key, retrievable != 0 ? retrievable : program);
+		} finally {
+			if (retrievable != 0) {
+				GL20.glDeleteProgram(retrievable);
+			}
+		}
+	}
+
+	/**
+	 * Links the shaders attached to the given program into a new program
+	 * with the retrievable hint set before its first link. The attribute
+	 * and fragment output locations of the given program are bound first,
+	 * so the binary behaves exactly like it.
+	 *
+	 * @param program Linked program.
+	 * @return New program, 0 if the shaders were detached or the link
+	 * failed.
+	 */
+	private static int linkRetrievable(int program) {
+		int count = GL20.glGetProgrami(program, GL20.GL_ATTACHED_SHADERS);
+		if (count <= 0) {
+			return 0;
+		}
+		IntBuffer written = BufferUtilities.createIntBuffer(1);
+		IntBuffer shaders = BufferUtilities.createIntBuffer(count);
+		GL20.glGetAttachedShaders(program, written, shaders);
+
+		int retrievable = GL20.glCreateProgram();
+		for (int i = 0; i < written.get(0); i++) {
+			GL20.glAttachShader(retrievable, shaders.get(i));
+		}
+		IntBuffer size = BufferUtilities.createIntBuffer(1);
+		IntBuffer type = BufferUtilities.createIntBuffer(1);
+		int attributes = GL20.glGetProgrami(program, GL20.GL_ACTIVE_ATTRIBUTES);
+		for (int i = 0; i < attributes; i++) {
+			String name = GL20.glGetActiveAttrib(program, i, size, type);
+			if (!name.startsWith("gl_")) {
+				GL20.glBindAttribLocation(retrievable, GL20.glGetAttribLocation(program, name), name);
+			}
+		}
+		int outputs = GL43.glGetProgramInterfacei(program, GL43.GL_PROGRAM_OUTPUT, GL43.GL_ACTIVE_RESOURCES);
+		for (int i = 0; i < outputs; i++) {
+			String name = GL43.glGetProgramResourceName(program, GL43.GL_PROGRAM_OUTPUT, i);
+			if (!name.startsWith("gl_")) {
+				GL30.glBindFragDataLocation(retrievable, GL43.glGetProgramResourceLocation(program, GL43.GL_PROGRAM_OUTPUT, name), name);
+			}
+		}
+
+		GL41.glProgramParameteri(retrievable, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+		GL20.glLinkProgram(retrievable);
+		if (GL20.glGetProgrami(retrievable, GL20.GL_LINK_STATUS) != GL11.GL_TRUE) {
+			GL20.glDeleteProgram(retrievable);
+			return 0;
+		}
+		return retrievable;
+	}
+
+	/**
+	 * Writes the binary of the given program to the cache.
+	 */
+	private void write(String key, int program) {
+		int length = GL20.glGetProgrami(program, GL41.GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0) {
+			return;
+		}
+		IntBuffer lengthBuffer = BufferUtilities.createIntBuffer(1);
+		IntBuffer formatBuffer = BufferUtilities.createIntBuffer(1);
+		ByteBuffer buffer = BufferUtilities.createByteBuffer(length);
+		GL41.glGetProgramBinary(program, lengthBuffer, formatBuffer, buffer);
+
+		byte[] entry = new byte[Integer.BYTES + lengthBuffer.get(0)];
+		ByteBuffer.wrap(entry).putInt(formatBuffer.get(0));
+		buffer.get(entry, Integer.BYTES, lengthBuffer.get(0));
+		binaries.put(key, entry);
+
+		Path file = directory.resolve(key + ".bin");
+		try {
+			Files.createDirectories(directory);
+			//Write to a temporary file first, so concurrent readers never see partial entries
+			Path temp = Files.createTempFile(directory, key, ".tmp");
+			try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+				out.writeInt(MAGIC);
+				out.writeInt(entry.length - Integer.BYTES);
+				out.write(entry);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			LOG.log(Level.WARNING, "Unable to write program binary " + file, ex);
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException ex) {
+			LOG.log(Level.FINE, "Unable to delete program binary " + file, ex);
+		}
+	}
+}
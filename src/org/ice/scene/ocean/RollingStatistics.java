@@ -0,0 +1,158 @@
+package org.ice.scene.ocean;
+
+import java.util.Arrays;
+
+/**
+ * Rolling statistics over the most recent samples of a single value.
+ * <br>
+ * The samples are kept in a fixed size ring buffer, so recording a sample
+ * never allocates. Percentiles are computed on demand from a sorted copy
+ * of the window.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public class RollingStatistics {
+
+	/**
+	 * Sample ring buffer.
+	 */
+	private final double[] samples;
+	/**
+	 * Scratch buffer used for sorting.
+	 */
+	private final double[] sorted;
+	/**
+	 * Next write position.
+	 */
+	private int next;
+	/**
+	 * Number of valid samples.
+	 */
+	private int count;
+	/**
+	 * Total number of recorded samples.
+	 */
+	private long total;
+
+	/**
+	 * Creates new rolling statistics.
+	 *
+	 * @param window Number of samples to keep.
+	 */
+	public RollingStatistics(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("The window must hold at least one sample!");
+		}
+		samples = new double[window];
+		sorted = new double[window];
+	}
+
+	/**
+	 * Records a new sample and drops the oldest one if the window is full.
+	 *
+	 * @param value Sample value.
+	 */
+	public synchronized void add(double value) {
+		samples[next] = value;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) {
+			count++;
+		}
+		total++;
+	}
+
+	/**
+	 * Returns the number of samples inside the window.
+	 *
+	 * @return Sample count.
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of samples recorded since creation.
+	 *
+	 * @return Total sample count.
+	 */
+	public synchronized long getTotalCount() {
+		return total;
+	}
+
+	/**
+	 * Returns the most recent sample or 0.0 if there are none.
+	 *
+	 * @return Last sample.
+	 */
+	public synchronized double getLast() {
+		return count == 0 ? 0.0 : samples[(next - 1 + samples.length) % samples.length];
+	}
+
+	/**
+	 * Returns the mean of all samples inside the window.
+	 *
+	 * @return Mean value.
+	 */
+	public synchronized double getMean() {
+		if (count == 0) {
+			return 0.0;
+		}
+		double sum = 0.0;
+		for (int i = 0; i < count; i++) {
+			sum += samples[i];
+		}
+		return sum / count;
+	}
+
+	/**
+	 * Returns the given percentile of all samples inside the window using
+	 * the nearest rank method.
+	 *
+	 * @param percentile Percentile between 0.0 and 100.0.
+	 * @return Percentile value.
+	 */
+	public synchronized double getPercentile(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0) {
+			throw new IllegalArgumentException("The percentile must be between 0.0 and 100.0!");
+		}
+		if (count == 0) {
+			return 0.0;
+		}
+		System.arraycopy(samples, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		int rank = (int) Math.ceil(percentile / 100.0 * count);
+		return sorted[Math.max(rank - 1, 0)];
+	}
+
+	/**
+	 * Returns the 95th percentile.
+	 *
+	 * @return 95th percentile.
+	 */
+	public double getP95() {
+		return getPercentile(95.0);
+	}
+
+	/**
+	 * Returns the 99th percentile.
+	 *
+	 * @return 99th percentile.
+	 */
+	public double getP99() {
+		return getPercentile(99.0);
+	}
+
+	/**
+	 * Removes all samples.
+	 */
+	public synchronized void clear() {
+		next = 0;
+		count = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("mean=%.3f p95=%.3f p99=%.3f n=%d", getMean(), getP95(), getP99(), getCount());
+	}
+}
@@ -0,0 +1,495 @@
+package org.ice.scene.ocean;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.ice.math.Vector2f;
+
+/**
+ * Compact, versioned descriptor of a sea state, which lets every node of a
+ * networked simulation reconstruct the same displacement field.
+ * <br>
+ * The descriptor holds everything the CPU pipeline depends on: the
+ * spectrum algorithm, the seed, the dimension along both axes, the patch
+ * size, the wind, the amplitude, the gravity, the fetch, the depth and the
+ * time origin. It encodes into {@value #ENCODED_SIZE} bytes, so it can be
+ * sent instead of the heightfield. Version 1 descriptors, which only
+ * describe the phillips spectrum, and version 2 descriptors, which only
+ * describe square spectra, are still decoded. The tables and the {@link OceanReference} pipeline are
+ * strict, so {@link #displacement(double)} returns a bit identical field
+ * on every node for the same simulation time.
+ * <br>
+ * The GPU pipeline is not bit exact. Use {@link #applyTo(Ocean)} and
+ * {@link Ocean#setFixedTime(float)} to render the same sea state, but
+ * query heights for gameplay only through the CPU path.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+public final strictfp class SeaState {
+
+	/**
+	 * Current encoding version.
+	 */
+	public static final int VERSION = 3;
+	/**
+	 * Size of an encoded descriptor in bytes.
+	 */
+	public static final int ENCODED_SIZE = 52;
+	/**
+	 * Size of a version 1 descriptor, which has no fetch and depth.
+	 */
+	private static final int ENCODED_SIZE_V1 = 43;
+	/**
+	 * Size of a version 2 descriptor, which has no dimension along the z
+	 * axis.
+	 */
+	private static final int ENCODED_SIZE_V2 = 51;
+
+	/**
+	 * Spectrum algorithms a descriptor can refer to. The ids are part of
+	 * the encoding and must never change.
+	 */
+	public enum Algorithm {
+
+		/**
+		 * Phillips spectrum, see {@link Ocean#PHILLIPS}.
+		 */
+		PHILLIPS(1),
+		/**
+		 * Pierson-Moskowitz spectrum, see {@link Ocean#PIERSON_MOSKOWITZ}.
+		 */
+		PIERSON_MOSKOWITZ(2),
+		/**
+		 * JONSWAP spectrum, see {@link Ocean#JONSWAP}.
+		 */
+		JONSWAP(3),
+		/**
+		 * TMA spectrum, see {@link Ocean#TMA}.
+		 */
+		TMA(4);
+
+		private final int id;
+
+		private Algorithm(int id) {
+			this.id = id;
+		}
+
+		/**
+		 * Returns the encoded id.
+		 *
+		 * @return Algorithm id.
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Returns the algorithm with the given id.
+		 *
+		 * @param id Algorithm id.
+		 * @return Algorithm.
+		 */
+		public static Algorithm of(int id) {
+			for (Algorithm algorithm : values()) {
+				if (algorithm.id == id) {
+					return algorithm;
+				}
+			}
+			throw new IllegalArgumentException("Unknown spectrum algorithm id " + id + "!");
+		}
+	}
+
+	private final Algorithm algorithm;
+	private final long seed;
+	private final int dimension, dimensionZ;
+	private final float patchSize;
+	private final float windSpeed;
+	private final float windDirectionX, windDirectionY;
+	private final float amplitude;
+	private final float gravity;
+	private final float fetch, depth;
+	/**
+	 * Wall clock time of simulation time zero, in milliseconds since the
+	 * epoch.
+	 */
+	private final long timeOrigin;
+
+	/**
+	 * Tables, built on first use.
+	 */
+	private volatile OceanTables tables;
+
+	/**
+	 * Creates a new sea state with the default fetch and depth.
+	 *
+	 * @param algorithm Spectrum algorithm.
+	 * @param seed Spectrum seed.
+	 * @param dimension Spectrum quality, a power of two between 32 and
+	 * 65536.
+	 * @param patchSize Patch size.
+	 * @param windSpeed Wind speed.
+	 * @param windDirection Wind direction.
+	 * @param amplitude Wave amplitude.
+	 * @param gravity Gravity.
+	 * @param timeOrigin Wall clock time of simulation time zero, in
+	 * milliseconds since the epoch.
+	 */
+	public SeaState(Algorithm algorithm, long seed, int dimension, float patchSize, float windSpeed, Vector2f windDirection,
+		float amplitude, float gravity, long timeOrigin) {
+		this(algorithm, seed, dimension, patchSize, windSpeed, windDirection, amplitude, gravity, OceanSpectrum.DEFAULT_FETCH,
+			OceanSpectrum.DEFAULT_DEPTH, timeOrigin);
+	}
+
+	/**
+	 * Creates a new sea state.
+	 *
+	 * @param algorithm Spectrum algorithm.
+	 * @param seed Spectrum seed.
+	 * @param dimension Spectrum quality, a power of two between 32 and
+	 * 65536.
+	 * @param patchSize Patch size.
+	 * @param windSpeed Wind speed.
+	 * @param windDirection Wind direction.
+	 * @param amplitude Wave amplitude.
+	 * @param gravity Gravity.
+	 * @param fetch Fetch in meters.
+	 * @param depth Water depth in meters.
+	 * @param timeOrigin Wall clock time of simulation time zero, in
+	 * milliseconds since the epoch.
+	 */
+	public SeaState(Algorithm algorithm, long seed, int dimension, float patchSize, float windSpeed, Vector2f windDirection,
+		float amplitude, float gravity, float fetch, float depth, long timeOrigin) {
+		this(algorithm, seed, dimension, dimension, patchSize, windSpeed, windDirection, amplitude, gravity, fetch, depth, timeOrigin);
+	}
+
+	/**
+	 * Creates a new sea state of a rectangular spectrum, see
+	 * {@link Ocean#setSpectrumQuality(int, int)}.
+	 *
+	 * @param algorithm Spectrum algorithm.
+	 * @param seed Spectrum seed.
+	 * @param dimension Spectrum quality along the x axis, a power of two
+	 * between 32 and 65536.
+	 * @param dimensionZ Spectrum quality along the z axis, a power of two
+	 * between 32 and 65536.
+	 * @param patchSize Patch size along the x axis.
+	 * @param windSpeed Wind speed.
+	 * @param windDirection Wind direction.
+	 * @param amplitude Wave amplitude.
+	 * @param gravity Gravity.
+	 * @param fetch Fetch in meters.
+	 * @param depth Water depth in meters.
+	 * @param timeOrigin Wall clock time of simulation time zero, in
+	 * milliseconds since the epoch.
+	 */
+	public SeaState(Algorithm algorithm, long seed, int dimension, int dimensionZ, float patchSize, float windSpeed, Vector2f windDirection,
+		float amplitude, float gravity, float fetch, float depth, long timeOrigin) {
+		if (algorithm == null) {
+			throw new IllegalArgumentException("The spectrum algorithm must not be null!");
+		}
+		if (!isValidDimension(dimension) || !isValidDimension(dimensionZ)) {
+			throw new IllegalArgumentException("The dimension must be a power of 2 between 32 and 65536!");
+		}
+		this.algorithm = algorithm;
+		this.seed = seed;
+		this.dimension = dimension;
+		this.dimensionZ = dimensionZ;
+		this.patchSize = patchSize;
+		this.windSpeed = windSpeed;
+		this.windDirectionX = windDirection.x;
+		this.windDirectionY = windDirection.y;
+		this.amplitude = amplitude;
+		this.gravity = gravity;
+		this.fetch = fetch;
+		this.depth = depth;
+		this.timeOrigin = timeOrigin;
+	}
+
+	private static boolean isValidDimension(int dimension) {
+		return dimension >= 32 && dimension <= 65536 && Integer.bitCount(dimension) == 1;
+	}
+
+	/**
+	 * Captures the sea state of the given ocean.
+	 *
+	 * @param ocean Ocean which uses a built-in spectrum algorithm.
+	 * @param timeOrigin Wall clock time of simulation time zero, in
+	 * milliseconds since the epoch.
+	 * @return Sea state.
+	 */
+	public static SeaState of(Ocean ocean, long timeOrigin) {
+		SpectrumAlgorithm spectrum = ocean.getSpectrumAlgorithm();
+		Algorithm algorithm;
+		if (spectrum == Ocean.PHILLIPS) {
+			algorithm = Algorithm.PHILLIPS;
+		} else if (spectrum == Ocean.PIERSON_MOSKOWITZ) {
+			algorithm = Algorithm.PIERSON_MOSKOWITZ;
+		} else if (spectrum == Ocean.JONSWAP) {
+			algorithm = Algorithm.JONSWAP;
+		} else if (spectrum == Ocean.TMA) {
+			algorithm = Algorithm.TMA;
+		} else {
+			throw new IllegalArgumentException("Only built-in spectrum algorithms can be described!");
+		}
+		return new SeaState(algorithm, ocean.getSpectrumSeed(), ocean.getSpectrumQuality(), ocean.getSpectrumQualityZ(), ocean.getPatchSize(),
+			ocean.getWindSpeed(), ocean.getWindDirection(), ocean.getAmplitude(), ocean.getGravity(), ocean.getFetch(),
+			ocean.getDepth(), timeOrigin);
+	}
+
+	/**
+	 * Encodes this descriptor into {@value #ENCODED_SIZE} bytes.
+	 *
+	 * @return Encoded descriptor.
+	 */
+	public byte[] encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(ENCODED_SIZE);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) algorithm.getId());
+		buffer.put((byte) Integer.numberOfTrailingZeros(dimension));
+		buffer.putLong(seed);
+		buffer.putFloat(patchSize);
+		buffer.putFloat(windSpeed);
+		buffer.putFloat(windDirectionX);
+		buffer.putFloat(windDirectionY);
+		buffer.putFloat(amplitude);
+		buffer.putFloat(gravity);
+		buffer.putLong(timeOrigin);
+		buffer.putFloat(fetch);
+		buffer.putFloat(depth);
+		buffer.put((byte) Integer.numberOfTrailingZeros(dimensionZ));
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes a descriptor created by {@link #encode()}, or a version 1 or
+	 * 2 descriptor, which describe square spectra.
+	 *
+	 * @param data Encoded descriptor.
+	 * @return Sea state.
+	 */
+	public static SeaState decode(byte[] data) {
+		if (data.length == 0) {
+			throw new IllegalArgumentException("A sea state must be " + ENCODED_SIZE + " bytes long!");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		int version = buffer.get();
+		if (version < 1 || version > VERSION) {
+			throw new IllegalArgumentException("Unsupported sea state version " + version + "!");
+		}
+		int size = version == 1 ? ENCODED_SIZE_V1 : version == 2 ? ENCODED_SIZE_V2 : ENCODED_SIZE;
+		if (data.length != size) {
+			throw new IllegalArgumentException("A version " + version + " sea state must be " + size + " bytes long!");
+		}
+		Algorithm algorithm = Algorithm.of(buffer.get());
+		int shift = buffer.get();
+		if (shift < 5 || shift > 16) {
+			throw new IllegalArgumentException("Invalid sea state dimension!");
+		}
+		long seed = buffer.getLong();
+		float patchSize = buffer.getFloat();
+		float windSpeed = buffer.getFloat();
+		Vector2f windDirection = new Vector2f(buffer.getFloat(), buffer.getFloat());
+		float amplitude = buffer.getFloat();
+		float gravity = buffer.getFloat();
+		long timeOrigin = buffer.getLong();
+		float fetch = OceanSpectrum.DEFAULT_FETCH, depth = OceanSpectrum.DEFAULT_DEPTH;
+		if (version != 1) {
+			fetch = buffer.getFloat();
+			depth = buffer.getFloat();
+		}
+		int shiftZ = shift;
+		if (version > 2) {
+			shiftZ = buffer.get();
+			if (shiftZ < 5 || shiftZ > 16) {
+				throw new IllegalArgumentException("Invalid sea state dimension!");
+			}
+		}
+		return new SeaState(algorithm, seed, 1 << shift, 1 << shiftZ, patchSize, windSpeed, windDirection, amplitude, gravity, fetch, depth,
+			timeOrigin);
+	}
+
+	/**
+	 * Applies this sea state to the given ocean. The time origin is not
+	 * applied, see {@link #getSimulationTime(long)}.
+	 *
+	 * @param ocean Ocean.
+	 */
+	public void applyTo(Ocean ocean) {
+		switch (algorithm) {
+			case PIERSON_MOSKOWITZ:
+				ocean.setSpectrumAlgorithm(Ocean.PIERSON_MOSKOWITZ);
+				break;
+			case JONSWAP:
+				ocean.setSpectrumAlgorithm(Ocean.JONSWAP);
+				break;
+			case TMA:
+				ocean.setSpectrumAlgorithm(Ocean.TMA);
+				break;
+			default:
+				ocean.setSpectrumAlgorithm(Ocean.PHILLIPS);
+		}
+		ocean.setSpectrumSeed(seed);
+		ocean.setSpectrumQuality(dimension, dimensionZ);
+		ocean.setPatchSize(patchSize);
+		ocean.setWindSpeed(windSpeed);
+		ocean.setWindDirection(new Vector2f(windDirectionX, windDirectionY));
+		ocean.setAmplitude(amplitude);
+		ocean.setGravity(gravity);
+		ocean.setFetch(fetch);
+		ocean.setDepth(depth);
+	}
+
+	/**
+	 * Returns the spectrum algorithm of this sea state, which does not
+	 * need an ocean.
+	 *
+	 * @return Spectrum algorithm.
+	 */
+	public SpectrumAlgorithm createSpectrumAlgorithm() {
+		Vector2f windDirection = new Vector2f(windDirectionX, windDirectionY);
+		switch (algorithm) {
+			case PIERSON_MOSKOWITZ:
+				return OceanSpectrum.create(OceanSpectrum.Shape.PIERSON_MOSKOWITZ, windSpeed, windDirection, fetch, depth, amplitude, gravity);
+			case JONSWAP:
+				return OceanSpectrum.create(OceanSpectrum.Shape.JONSWAP, windSpeed, windDirection, fetch, depth, amplitude, gravity);
+			case TMA:
+				return OceanSpectrum.create(OceanSpectrum.Shape.TMA, windSpeed, windDirection, fetch, depth, amplitude, gravity);
+			default:
+				return (water, k) -> Ocean.phillips(k, windSpeed, windDirection, amplitude, gravity);
+		}
+	}
+
+	/**
+	 * Returns the tables of this sea state. They are built on first use and
+	 * shared afterwards.
+	 *
+	 * @return Ocean tables.
+	 */
+	public OceanTables getTables() {
+		OceanTables t = tables;
+		if (t == null) {
+			//Concurrent builds produce identical tables, so the race is harmless
+			t = OceanTables.build(null, createSpectrumAlgorithm(), dimension, dimensionZ, patchSize, gravity, seed);
+			tables = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Reconstructs the displacement field at the given simulation time.
+	 *
+	 * @param simulationTime Simulation time in seconds.
+	 * @return Displacement as (x, y, z) triples, texel (x, y) at index
+	 * <code>3 * (y * dimension + x)</code>.
+	 */
+	public double[] displacement(double simulationTime) {
+		OceanQueryEvent event = new OceanQueryEvent();
+		event.begin();
+		OceanReference reference = new OceanReference(getTables(), patchSize, Vector2f.UNIT_XY);
+		//The spectrum runs at a third of the simulation time, like Ocean#getSpectrumTime()
+		reference.update(simulationTime / 3.0);
+		double[] displacement = reference.getDisplacement();
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = "sea state displacement";
+			event.dimension = dimension;
+			event.points = displacement.length / 3;
+			event.bytes = (long) displacement.length * Double.BYTES;
+			event.commit();
+		}
+		return displacement;
+	}
+
+	/**
+	 * Creates an analytic point query of the most energetic waves of this
+	 * sea state. Pass {@link #getSimulationTime(long)} divided by 3 as the
+	 * spectrum time.
+	 *
+	 * @param components Number of waves.
+	 * @return Wave query.
+	 */
+	public OceanWaveQuery createWaveQuery(int components) {
+		return new OceanWaveQuery(getTables(), patchSize, components);
+	}
+
+	/**
+	 * Returns the simulation time at the given wall clock time.
+	 *
+	 * @param epochMillis Wall clock time in milliseconds since the epoch.
+	 * @return Simulation time in seconds.
+	 */
+	public double getSimulationTime(long epochMillis) {
+		return (epochMillis - timeOrigin) / 1000.0;
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public int getDimensionZ() {
+		return dimensionZ;
+	}
+
+	public float getPatchSize() {
+		return patchSize;
+	}
+
+	public float getWindSpeed() {
+		return windSpeed;
+	}
+
+	public Vector2f getWindDirection() {
+		return new Vector2f(windDirectionX, windDirectionY);
+	}
+
+	public float getAmplitude() {
+		return amplitude;
+	}
+
+	public float getGravity() {
+		return gravity;
+	}
+
+	public float getFetch() {
+		return fetch;
+	}
+
+	public float getDepth() {
+		return depth;
+	}
+
+	public long getTimeOrigin() {
+		return timeOrigin;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SeaState)) {
+			return false;
+		}
+		return Arrays.equals(encode(), ((SeaState) obj).encode());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(encode());
+	}
+
+	@Override
+	public String toString() {
+		return "SeaState[" + algorithm + ", seed=" + seed + ", dimension=" + dimension + "x" + dimensionZ + ", patchSize=" + patchSize
+			+ ", windSpeed=" + windSpeed + ", windDirection=(" + windDirectionX + ", " + windDirectionY + "), amplitude=" + amplitude
+			+ ", gravity=" + gravity + ", fetch=" + fetch + ", depth=" + depth + ", timeOrigin=" + timeOrigin + "]";
+	}
+}
@@ -0,0 +1,154 @@
+package org.ice.scene.ocean;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Size classed pool of off-heap staging buffers for texture uploads.
+ * <br>
+ * Buffers are allocated with <code>memAlloc</code> outside of the Java
+ * heap and the direct memory limit, rounded up to the next power of two.
+ * Released buffers are kept per size class and handed out again, so
+ * repeated table rebuilds of the same quality do not allocate at all.
+ * Buffers which do not fit into the pool anymore are freed immediately
+ * instead of being left to the garbage collector.
+ * <br>
+ * The pool is not thread safe and must only be used on the render thread.
+ *
+ * @author Daniel Kleebinder
+ * @since 1.0.0
+ */
+final class StagingBufferPool {
+
+	/**
+	 * Smallest size class, 4 KiB.
+	 */
+	private static final int MIN_CLASS = 12;
+	/**
+	 * Largest size class, 1 GiB.
+	 */
+	private static final int MAX_CLASS = 30;
+
+	/**
+	 * Free buffers per size class.
+	 */
+	private final List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+	/**
+	 * Maximum number of bytes kept in the pool.
+	 */
+	private final long capacity;
+
+	/**
+	 * Bytes kept in the pool and bytes handed out.
+	 */
+	private long pooledBytes, usedBytes;
+	/**
+	 * Number of acquisitions served from the pool and by a new allocation.
+	 */
+	private long hits, misses;
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param capacity Maximum number of bytes kept in the pool.
+	 */
+	StagingBufferPool(long capacity) {
+		this.capacity = capacity;
+		for (int i = 0; i <= MAX_CLASS - MIN_CLASS; i++) {
+			free.add(new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * Acquires a native ordered buffer with at least the given number of
+	 * bytes. Its limit is set to the requested size.
+	 *
+	 * @param bytes Number of bytes.
+	 * @return Staging buffer which has to be released again.
+	 */
+	ByteBuffer acquire(int bytes) {
+		int sizeClass = sizeClass(bytes);
+		ByteBuffer buffer = free.get(sizeClass - MIN_CLASS).poll();
+		if (buffer != null) {
+			pooledBytes -= buffer.capacity();
+			hits++;
+		} else {
+			buffer = MemoryUtil.memAlloc(1 << sizeClass).order(ByteOrder.nativeOrder());
+			misses++;
+		}
+		usedBytes += buffer.capacity();
+		buffer.clear();
+		buffer.limit(bytes);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer acquired from this pool.
+	 *
+	 * @param buffer Staging buffer.
+	 */
+	void release(ByteBuffer buffer) {
+		int size = buffer.capacity();
+		usedBytes -= size;
+		if (pooledBytes + size > capacity) {
+			MemoryUtil.memFree(buffer);
+			return;
+		}
+		free.get(sizeClass(size) - MIN_CLASS).push(buffer);
+		pooledBytes += size;
+	}
+
+	/**
+	 * Frees all pooled buffers. Buffers which are still in use are not
+	 * affected.
+	 */
+	void trim() {
+		for (ArrayDeque<ByteBuffer> buffers : free) {
+			for (ByteBuffer buffer : buffers) {
+				MemoryUtil.memFree(buffer);
+			}
+			buffers.clear();
+		}
+		pooledBytes = 0;
+	}
+
+	private static int sizeClass(int bytes) {
+		int sizeClass = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1));
+		if (sizeClass > MAX_CLASS) {
+			throw new IllegalArgumentException("Staging buffers are limited to " + (1 << MAX_CLASS) + " bytes!");
+		}
+		return sizeClass;
+	}
+
+	/**
+	 * Returns the number of bytes kept in the pool.
+	 *
+	 * @return Pooled bytes.
+	 */
+	long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	/**
+	 * Returns the number of bytes currently handed out.
+	 *
+	 * @return Used bytes.
+	 */
+	long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Returns the fraction of acquisitions which were served from the pool.
+	 *
+	 * @return Hit rate between 0.0 and 1.0.
+	 */
+	double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0.0 : hits / (double) total;
+	}
+}